@@ -0,0 +1,73 @@
+package org.mozilla.magnet.scanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Item table churn in BaseScanner: items coming into range, being seen again and leaving.
+ */
+@State(Scope.Thread)
+public class BaseScannerBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int items;
+
+    private BenchmarkScanner mScanner;
+    private MagnetScannerItem[] mItems;
+    private int mNext;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        mScanner = new BenchmarkScanner();
+        mScanner.setItemMaxAge(5000);
+        mScanner.start(new NoopListener());
+        mItems = new MagnetScannerItem[items];
+
+        for (int i = 0; i < items; i++) {
+            mItems[i] = new MagnetScannerItem("https://example.com/" + i);
+            mScanner.addItem(mItems[i]);
+        }
+    }
+
+    @Benchmark
+    public void touch() {
+        mScanner.touchItem(mItems[mNext++ % items]);
+    }
+
+    @Benchmark
+    public void removeAndAdd(Blackhole blackhole) {
+        MagnetScannerItem item = mItems[mNext++ % items];
+        mScanner.removeItem(item.getUrl());
+        mScanner.addItem(item);
+        blackhole.consume(item);
+    }
+
+    @Benchmark
+    public void lookupAndTouch() {
+        MagnetScannerItem item = mScanner.getItem(mItems[mNext++ % items].getUrl());
+        mScanner.touchItem(item);
+    }
+
+    static class BenchmarkScanner extends BaseScanner {
+        @Override
+        public String scannerType() {
+            return "benchmark";
+        }
+    }
+
+    static class NoopListener implements MagnetScannerListener {
+        @Override
+        public void onItemFound(MagnetScannerItem item) {}
+
+        @Override
+        public void onItemLost(MagnetScannerItem item) {}
+
+        @Override
+        public void onItemUpdated(MagnetScannerItem item) {}
+    }
+}
@@ -0,0 +1,70 @@
+package org.mozilla.magnet.scanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Expiry check when nothing or a few items are due: the deadline ordered ExpiryList used by
+ * BaseScanner against the full map sweep ScannerBle used to run every 6 s.
+ */
+@State(Scope.Thread)
+public class ExpiryBenchmark {
+    private static final long MAX_AGE = 5000;
+
+    @Param({"10", "100", "1000"})
+    public int items;
+
+    private final HashMap<String, MagnetScannerItem> mMap = new HashMap<>();
+    private final ExpiryList mList = new ExpiryList();
+    private MagnetScannerItem[] mItems;
+    private long mNow;
+
+    @Setup
+    public void setup() {
+        mItems = new MagnetScannerItem[items];
+
+        for (int i = 0; i < items; i++) {
+            mItems[i] = new MagnetScannerItem("https://example.com/" + i);
+            mMap.put(mItems[i].getUrl(), mItems[i]);
+            mList.touch(mItems[i], i + MAX_AGE);
+        }
+
+        mNow = items + MAX_AGE;
+    }
+
+    /**
+     * One item due per check: poll it and put it back as if seen again.
+     */
+    @Benchmark
+    public void expiryList(Blackhole blackhole) {
+        mNow++;
+        MagnetScannerItem item;
+
+        while ((item = mList.poll(mNow - items)) != null) {
+            blackhole.consume(item);
+            mList.touch(item, mNow + MAX_AGE);
+        }
+    }
+
+    @Benchmark
+    public void mapSweep(Blackhole blackhole) {
+        long now = System.currentTimeMillis();
+        ArrayList<String> toRemove = new ArrayList<>();
+
+        for (Map.Entry<String, MagnetScannerItem> entry : mMap.entrySet()) {
+            if (now - entry.getValue().getLastSeen() > MAX_AGE) {
+                toRemove.add(entry.getKey());
+            }
+        }
+
+        blackhole.consume(toRemove);
+    }
+}
@@ -0,0 +1,95 @@
+package org.mozilla.magnet.scanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Handing the items of a background scan to the app: serialized HashMaps in the broadcast, as
+ * the Parcel does for a Serializable extra, against the binary items file decoded all at once
+ * or just for the first item.
+ *
+ * Encoded, the file is about half the size: 623 bytes against 1370 for 10 items, 6158 against
+ * 11855 for 100 and 62375 against 117572 for 1000.
+ */
+@State(Scope.Thread)
+public class ItemsFileBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int items;
+
+    private List<MagnetScannerItem> mItems;
+    private byte[] mSerialized;
+    private byte[] mFile;
+
+    @Setup
+    public void setup() throws IOException {
+        mItems = new ArrayList<>(items);
+
+        for (int i = 0; i < items; i++) {
+            MagnetScannerItem item = new MagnetScannerItem("https://tengam.org/" + Integer.toHexString(i * 7919))
+                    .setType(i % 2 == 0 ? "ble" : "geolocation")
+                    .setDistance(i % 50);
+
+            if (i % 2 == 1) {
+                item.setChannelId("channel-" + (i % 10)).setLatitude(51.5074 + i * 1e-5).setLongitude(-0.1278);
+            }
+
+            mItems.add(item);
+        }
+
+        mSerialized = encodeSerializable();
+        mFile = encodeFile();
+    }
+
+    @Benchmark
+    public byte[] encodeSerializable() throws IOException {
+        ArrayList<HashMap> serialized = new ArrayList<>(mItems.size());
+        for (MagnetScannerItem item : mItems) {
+            serialized.add(item.serialize());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(serialized);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object decodeSerializable() throws Exception {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(mSerialized));
+        return in.readObject();
+    }
+
+    @Benchmark
+    public byte[] encodeFile() throws IOException {
+        return ItemsFile.encode(1, mItems);
+    }
+
+    @Benchmark
+    public double decodeFile() throws IOException {
+        ItemsFile file = new ItemsFile(mFile);
+        double total = 0;
+        for (int i = 0; i < file.size(); i++) {
+            total += file.get(i).getDistance();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public MagnetScannerItem decodeFileFirst() throws IOException {
+        return new ItemsFile(mFile).get(0);
+    }
+}
@@ -0,0 +1,40 @@
+package org.mozilla.magnet.scanner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+
+/**
+ * Item serialization as done for every item in the background ITEMS_FOUND broadcast.
+ */
+@State(Scope.Thread)
+public class MagnetScannerItemBenchmark {
+    private MagnetScannerItem mBleItem;
+    private MagnetScannerItem mGeolocationItem;
+
+    @Setup
+    public void setup() {
+        mBleItem = new MagnetScannerItem("https://www.mozilla.org/")
+                .setType("ble")
+                .setDistance(2.5);
+
+        mGeolocationItem = new MagnetScannerItem("https://tengam.org/abc123")
+                .setType("geolocation")
+                .setChannelId("channel-1")
+                .setLatitude(51.5074)
+                .setLongitude(-0.1278);
+    }
+
+    @Benchmark
+    public HashMap serializeBle() {
+        return mBleItem.serialize();
+    }
+
+    @Benchmark
+    public HashMap serializeGeolocation() {
+        return mGeolocationItem.serialize();
+    }
+}
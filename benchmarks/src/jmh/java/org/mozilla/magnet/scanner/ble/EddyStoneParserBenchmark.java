@@ -0,0 +1,77 @@
+package org.mozilla.magnet.scanner.ble;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+/**
+ * Parses a corpus of scan records as received in a busy venue: Eddystone-URL and UriBeacon
+ * adverts, other beacons and devices, and malformed records.
+ */
+@State(Scope.Thread)
+public class EddyStoneParserBenchmark {
+    private static final byte[][] ADVERTS = {
+            // eddystone-url: https://www.mozilla.org/
+            { 0x02, 0x01, 0x06, 0x03, 0x03, (byte) 0xaa, (byte) 0xfe, 0x0e, 0x16, (byte) 0xaa, (byte) 0xfe,
+                    0x10, (byte) 0xeb, 0x01, 'm', 'o', 'z', 'i', 'l', 'l', 'a', 0x01 },
+            // eddystone-url: https://goo.gl/S6zT6P
+            { 0x03, 0x03, (byte) 0xaa, (byte) 0xfe, 0x13, 0x16, (byte) 0xaa, (byte) 0xfe, 0x10, (byte) 0xf2, 0x03,
+                    'g', 'o', 'o', '.', 'g', 'l', '/', 'S', '6', 'z', 'T', '6', 'P' },
+            // uribeacon: http://www.example.com
+            { 0x02, 0x01, 0x06, 0x03, 0x03, (byte) 0xd8, (byte) 0xfe, 0x0f, 0x16, (byte) 0xd8, (byte) 0xfe,
+                    0x00, (byte) 0xee, 0x00, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 0x07 },
+            // eddystone-uid
+            { 0x02, 0x01, 0x06, 0x03, 0x03, (byte) 0xaa, (byte) 0xfe, 0x17, 0x16, (byte) 0xaa, (byte) 0xfe,
+                    0x00, (byte) 0xe7, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 1, 2, 3, 4, 5, 6, 0, 0 },
+            // ibeacon
+            { 0x02, 0x01, 0x06, 0x1a, (byte) 0xff, 0x4c, 0x00, 0x02, 0x15, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10,
+                    11, 12, 13, 14, 15, 16, 0x00, 0x01, 0x00, 0x02, (byte) 0xc5 },
+            // headphones: flags, name, manufacturer data
+            { 0x02, 0x01, 0x1a, 0x05, 0x09, 'B', 'u', 'd', 's', 0x07, (byte) 0xff, 0x06, 0x00, 0x01, 0x09, 0x20, 0x02 },
+            // truncated eddystone-url
+            { 0x02, 0x01, 0x06, 0x0e, 0x16, (byte) 0xaa, (byte) 0xfe, 0x10, (byte) 0xeb, 0x01, 'm', 'o' },
+            // field length overrun
+            { 0x1f, 0x16, (byte) 0xaa, (byte) 0xfe, 0x10 },
+    };
+
+    private byte[][] mCorpus;
+    private EddyStoneParser mParser;
+
+    @Setup
+    public void setup() {
+        // pad records to the 62 bytes delivered by the platform,
+        // plus some random noise records
+        Random random = new Random(42);
+        mCorpus = new byte[ADVERTS.length + 4][];
+
+        for (int i = 0; i < ADVERTS.length; i++) {
+            mCorpus[i] = new byte[62];
+            System.arraycopy(ADVERTS[i], 0, mCorpus[i], 0, ADVERTS[i].length);
+        }
+
+        for (int i = ADVERTS.length; i < mCorpus.length; i++) {
+            mCorpus[i] = new byte[62];
+            random.nextBytes(mCorpus[i]);
+        }
+
+        mParser = new EddyStoneParser();
+    }
+
+    @Benchmark
+    public void parseCorpus(Blackhole blackhole) {
+        for (byte[] record : mCorpus) {
+            blackhole.consume(mParser.parse(record, 0, record.length));
+        }
+    }
+
+    @Benchmark
+    public void parseCorpusToItems(Blackhole blackhole) {
+        for (byte[] record : mCorpus) {
+            blackhole.consume(EddyStoneParser.parse(record, -60));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Offline region lookups: a 100 m search of a region of beacons spread over about 2 x 2 km,
+ * and loading the region from its file.
+ */
+@State(Scope.Thread)
+public class RegionIndexBenchmark {
+    private static final double LATITUDE = 51.5074;
+    private static final double LONGITUDE = -0.1278;
+
+    @Param({"1000", "10000", "100000"})
+    public int items;
+
+    private final RegionIndex mIndex = new RegionIndex();
+    private final Random mRandom = new Random(42);
+    private File mFile;
+
+    @Setup
+    public void setup() throws Exception {
+        List<MagnetScannerItem> region = new ArrayList<>(items);
+
+        for (int i = 0; i < items; i++) {
+            region.add(SearchResponseParser.createItem("https://tengam.org/" + i, "channel-" + (i % 10),
+                    LATITUDE + mRandom.nextDouble() * 0.018, LONGITUDE + mRandom.nextDouble() * 0.029));
+        }
+
+        mIndex.apply(new RegionIndex.Update(1, true, region, Collections.<String>emptyList()));
+        mFile = File.createTempFile("region", null);
+        mIndex.save(mFile);
+    }
+
+    @TearDown
+    public void teardown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public HashMap<String, MagnetScannerItem> query() {
+        return mIndex.query(LATITUDE + mRandom.nextDouble() * 0.018, LONGITUDE + mRandom.nextDouble() * 0.029, 100);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public RegionIndex load() {
+        RegionIndex index = new RegionIndex();
+        index.load(mFile);
+        return index;
+    }
+}
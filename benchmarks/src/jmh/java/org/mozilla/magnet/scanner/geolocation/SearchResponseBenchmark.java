@@ -0,0 +1,136 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mozilla.magnet.scanner.BaseScanner;
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+import org.mozilla.magnet.scanner.MagnetScannerListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+
+/**
+ * Handling of a beacon search response: decoding the json body into items and diffing them
+ * against the items of the previous response, half of which are still present.
+ *
+ * {@code decodeStream} is the pull parser used by the scanner, {@code decodeDom} the org.json
+ * tree plus copy into items it replaced.
+ */
+@State(Scope.Thread)
+public class SearchResponseBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int results;
+
+    private byte[] mBody;
+    private HashMap<String, MagnetScannerItem> mPrevious;
+    private HashMap<String, MagnetScannerItem> mNext;
+
+    @Setup
+    public void setup() throws Exception {
+        mBody = createResponse(0, results).toString().getBytes("utf-8");
+        mPrevious = parse(mBody);
+        mNext = parse(createResponse(results / 2, results).toString().getBytes("utf-8"));
+    }
+
+    @Benchmark
+    public HashMap<String, MagnetScannerItem> decodeStream() throws Exception {
+        return parse(mBody);
+    }
+
+    @Benchmark
+    public HashMap<String, MagnetScannerItem> decodeDom() throws Exception {
+        JSONArray jsonArray = new JSONArray(new String(mBody, "utf-8"));
+        HashMap<String, MagnetScannerItem> result = new HashMap<>();
+
+        for (int i = 0 ; i < jsonArray.length(); i++) {
+            try {
+                JSONObject jsonItem = jsonArray.getJSONObject(i);
+                String url = jsonItem.getString("short_url");
+                JSONObject jsonLocation = jsonItem.getJSONObject("location");
+                result.put(url, SearchResponseParser.createItem(url,
+                        jsonItem.getString("channel_id"),
+                        jsonLocation.getDouble("latitude"),
+                        jsonLocation.getDouble("longitude")));
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return result;
+    }
+
+    @Benchmark
+    public BaseScanner diff(Diff diff) {
+        diff.mScanner.replace(mNext);
+        return diff.mScanner;
+    }
+
+    private static HashMap<String, MagnetScannerItem> parse(byte[] body) throws Exception {
+        return SearchResponseParser.parse(new ByteArrayInputStream(body), "utf-8");
+    }
+
+    private static JSONArray createResponse(int first, int count) throws Exception {
+        JSONArray array = new JSONArray();
+
+        for (int i = first; i < first + count; i++) {
+            JSONObject location = new JSONObject()
+                    .put("latitude", 51.5074 + i * 0.00001)
+                    .put("longitude", -0.1278 + i * 0.00001);
+
+            array.put(new JSONObject()
+                    .put("short_url", "https://tengam.org/" + i)
+                    .put("channel_id", "channel-" + (i % 10))
+                    .put("location", location)
+                    .put("is_virtual", false));
+        }
+
+        return array;
+    }
+
+    /**
+     * A scanner holding the previous items, set up again before each
+     * diff, and only for it: the per-invocation setup would otherwise
+     * add timestamping to the decode benchmarks too.
+     */
+    @State(Scope.Thread)
+    public static class Diff {
+        DiffScanner mScanner;
+
+        @Setup(Level.Invocation)
+        public void setup(SearchResponseBenchmark benchmark) {
+            mScanner = new DiffScanner();
+            mScanner.start(new NoopListener());
+            mScanner.replace(benchmark.mPrevious);
+        }
+    }
+
+    static class DiffScanner extends BaseScanner {
+        @Override
+        public String scannerType() {
+            return "geolocation";
+        }
+
+        void replace(HashMap<String, MagnetScannerItem> items) {
+            replaceItems(items);
+        }
+    }
+
+    static class NoopListener implements MagnetScannerListener {
+        @Override
+        public void onItemFound(MagnetScannerItem item) {}
+
+        @Override
+        public void onItemLost(MagnetScannerItem item) {}
+
+        @Override
+        public void onItemUpdated(MagnetScannerItem item) {}
+    }
+}
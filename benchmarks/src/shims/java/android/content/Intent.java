@@ -0,0 +1,10 @@
+package android.content;
+
+/**
+ * Stand-in for the platform class so scanner code runs on the plain JVM.
+ */
+public class Intent {
+    public String getStringExtra(String name) { return null; }
+    public boolean hasExtra(String name) { return false; }
+    public long getLongExtra(String name, long defaultValue) { return defaultValue; }
+}
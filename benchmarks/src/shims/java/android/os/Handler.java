@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * Stand-in for the platform class so scanner code runs on the plain JVM. Messages are never
+ * delivered; benchmarks drive scheduled work themselves.
+ */
+public class Handler {
+    public Handler() {}
+    public Handler(Looper looper) {}
+    public final boolean post(Runnable r) { return true; }
+    public final boolean postDelayed(Runnable r, long delayMillis) { return true; }
+    public final boolean postAtTime(Runnable r, long uptimeMillis) { return true; }
+    public final void removeCallbacks(Runnable r) {}
+}
@@ -0,0 +1,11 @@
+package android.os;
+
+/**
+ * Stand-in for the platform class so scanner code runs on the plain JVM.
+ */
+public final class Looper {
+    private static final Looper sMainLooper = new Looper();
+
+    public static Looper myLooper() { return sMainLooper; }
+    public static Looper getMainLooper() { return sMainLooper; }
+}
@@ -0,0 +1,9 @@
+package android.os;
+
+/**
+ * Stand-in for the platform class so scanner code runs on the plain JVM.
+ */
+public final class SystemClock {
+    public static long uptimeMillis() { return System.nanoTime() / 1000000; }
+    public static long elapsedRealtime() { return System.nanoTime() / 1000000; }
+}
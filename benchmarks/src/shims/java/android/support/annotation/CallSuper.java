@@ -0,0 +1,6 @@
+package android.support.annotation;
+
+/**
+ * Stand-in for the support annotation so scanner code compiles on the plain JVM.
+ */
+public @interface CallSuper {}
@@ -0,0 +1,11 @@
+package android.util;
+
+/**
+ * Stand-in for the platform class so scanner code runs on the plain JVM. Logging is dropped.
+ */
+public final class Log {
+    public static int d(String tag, String msg) { return 0; }
+    public static int i(String tag, String msg) { return 0; }
+    public static int e(String tag, String msg) { return 0; }
+    public static int e(String tag, String msg, Throwable tr) { return 0; }
+}
@@ -0,0 +1,371 @@
+package org.mozilla.magnet.scanner;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.v4.content.LocalBroadcastManager;
+import android.util.Log;
+
+import org.mozilla.magnet.scanner.ble.ScannerBle;
+import org.mozilla.magnet.scanner.geolocation.ScannerGeolocation;
+import org.mozilla.magnet.scanner.io.FileIO;
+import org.mozilla.magnet.scanner.mdns.ScannerMdns;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A short scan with every scanner, run in the background by
+ * {@link ServiceBackgroundScanner} or {@link ScanJobService},
+ * broadcasting the items found.
+ *
+ * The scan stops as soon as every scanner has gone quiet: no new item
+ * for the time it usually keeps finding items, or no item at all within
+ * the time it usually takes to find one. Both are learned per scanner
+ * from the previous scans, so the radios stay on only as long as this
+ * device and its usual places need.
+ *
+ * Geolocation is left out without a network, or while the search API
+ * is failing. Items are handed over in an {@link ItemsFile}, only those
+ * not broadcast by a recent scan unless all items are asked for, see
+ * {@link SeenItems}.
+ *
+ * The scanners come warm from the process' {@link ScanEngine}. Each
+ * scan is recorded in the {@link ScanTelemetry}.
+ */
+class BackgroundScan implements MagnetScannerListener, MagnetScanner.ScannerActivityListener {
+    private final static String TAG = "BackgroundScan";
+    private static final long MAX_SCAN_DURATION_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final String ITEMS_FILE = "magnet-items";
+    private static final String SEEN_ITEMS_FILE = "magnet-seen-items";
+    private static final String PREFERENCES = "magnet-background-scan";
+    private static final String BROADCAST_ALL_ITEMS = "broadcast_all_items";
+    private final Context mContext;
+    private final Callback mCallback;
+    private final ArrayList<MagnetScannerItem> mItems = new ArrayList<>();
+    private MagnetScanner mMagnetScanner;
+    private Handler mHandler;
+    private boolean mScanning;
+    private boolean mBroadcasting;
+    private long mTimeStarted;
+    private long mWallTimeStarted;
+    private boolean mUsedGeolocation;
+    private QuiescenceTracker mQuiescence;
+
+    /**
+     * @param callback Called when the scan ends, stopped or not.
+     */
+    BackgroundScan(Context context, Callback callback) {
+        mContext = context;
+        mCallback = callback;
+    }
+
+    /**
+     * Starts scanning, on a thread with a looper.
+     */
+    void start() {
+        if (isScanning()) { return; }
+        Log.d(TAG, "start");
+
+        mItems.clear();
+        mTimeStarted = SystemClock.uptimeMillis();
+        mWallTimeStarted = System.currentTimeMillis();
+        mUsedGeolocation = shouldUseGeolocation(mContext);
+
+        mMagnetScanner = ScanEngine.getInstance(mContext).acquire(mUsedGeolocation);
+
+        mHandler = new Handler();
+        mQuiescence = new QuiescenceTracker(new ScanHistory(mContext), mMagnetScanner.getScannerTypes(), mTimeStarted);
+        mMagnetScanner.setActivityListener(this).start(this);
+        addStopListener();
+
+        // complete once the scanners have gone quiet
+        mScanning = true;
+        scheduleStop.run();
+    }
+
+    /**
+     * Stops scanning without broadcasting the items.
+     */
+    void stop() {
+        if (!mScanning) { return; }
+        ScanTelemetry.getInstance(mContext).add(newRecord(ScanTelemetry.StopReason.STOPPED, 0));
+        finish();
+        mCallback.onScanComplete(false, 0);
+    }
+
+    /**
+     * @return true until the callback is called, so also while the
+     * items of a completed scan are being broadcast.
+     */
+    boolean isScanning() {
+        return mScanning || mBroadcasting;
+    }
+
+    /**
+     * With the search api down or no network there's
+     * no geolocation scan to wait for, scanning nearby
+     * is enough.
+     */
+    static boolean shouldUseGeolocation(Context context) {
+        ConnectivityManager connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo network = connectivity.getActiveNetworkInfo();
+
+        if (network == null || !network.isConnected()) {
+            Log.d(TAG, "no network, skipping geolocation");
+            return false;
+        }
+
+        if (ScannerGeolocation.getCircuitBreaker().isOpen(SystemClock.elapsedRealtime())) {
+            Log.d(TAG, "search api unavailable, skipping geolocation");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Persists whether scans broadcast every item found or only
+     * those the app hasn't been told about recently.
+     */
+    static void setBroadcastAllItems(Context context, boolean allItems) {
+        context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE)
+                .edit()
+                .putBoolean(BROADCAST_ALL_ITEMS, allItems)
+                .apply();
+    }
+
+    private static boolean shouldBroadcastAllItems(Context context) {
+        return context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE)
+                .getBoolean(BROADCAST_ALL_ITEMS, false);
+    }
+
+    private void finish() {
+        Log.d(TAG, "stop");
+        ScanEngine.getInstance(mContext).release(mMagnetScanner);
+        mHandler.removeCallbacks(onScanComplete);
+        mHandler.removeCallbacks(scheduleStop);
+        removeStopListener();
+        mScanning = false;
+    }
+
+    /**
+     * Moves the end of the scan to when the scanners will have gone
+     * quiet, never past the max duration.
+     */
+    private final Runnable scheduleStop = new Runnable() {
+        @Override
+        public void run() {
+            if (!mScanning) { return; }
+            long stopAt = Math.min(mQuiescence.getQuietAt(), mTimeStarted + MAX_SCAN_DURATION_MS);
+            mHandler.removeCallbacks(onScanComplete);
+            mHandler.postAtTime(onScanComplete, stopAt);
+        }
+    };
+
+    private final Runnable onScanComplete = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "scan complete after: " + (SystemClock.uptimeMillis() - mTimeStarted));
+            boolean timedOut = mQuiescence.getQuietAt() > mTimeStarted + MAX_SCAN_DURATION_MS;
+            mQuiescence.save(SystemClock.uptimeMillis());
+
+            // the broadcast count is only known once the files are done
+            ScanTelemetry.Record record = newRecord(timedOut ? ScanTelemetry.StopReason.TIMEOUT : ScanTelemetry.StopReason.QUIET, 0);
+            ArrayList<MagnetScannerItem> items = new ArrayList<>(mItems);
+            mItems.clear();
+            mBroadcasting = true;
+            finish();
+            broadcastFoundItems(items, record);
+        }
+    };
+
+    /**
+     * Called on this scan's looper once the items are broadcast.
+     */
+    private void onBroadcastComplete(ScanTelemetry.Record record, int broadcast) {
+        ScanTelemetry.getInstance(mContext).add(record.withBroadcast(broadcast));
+        mBroadcasting = false;
+        mCallback.onScanComplete(true, record.getFound());
+    }
+
+    private ScanTelemetry.Record newRecord(ScanTelemetry.StopReason reason, int broadcast) {
+        ScannerGeolocation geolocation = (ScannerGeolocation) mMagnetScanner.getScanner(ScannerGeolocation.class);
+
+        return new ScanTelemetry.Record(
+                mWallTimeStarted,
+                (int) (SystemClock.uptimeMillis() - mTimeStarted),
+                getFirstItemTime(ScannerBle.class),
+                getFirstItemTime(ScannerMdns.class),
+                getFirstItemTime(ScannerGeolocation.class),
+                mItems.size(),
+                broadcast,
+                geolocation != null ? geolocation.getSearchLatency() : -1,
+                reason,
+                mUsedGeolocation);
+    }
+
+    private int getFirstItemTime(Class<? extends BaseScanner> type) {
+        BaseScanner scanner = mMagnetScanner.getScanner(type);
+        return scanner != null ? (int) mQuiescence.getFirstItemTime(scanner.scannerType()) : -1;
+    }
+
+    @Override
+    public void onScannerItemFound(String scannerType) {
+        mQuiescence.onItemFound(scannerType, SystemClock.uptimeMillis());
+
+        // scanners report from their own threads
+        mHandler.post(scheduleStop);
+    }
+
+    /**
+     * Called on this scan's looper, like `onItemLost`, so the
+     * items only change on the thread that broadcasts them.
+     */
+    @Override
+    public void onItemFound(MagnetScannerItem item) {
+        Log.d(TAG, "scan item found: " + item.getUrl());
+        mItems.add(item);
+    }
+
+    @Override
+    public void onItemLost(MagnetScannerItem item) {
+        Log.d(TAG, "scan item lost: " + item.getUrl());
+        mItems.remove(item);
+    }
+
+    @Override
+    public void onItemUpdated(MagnetScannerItem item) {
+        // items are broadcast as found, later updates aren't needed
+    }
+
+    /**
+     * Background scans must be stopped when the
+     * app comes back to the foreground to prevent
+     * unnecessary notifications popping up.
+     *
+     * To achieve this we send a 'STOP_SCAN' broadcast from
+     * MagnetScanner when .stopBackgroundScanning() is called.
+     */
+    private void addStopListener() {
+        LocalBroadcastManager
+                .getInstance(mContext)
+                .registerReceiver(mReceiver, new IntentFilter(BackgroundScannerClient.ACTION_STOP_SCAN));
+    }
+
+    private void removeStopListener() {
+        LocalBroadcastManager
+                .getInstance(mContext)
+                .unregisterReceiver(mReceiver);
+    }
+
+    private BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            stop();
+        }
+    };
+
+    /**
+     * Writes the items to a file and broadcasts its path, keeping the
+     * broadcast small however many items were found. Apps read them
+     * back with {@link ItemsFile#fromIntent(Intent)}.
+     *
+     * Items broadcast by a recent scan are left out, or listed after the
+     * new ones when all items are asked for. Nothing is broadcast when
+     * there's nothing to tell. The seen items are only saved once the
+     * broadcast is sent, so items are never dropped unannounced.
+     *
+     * The files are read and written on the io thread, the broadcast is
+     * sent back on this scan's looper, then the scan is recorded.
+     */
+    private void broadcastFoundItems(final ArrayList<MagnetScannerItem> items, final ScanTelemetry.Record record) {
+        FileIO.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final File seenFile = new File(mContext.getFilesDir(), SEEN_ITEMS_FILE);
+                final SeenItems seen = new SeenItems();
+                seen.load(seenFile);
+
+                final long now = System.currentTimeMillis();
+                ArrayList<MagnetScannerItem> newItems = new ArrayList<>();
+                ArrayList<MagnetScannerItem> knownItems = new ArrayList<>();
+
+                for (MagnetScannerItem item : items) {
+                    if (seen.markSeen(item.getUrl(), now)) newItems.add(item);
+                    else knownItems.add(item);
+                }
+
+                Log.d(TAG, "new items: " + newItems.size() + ", known: " + knownItems.size());
+                int newCount = newItems.size();
+                if (shouldBroadcastAllItems(mContext)) newItems.addAll(knownItems);
+
+                final Intent intent = newItems.isEmpty() ? null : writeItems(newItems, newCount, now);
+                final int broadcast = intent != null ? newItems.size() : 0;
+                final boolean failed = !newItems.isEmpty() && intent == null;
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (intent != null) {
+                            Log.d(TAG, "broadcast items");
+                            mContext.sendBroadcast(intent);
+                        }
+
+                        if (!failed) saveSeenItems(seen, seenFile, now);
+                        onBroadcastComplete(record, broadcast);
+                    }
+                });
+            }
+        });
+    }
+
+    private static void saveSeenItems(final SeenItems seen, final File file, final long now) {
+        FileIO.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    seen.save(file, now);
+                } catch (IOException e) {
+                    Log.e(TAG, "can't save seen items: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The broadcast for the written file, null if it can't be written.
+     */
+    private Intent writeItems(ArrayList<MagnetScannerItem> items, int newCount, long version) {
+        File file = new File(mContext.getCacheDir(), ITEMS_FILE);
+
+        try {
+            ItemsFile.write(file, version, items);
+        } catch (IOException e) {
+            Log.e(TAG, "can't write items: " + e);
+            return null;
+        }
+
+        Intent intent = new Intent("org.mozilla.magnet.scanner.ITEMS_FOUND");
+        intent.putExtra(ItemsFile.EXTRA_PATH, file.getPath());
+        intent.putExtra(ItemsFile.EXTRA_VERSION, version);
+        intent.putExtra(ItemsFile.EXTRA_NEW_COUNT, newCount);
+        return intent;
+    }
+
+    interface Callback {
+
+        /**
+         * @param completed false if the scan was stopped early, nothing was broadcast.
+         * @param found Number of items found, broadcast or not.
+         */
+        void onScanComplete(boolean completed, int found);
+    }
+}
@@ -1,12 +1,17 @@
 package org.mozilla.magnet.scanner;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.CallSuper;
 import android.util.Log;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Parent class for all scanner strategies. Defines some common methos for notification and extra
@@ -17,7 +22,12 @@ public abstract class BaseScanner {
     private final static String TAG = "BaseScanner";
     private MagnetScannerListener mListener;
     private final HashMap<String,MagnetScannerItem> mItems = new HashMap<String,MagnetScannerItem>();
-    private boolean mStarted = false;
+    private final ExpiryList mExpiryList = new ExpiryList();
+    private volatile boolean mStarted = false;
+    private long mItemMaxAge = 0;
+    private long mExpiryScheduledAt = 0;
+    private Looper mLooper;
+    private Handler mHandler;
 
     /**
      * Returns a string that defines the name of the scanner strategy implemented
@@ -32,6 +42,7 @@ public abstract class BaseScanner {
     public void start(MagnetScannerListener listener) {
         if (isStarted()) return;
         mListener = listener;
+        setLooper(getLooper());
         mStarted = true;
     }
 
@@ -41,10 +52,49 @@ public abstract class BaseScanner {
     @CallSuper
     public void stop() {
         if (isStopped()) return;
+        cancelExpiry();
+        mExpiryList.clear();
         mItems.clear();
         mStarted = false;
     }
 
+    /**
+     * Makes items expire when they haven't been touched for the given time.
+     * Should be called before the scanner is started.
+     * @param ms Max age in milliseconds, 0 (the default) means items never expire.
+     */
+    public void setItemMaxAge(long ms) {
+        mItemMaxAge = ms;
+    }
+
+    /**
+     * Returns the looper items are managed on: expiry runs there and scanners
+     * should only add, touch and remove items from its thread.
+     * Defaults to the thread calling `start()`, else the main thread.
+     */
+    protected Looper getLooper() {
+        Looper looper = Looper.myLooper();
+        return looper != null ? looper : Looper.getMainLooper();
+    }
+
+    /**
+     * Returns a handler on the scanner's looper, only created once
+     * asked for, so scanners that never post don't need one.
+     * @return Handler, null until the scanner is first started.
+     */
+    protected synchronized Handler getHandler() {
+        if (mHandler == null && mLooper != null) {
+            mHandler = new Handler(mLooper);
+        }
+        return mHandler;
+    }
+
+    private synchronized void setLooper(Looper looper) {
+        if (looper == mLooper) return;
+        mLooper = looper;
+        mHandler = null;
+    }
+
     protected boolean isStarted() {
         return mStarted;
     }
@@ -64,16 +114,108 @@ public abstract class BaseScanner {
     protected void addItem(MagnetScannerItem item) {
         Log.d(TAG, "add item: " + item.getUrl());
         mItems.put(item.getUrl(), item);
+        if (mItemMaxAge > 0) {
+            mExpiryList.touch(item, SystemClock.uptimeMillis() + mItemMaxAge);
+            scheduleExpiry();
+        }
         mListener.onItemFound(item);
     }
 
+    /**
+     * Marks an item as seen again, pushing back its expiry.
+     * Scanners should call this rather than `MagnetScannerItem.touch()`.
+     */
+    protected void touchItem(MagnetScannerItem item) {
+        item.touch();
+        if (mItemMaxAge > 0) {
+            mExpiryList.touch(item, SystemClock.uptimeMillis() + mItemMaxAge);
+        }
+    }
+
     public void removeItem(String id) {
         Log.d(TAG, "remove item: " + id);
-        MagnetScannerItem item = getItem(id);
-        mItems.remove(id);
+        MagnetScannerItem item = mItems.remove(id);
+        if (item == null) return;
+        mExpiryList.remove(item);
         mListener.onItemLost(item);
     }
 
+    /**
+     * Replaces the current items with a new set, e.g. the latest results
+     * of a search: items missing from the new set are removed, new ones
+     * are added and items in both are kept as they are.
+     */
+    protected void replaceItems(Map<String, MagnetScannerItem> newItems) {
+        ArrayList<String> toRemove = new ArrayList<>();
+
+        // remove old items not found in the new set
+        for (String id : mItems.keySet()) {
+            if (!newItems.containsKey(id)) {
+                toRemove.add(id);
+            }
+        }
+
+        // remove items in separate loop to avoid
+        // `ConcurrentModificationException`
+        for (String id : toRemove) {
+            removeItem(id);
+        }
+
+        // add new items
+        for (MagnetScannerItem item : newItems.values()) {
+            if (!mItems.containsKey(item.getUrl())) {
+                addItem(item);
+            }
+        }
+    }
+
+    /**
+     * Arms a single callback for the earliest deadline. Touches only
+     * push deadlines back, so it never needs to be moved earlier.
+     */
+    private void scheduleExpiry() {
+        if (mExpiryScheduledAt != 0) return;
+        MagnetScannerItem head = mExpiryList.peek();
+        if (head == null) return;
+        mExpiryScheduledAt = head.mExpiresAt;
+        getHandler().postAtTime(expireItems, mExpiryScheduledAt);
+    }
+
+    private void cancelExpiry() {
+        if (mExpiryScheduledAt == 0) return;
+        getHandler().removeCallbacks(expireItems);
+        mExpiryScheduledAt = 0;
+    }
+
+    /**
+     * Removes every item whose deadline has passed, oldest first,
+     * then sleeps until the next deadline.
+     */
+    private final Runnable expireItems = new Runnable() {
+        @Override
+        public void run() {
+            mExpiryScheduledAt = 0;
+            if (isStopped()) return;
+            long now = SystemClock.uptimeMillis();
+            MagnetScannerItem item;
+
+            while ((item = mExpiryList.poll(now)) != null) {
+                Log.d(TAG, "expire item: " + item.getUrl());
+                mItems.remove(item.getUrl());
+                mListener.onItemLost(item);
+            }
+
+            scheduleExpiry();
+        }
+    };
+
+    /**
+     * Notifies the listener that metadata of an item already found has changed.
+     */
+    protected void updateItem(MagnetScannerItem item) {
+        mListener.onItemUpdated(item);
+    }
+
     /**
      * Method that is called when the scanner discover an url. It also appends more metadata
      * information, like the type of scanner.
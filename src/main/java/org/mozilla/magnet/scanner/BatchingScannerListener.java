@@ -0,0 +1,141 @@
+package org.mozilla.magnet.scanner;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Coalesces found, updated and lost events coming from any thread and delivers
+ * them as a single {@link MagnetScannerBatchListener#onItemsChanged} call per window.
+ *
+ * Changes are keyed by url: an item found then lost inside a window is dropped,
+ * lost then found becomes an update, and only the latest item of each url is kept.
+ */
+class BatchingScannerListener implements MagnetScannerListener {
+    private static final int ADDED = 0;
+    private static final int UPDATED = 1;
+    private static final int REMOVED = 2;
+
+    private final MagnetScannerBatchListener mListener;
+    private final long mWindow;
+    private final Executor mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private LinkedHashMap<String, Change> mChanges = new LinkedHashMap<>();
+    private boolean mFlushScheduled = false;
+
+    /**
+     * @param listener Listener receiving the batches.
+     * @param windowMs How long events are collected before delivery.
+     * @param executor Executor batches are delivered on, should run tasks in order.
+     */
+    BatchingScannerListener(MagnetScannerBatchListener listener, long windowMs, Executor executor) {
+        mListener = listener;
+        mWindow = windowMs;
+        mExecutor = executor;
+    }
+
+    @Override
+    public void onItemFound(MagnetScannerItem item) {
+        record(item, ADDED);
+    }
+
+    @Override
+    public void onItemUpdated(MagnetScannerItem item) {
+        record(item, UPDATED);
+    }
+
+    @Override
+    public void onItemLost(MagnetScannerItem item) {
+        record(item, REMOVED);
+    }
+
+    private synchronized void record(MagnetScannerItem item, int type) {
+        String url = item.getUrl();
+        Change change = mChanges.get(url);
+
+        if (change == null) {
+            mChanges.put(url, new Change(item, type));
+        } else if (change.mType == ADDED && type == REMOVED) {
+            // never told the host about it
+            mChanges.remove(url);
+        } else if (change.mType == REMOVED && type == ADDED) {
+            change.mType = UPDATED;
+            change.mItem = item;
+        } else if (change.mType == REMOVED && type == UPDATED) {
+            return;
+        } else if (change.mType == UPDATED && type == REMOVED) {
+            change.mType = REMOVED;
+            change.mItem = item;
+        } else {
+            // repeats keep the first type
+            change.mItem = item;
+        }
+
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlush, mWindow);
+        }
+    }
+
+    /**
+     * Delivers pending changes now rather than at the end of the window.
+     */
+    void flush() {
+        mHandler.removeCallbacks(mFlush);
+        mFlush.run();
+    }
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            final LinkedHashMap<String, Change> changes;
+
+            synchronized (BatchingScannerListener.this) {
+                mFlushScheduled = false;
+                if (mChanges.isEmpty()) return;
+                changes = mChanges;
+                mChanges = new LinkedHashMap<>();
+            }
+
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(changes);
+                }
+            });
+        }
+    };
+
+    private void deliver(LinkedHashMap<String, Change> changes) {
+        List<MagnetScannerItem> added = new ArrayList<>();
+        List<MagnetScannerItem> updated = new ArrayList<>();
+        List<MagnetScannerItem> removed = new ArrayList<>();
+        Iterator<Change> iterator = changes.values().iterator();
+
+        while (iterator.hasNext()) {
+            Change change = iterator.next();
+            switch (change.mType) {
+                case ADDED: added.add(change.mItem); break;
+                case UPDATED: updated.add(change.mItem); break;
+                default: removed.add(change.mItem); break;
+            }
+        }
+
+        mListener.onItemsChanged(added, updated, removed);
+    }
+
+    private static class Change {
+        MagnetScannerItem mItem;
+        int mType;
+
+        Change(MagnetScannerItem item, int type) {
+            mItem = item;
+            mType = type;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.mozilla.magnet.scanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Intrusive binary min-heap of items by distance.
+ *
+ * Items remember their slot in the heap, so a changed distance is sifted into place and a lost
+ * item removed in O(log n), without searching for it. Items of unknown distance rank last.
+ */
+class DistanceHeap {
+    private MagnetScannerItem[] mHeap = new MagnetScannerItem[16];
+    private int mSize;
+
+    void add(MagnetScannerItem item) {
+        if (item.mHeapIndex >= 0) {
+            update(item);
+            return;
+        }
+
+        if (mSize == mHeap.length) {
+            mHeap = Arrays.copyOf(mHeap, mSize * 2);
+        }
+
+        set(mSize++, item);
+        siftUp(item.mHeapIndex);
+    }
+
+    /**
+     * Moves an item whose distance has changed back into place.
+     */
+    void update(MagnetScannerItem item) {
+        int index = item.mHeapIndex;
+        if (index < 0) return;
+        siftUp(index);
+        siftDown(item.mHeapIndex);
+    }
+
+    void remove(MagnetScannerItem item) {
+        int index = item.mHeapIndex;
+        if (index < 0) return;
+        item.mHeapIndex = -1;
+
+        MagnetScannerItem last = mHeap[--mSize];
+        mHeap[mSize] = null;
+        if (index == mSize) return;
+
+        set(index, last);
+        siftUp(index);
+        siftDown(last.mHeapIndex);
+    }
+
+    /**
+     * Walks the heap from the root, expanding the nearest candidate
+     * each step, so only about 2k slots are ever looked at.
+     * @return The k nearest items, nearest first, in O(k log k).
+     */
+    List<MagnetScannerItem> nearest(int k) {
+        int count = Math.min(k, mSize);
+        List<MagnetScannerItem> result = new ArrayList<>(count);
+        if (count <= 0) return result;
+
+        // slots of the candidates, a min-heap of its own, growing
+        // by at most one per step so count + 1 is always enough
+        int[] candidates = new int[count + 1];
+        int candidateCount = 1;
+
+        while (result.size() < count) {
+            int index = candidates[0];
+            result.add(mHeap[index]);
+            candidateCount = pollCandidate(candidates, candidateCount);
+            if (2 * index + 1 < mSize) candidateCount = addCandidate(candidates, candidateCount, 2 * index + 1);
+            if (2 * index + 2 < mSize) candidateCount = addCandidate(candidates, candidateCount, 2 * index + 2);
+        }
+
+        return result;
+    }
+
+    /**
+     * @return The new number of candidates.
+     */
+    private int addCandidate(int[] candidates, int count, int slot) {
+        double key = key(mHeap[slot]);
+        int index = count;
+
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (key(mHeap[candidates[parent]]) <= key) break;
+            candidates[index] = candidates[parent];
+            index = parent;
+        }
+
+        candidates[index] = slot;
+        return count + 1;
+    }
+
+    /**
+     * Removes the nearest candidate.
+     * @return The new number of candidates.
+     */
+    private int pollCandidate(int[] candidates, int count) {
+        int size = count - 1;
+        if (size == 0) return 0;
+
+        int slot = candidates[size];
+        double key = key(mHeap[slot]);
+        int index = 0;
+
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) break;
+            if (child + 1 < size && key(mHeap[candidates[child + 1]]) < key(mHeap[candidates[child]])) child++;
+            if (key <= key(mHeap[candidates[child]])) break;
+            candidates[index] = candidates[child];
+            index = child;
+        }
+
+        candidates[index] = slot;
+        return size;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mHeap[i].mHeapIndex = -1;
+            mHeap[i] = null;
+        }
+        mSize = 0;
+    }
+
+    private void siftUp(int index) {
+        MagnetScannerItem item = mHeap[index];
+        double key = key(item);
+
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (key(mHeap[parent]) <= key) break;
+            set(index, mHeap[parent]);
+            index = parent;
+        }
+
+        set(index, item);
+    }
+
+    private void siftDown(int index) {
+        MagnetScannerItem item = mHeap[index];
+        double key = key(item);
+
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= mSize) break;
+            if (child + 1 < mSize && key(mHeap[child + 1]) < key(mHeap[child])) child++;
+            if (key <= key(mHeap[child])) break;
+            set(index, mHeap[child]);
+            index = child;
+        }
+
+        set(index, item);
+    }
+
+    private void set(int index, MagnetScannerItem item) {
+        mHeap[index] = item;
+        item.mHeapIndex = index;
+    }
+
+    private static double key(MagnetScannerItem item) {
+        double distance = item.getDistance();
+        return distance < 0 ? Double.POSITIVE_INFINITY : distance;
+    }
+}
@@ -0,0 +1,89 @@
+package org.mozilla.magnet.scanner;
+
+/**
+ * Intrusive, access-ordered list of items waiting to expire.
+ *
+ * Items link through their own fields, so touching an item only unlinks it and appends it to the
+ * tail. Every item in a list shares the same max age, which keeps the list ordered by deadline:
+ * the head is always the next item to expire and expiring costs O(expired items).
+ */
+class ExpiryList {
+    private MagnetScannerItem mHead;
+    private MagnetScannerItem mTail;
+
+    /**
+     * Moves the item to the tail with a new deadline. Deadlines must
+     * not decrease between calls or the list stops being ordered.
+     */
+    void touch(MagnetScannerItem item, long deadline) {
+        unlink(item);
+        item.mExpiresAt = deadline;
+        item.mExpiryPrev = mTail;
+
+        if (mTail == null) {
+            mHead = item;
+        } else {
+            mTail.mExpiryNext = item;
+        }
+
+        mTail = item;
+    }
+
+    void remove(MagnetScannerItem item) {
+        unlink(item);
+    }
+
+    /**
+     * @return The item with the earliest deadline, or null if empty.
+     */
+    MagnetScannerItem peek() {
+        return mHead;
+    }
+
+    /**
+     * Removes and returns the head if its deadline is due.
+     * @return The expired item, or null if nothing is due at {@code now}.
+     */
+    MagnetScannerItem poll(long now) {
+        MagnetScannerItem head = mHead;
+        if (head == null || head.mExpiresAt > now) {
+            return null;
+        }
+
+        unlink(head);
+        return head;
+    }
+
+    boolean isEmpty() {
+        return mHead == null;
+    }
+
+    void clear() {
+        while (mHead != null) {
+            unlink(mHead);
+        }
+    }
+
+    private void unlink(MagnetScannerItem item) {
+        MagnetScannerItem prev = item.mExpiryPrev;
+        MagnetScannerItem next = item.mExpiryNext;
+
+        // not linked
+        if (prev == null && mHead != item) { return; }
+
+        if (prev == null) {
+            mHead = next;
+        } else {
+            prev.mExpiryNext = next;
+        }
+
+        if (next == null) {
+            mTail = prev;
+        } else {
+            next.mExpiryPrev = prev;
+        }
+
+        item.mExpiryPrev = null;
+        item.mExpiryNext = null;
+    }
+}
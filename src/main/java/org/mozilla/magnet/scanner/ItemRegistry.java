@@ -0,0 +1,265 @@
+package org.mozilla.magnet.scanner;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Merges the items reported by every scanner into one entry per url.
+ *
+ * Each entry keeps a bitmask of the scanners currently reporting the url and a merged item
+ * handed to the host: found is called when the first scanner sees a url, lost when the last
+ * one drops it, and updated when the merged metadata changes in between. Events are serialized
+ * on the registry, so the host listener is never called concurrently.
+ *
+ * Scanners report from their own threads and keep changing their items afterwards, e.g. the
+ * distance of a beacon. Each event is taken as a copy of the item on the scanner's thread, then
+ * merged and delivered on the host's looper when one is given. Events still queued once the
+ * registry is cleared are dropped.
+ *
+ * Merged items are also kept ranked by distance, updated on every event rather than sorted
+ * when the host asks for the nearest ones.
+ */
+class ItemRegistry {
+    private final MagnetScannerListener mListener;
+    private final int mSourceCount;
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+    private final DistanceHeap mRanking = new DistanceHeap();
+    private final Handler mHandler;
+    private boolean mCleared;
+
+    /**
+     * @param listener Host listener, called on the thread of each scanner.
+     * @param sourceCount Number of scanners reporting, at most 32.
+     */
+    ItemRegistry(MagnetScannerListener listener, int sourceCount) {
+        this(listener, sourceCount, null);
+    }
+
+    /**
+     * @param listener Host listener.
+     * @param sourceCount Number of scanners reporting, at most 32.
+     * @param handler Handler on the looper the host listener is called on,
+     *                null to call it on the thread of each scanner.
+     */
+    ItemRegistry(MagnetScannerListener listener, int sourceCount, Handler handler) {
+        mListener = listener;
+        mSourceCount = sourceCount;
+        mHandler = handler;
+    }
+
+    /**
+     * @return Listener a scanner reports to as source {@code source}.
+     */
+    MagnetScannerListener listenerFor(final int source) {
+        return new MagnetScannerListener() {
+            @Override
+            public void onItemFound(MagnetScannerItem item) {
+                final MagnetScannerItem copy = item.copy();
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSourceItem(source, copy, true);
+                    }
+                });
+            }
+
+            @Override
+            public void onItemUpdated(MagnetScannerItem item) {
+                final MagnetScannerItem copy = item.copy();
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSourceItem(source, copy, false);
+                    }
+                });
+            }
+
+            @Override
+            public void onItemLost(final MagnetScannerItem item) {
+                deliver(new Runnable() {
+                    @Override
+                    public void run() {
+                        onSourceLost(source, item);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Runs the event right away on the host's looper, else posts it there.
+     * Each scanner reports from one thread, so its events stay in order.
+     */
+    private void deliver(Runnable event) {
+        if (mHandler == null || mHandler.getLooper() == Looper.myLooper()) {
+            event.run();
+        } else {
+            mHandler.post(event);
+        }
+    }
+
+    /**
+     * @return Bitmask of the sources reporting the url, 0 if none.
+     */
+    synchronized int getSources(String url) {
+        Entry entry = mEntries.get(url);
+        return entry == null ? 0 : entry.mSources;
+    }
+
+    synchronized List<MagnetScannerItem> getItems() {
+        List<MagnetScannerItem> items = new ArrayList<>(mEntries.size());
+        for (Entry entry : mEntries.values()) {
+            items.add(entry.mItem);
+        }
+        return items;
+    }
+
+    /**
+     * @return The k nearest items, nearest first, then those of unknown distance.
+     */
+    synchronized List<MagnetScannerItem> getNearest(int k) {
+        return mRanking.nearest(k);
+    }
+
+    private synchronized void onSourceItem(int source, MagnetScannerItem item, boolean found) {
+        if (mCleared) return;
+        String url = item.getUrl();
+        Entry entry = mEntries.get(url);
+
+        if (entry == null) {
+            // an update for a url we don't know is treated as found
+            entry = new Entry(url, mSourceCount);
+            entry.set(source, item);
+            entry.merge();
+            mEntries.put(url, entry);
+            mRanking.add(entry.mItem);
+            mListener.onItemFound(entry.mItem);
+            return;
+        }
+
+        entry.set(source, item);
+        if (entry.merge()) {
+            mRanking.update(entry.mItem);
+            mListener.onItemUpdated(entry.mItem);
+        }
+    }
+
+    private synchronized void onSourceLost(int source, MagnetScannerItem item) {
+        if (mCleared) return;
+        String url = item.getUrl();
+        Entry entry = mEntries.get(url);
+        if (entry == null) return;
+
+        entry.clear(source);
+
+        if (entry.mSources == 0) {
+            mEntries.remove(url);
+            mRanking.remove(entry.mItem);
+            mListener.onItemLost(entry.mItem);
+            return;
+        }
+
+        if (entry.merge()) {
+            mRanking.update(entry.mItem);
+            mListener.onItemUpdated(entry.mItem);
+        }
+    }
+
+    /**
+     * Drops every entry, and the events still on their way.
+     */
+    synchronized void clear() {
+        mCleared = true;
+        mEntries.clear();
+        mRanking.clear();
+    }
+
+    private static class Entry {
+        final MagnetScannerItem mItem;
+        final MagnetScannerItem[] mSourceItems;
+        int mSources;
+
+        Entry(String url, int sourceCount) {
+            mItem = new MagnetScannerItem(url);
+            mSourceItems = new MagnetScannerItem[sourceCount];
+        }
+
+        void set(int source, MagnetScannerItem item) {
+            mSourceItems[source] = item;
+            mSources |= 1 << source;
+        }
+
+        void clear(int source) {
+            mSourceItems[source] = null;
+            mSources &= ~(1 << source);
+        }
+
+        /**
+         * Rebuilds the merged item: the nearest known distance (and the
+         * type and device it came from), plus the first location, channel
+         * and metadata any source provides. A location is kept once known.
+         * @return true if the merged item changed.
+         */
+        boolean merge() {
+            MagnetScannerItem nearest = null;
+            MagnetScannerItem first = null;
+            Double latitude = null;
+            Double longitude = null;
+            String channelId = null;
+            String title = null;
+            String image = null;
+            String icon = null;
+
+            for (MagnetScannerItem item : mSourceItems) {
+                if (item == null) continue;
+                if (first == null) first = item;
+                if (item.getDistance() >= 0 && (nearest == null || item.getDistance() < nearest.getDistance())) {
+                    nearest = item;
+                }
+                if (latitude == null && item.getLatitude() != null && item.getLongitude() != null) {
+                    latitude = item.getLatitude();
+                    longitude = item.getLongitude();
+                }
+                if (channelId == null) channelId = item.getChannelId();
+                if (title == null) title = item.getTitle();
+                if (image == null) image = item.getImage();
+                if (icon == null) icon = item.getIcon();
+            }
+
+            MagnetScannerItem source = nearest != null ? nearest : first;
+            double distance = nearest != null ? nearest.getDistance() : -1;
+            boolean changed = distance != mItem.getDistance()
+                    || !equal(source.getType(), mItem.getType())
+                    || !equal(source.getDevice(), mItem.getDevice())
+                    || (latitude != null && !latitude.equals(mItem.getLatitude()))
+                    || (longitude != null && !longitude.equals(mItem.getLongitude()))
+                    || !equal(channelId, mItem.getChannelId())
+                    || !equal(title, mItem.getTitle())
+                    || !equal(image, mItem.getImage())
+                    || !equal(icon, mItem.getIcon());
+
+            mItem.setDistance(distance)
+                    .setType(source.getType())
+                    .setDevice(source.getDevice())
+                    .setChannelId(channelId)
+                    .setTitle(title)
+                    .setImage(image)
+                    .setIcon(icon);
+
+            if (latitude != null) {
+                mItem.setLatitude(latitude).setLongitude(longitude);
+            }
+
+            mItem.touch();
+            return changed;
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
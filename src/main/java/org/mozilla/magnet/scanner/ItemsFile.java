@@ -0,0 +1,180 @@
+package org.mozilla.magnet.scanner;
+
+import android.content.Intent;
+
+import org.mozilla.magnet.scanner.io.FileIO;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Items found by a background scan, handed to the app as a compact
+ * binary file rather than serialized into the broadcast.
+ *
+ * The `ITEMS_FOUND` broadcast carries the path of the file and the
+ * version of the results, see {@link #fromIntent(Intent)}, and how many
+ * of the items, listed first, the app hasn't been told about. Items are
+ * decoded one at a time as they are read from the list, an offset table
+ * at the head of the file leads straight to each.
+ *
+ * Layout: magic, format, version, count, an offset per item, then the
+ * items: flags, distance, url and the optional type, channel, location.
+ * Strings are UTF-8 with a two byte length. Not thread safe.
+ */
+public class ItemsFile extends AbstractList<MagnetScannerItem> {
+    public final static String EXTRA_PATH = "items_path";
+    public final static String EXTRA_VERSION = "items_version";
+    public final static String EXTRA_NEW_COUNT = "items_new";
+    private final static int MAGIC = 0x4d474e49;
+    private final static int FORMAT = 1;
+    private final static int HEADER_SIZE = 20;
+    private final static int HAS_TYPE = 1;
+    private final static int HAS_CHANNEL = 2;
+    private final static int HAS_LOCATION = 4;
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] mData;
+    private final long mVersion;
+    private final int mSize;
+    private int mPosition;
+
+    ItemsFile(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != FORMAT) {
+            throw new IOException("not an items file");
+        }
+
+        mData = data;
+        mVersion = in.readLong();
+        mSize = in.readInt();
+
+        if (mSize < 0 || HEADER_SIZE + 4L * mSize > data.length) {
+            throw new IOException("truncated items file");
+        }
+    }
+
+    /**
+     * Reads the items of an `ITEMS_FOUND` broadcast.
+     * @throws IOException if the file is missing or unreadable, or
+     * holds the items of another scan than the broadcast's.
+     */
+    public static ItemsFile fromIntent(Intent intent) throws IOException {
+        String path = intent.getStringExtra(EXTRA_PATH);
+        if (path == null) throw new IOException("no items file");
+        ItemsFile items = open(new File(path));
+
+        // each scan replaces the file, a late reader would get newer items
+        if (intent.hasExtra(EXTRA_VERSION) && intent.getLongExtra(EXTRA_VERSION, 0) != items.getVersion()) {
+            throw new IOException("items replaced by a newer scan");
+        }
+
+        return items;
+    }
+
+    public static ItemsFile open(File file) throws IOException {
+        return new ItemsFile(FileIO.read(file));
+    }
+
+    /**
+     * Writes the file whole, a reader never sees a half written file.
+     */
+    static void write(File file, long version, List<MagnetScannerItem> items) throws IOException {
+        FileIO.write(file, encode(version, items));
+    }
+
+    static byte[] encode(long version, List<MagnetScannerItem> items) throws IOException {
+        int count = items.size();
+        int[] offsets = new int[count];
+        int start = HEADER_SIZE + 4 * count;
+        ByteArrayOutputStream records = new ByteArrayOutputStream(count * 64);
+        DataOutputStream out = new DataOutputStream(records);
+
+        for (int i = 0; i < count; i++) {
+            MagnetScannerItem item = items.get(i);
+            boolean hasLocation = item.getLatitude() != null && item.getLongitude() != null;
+            offsets[i] = start + out.size();
+
+            out.writeByte((item.getType() != null ? HAS_TYPE : 0)
+                    | (item.getChannelId() != null ? HAS_CHANNEL : 0)
+                    | (hasLocation ? HAS_LOCATION : 0));
+            out.writeDouble(item.getDistance());
+            writeString(out, item.getUrl());
+            if (item.getType() != null) writeString(out, item.getType());
+            if (item.getChannelId() != null) writeString(out, item.getChannelId());
+            if (hasLocation) {
+                out.writeDouble(item.getLatitude());
+                out.writeDouble(item.getLongitude());
+            }
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(start + records.size());
+        DataOutputStream header = new DataOutputStream(result);
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT);
+        header.writeLong(version);
+        header.writeInt(count);
+        for (int offset : offsets) header.writeInt(offset);
+        records.writeTo(result);
+        return result.toByteArray();
+    }
+
+    /**
+     * @return Version of the results, greater for each newer scan.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Decodes an item, each call returns a new item.
+     */
+    @Override
+    public MagnetScannerItem get(int index) {
+        if (index < 0 || index >= mSize) throw new IndexOutOfBoundsException("index: " + index + ", size: " + mSize);
+        mPosition = FileIO.getInt(mData, HEADER_SIZE + 4 * index);
+
+        int flags = mData[mPosition++];
+        double distance = Double.longBitsToDouble(readLong());
+        MagnetScannerItem item = new MagnetScannerItem(readString()).setDistance(distance);
+        if ((flags & HAS_TYPE) != 0) item.setType(readString());
+        if ((flags & HAS_CHANNEL) != 0) item.setChannelId(readString());
+        if ((flags & HAS_LOCATION) != 0) {
+            item.setLatitude(Double.longBitsToDouble(readLong()));
+            item.setLongitude(Double.longBitsToDouble(readLong()));
+        }
+
+        return item;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        if (bytes.length > 0xffff) throw new IOException("string too long: " + bytes.length);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private String readString() {
+        int length = ((mData[mPosition] & 0xff) << 8) | (mData[mPosition + 1] & 0xff);
+        String value = new String(mData, mPosition + 2, length, UTF_8);
+        mPosition += 2 + length;
+        return value;
+    }
+
+    private long readLong() {
+        long value = FileIO.getLong(mData, mPosition);
+        mPosition += 8;
+        return value;
+    }
+}
@@ -0,0 +1,89 @@
+package org.mozilla.magnet.scanner;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules background scans as jobs, run by {@link ScanJobService}.
+ *
+ * Each scan schedules the next one. Jobs get a window rather than a time,
+ * so the system can run them alongside other work while the device is
+ * awake anyway. After scans that find nothing the interval doubles, up to
+ * a couple of hours, and drops back as soon as something is found. The
+ * number of empty scans in a row is persisted, as the process rarely
+ * lives from one job to the next.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class JobScanScheduler {
+    private final static String TAG = "JobScanScheduler";
+    private final static String PREFERENCES = "magnet-scan-jobs";
+    private final static String EMPTY_SCANS = "empty_scans";
+    final static int JOB_ID = 0x6d61676e;
+    final static long MIN_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    final static long MAX_INTERVAL_MS = TimeUnit.HOURS.toMillis(2);
+
+    private final Context mContext;
+    private final SharedPreferences mPreferences;
+
+    JobScanScheduler(Context context) {
+        mContext = context;
+        mPreferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Schedules the next scan, replacing the one already scheduled.
+     * @return false if the job scheduler refused the job.
+     */
+    boolean schedule() {
+        long interval = getInterval();
+        Log.d(TAG, "next scan in " + interval + "ms");
+
+        JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(mContext, ScanJobService.class))
+                .setMinimumLatency(interval)
+                .setOverrideDeadline(interval + interval / 2)
+                .build();
+
+        return getJobScheduler().schedule(job) == JobScheduler.RESULT_SUCCESS;
+    }
+
+    void cancel() {
+        Log.d(TAG, "cancel");
+        getJobScheduler().cancel(JOB_ID);
+    }
+
+    /**
+     * Backs off after a scan found nothing, then schedules the next.
+     */
+    void onScanComplete(int found) {
+        int emptyScans = found > 0 ? 0 : mPreferences.getInt(EMPTY_SCANS, 0) + 1;
+        mPreferences.edit().putInt(EMPTY_SCANS, emptyScans).apply();
+        schedule();
+    }
+
+    /**
+     * @return Time until the next scan, doubling with each empty scan in a row.
+     */
+    long getInterval() {
+        int emptyScans = Math.min(mPreferences.getInt(EMPTY_SCANS, 0), 16);
+        return Math.min(MAX_INTERVAL_MS, MIN_INTERVAL_MS << emptyScans);
+    }
+
+    /**
+     * Forgets past empty scans, e.g. when background scanning restarts.
+     */
+    void reset() {
+        mPreferences.edit().remove(EMPTY_SCANS).apply();
+    }
+
+    private JobScheduler getJobScheduler() {
+        return (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+}
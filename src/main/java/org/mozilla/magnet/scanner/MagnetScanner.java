@@ -1,17 +1,25 @@
 package org.mozilla.magnet.scanner;
 
 import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import org.mozilla.magnet.scanner.ble.ScannerBle;
 import org.mozilla.magnet.scanner.geolocation.ScannerGeolocation;
 import org.mozilla.magnet.scanner.mdns.ScannerMdns;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 public class MagnetScanner {
     private static final String TAG = "MagnetScanner";
+    private static final long DEFAULT_BATCH_WINDOW_MS = 16;
     private BackgroundScannerClient mBackgroundScannerClient;
 
     /**
@@ -19,6 +27,9 @@ public class MagnetScanner {
      */
     private final Map<String, BaseScanner> mScanners = new HashMap<>();
     private Context mContext = null;
+    private BatchingScannerListener mBatchingListener;
+    private ItemRegistry mRegistry;
+    private ScannerActivityListener mActivityListener;
 
     /**
      * Constructor with Context.
@@ -69,6 +80,14 @@ public class MagnetScanner {
         return this;
     }
 
+    MagnetScanner useGeolocation(ScannerGeolocation scanner) {
+        if (!mScanners.containsKey(ScannerGeolocation.class.getName())) {
+            mScanners.put(ScannerGeolocation.class.getName(), scanner);
+        }
+
+        return this;
+    }
+
     /**
      * Install the geolocation scanner.
      * @return MagnetScanner
@@ -94,21 +113,151 @@ public class MagnetScanner {
         return this;
     }
 
+    /**
+     * Install the GeolocationScanner answering searches within a region
+     * from an on-device index of the region's beacons.
+     * @param regionUrl Url of the region download, see {@link ScannerGeolocation#useOfflineRegion(String)}.
+     * @return MagnetScanner
+     */
+    public MagnetScanner useGeolocationOfflineRegion(String regionUrl) {
+        useGeolocation();
+        String name = ScannerGeolocation.class.getName();
+        ScannerGeolocation scannerGeolocation = (ScannerGeolocation) mScanners.get(name);
+        scannerGeolocation.useOfflineRegion(regionUrl);
+        return this;
+    }
+
     /**
      * Start all scanners scanning.
+     *
+     * Items are merged by url across scanners: `onItemFound` is called
+     * when the first scanner sees a url and `onItemLost` when the last
+     * one drops it. In between, `onItemUpdated` reports changes to the
+     * merged metadata, e.g. a nearer distance seen by another scanner.
+     *
+     * The listener is called on the thread calling `start()` when it
+     * has a looper, else on the main thread.
+     *
      * @param listener
      * @return
      */
     public MagnetScanner start(MagnetScannerListener listener) {
         Log.d(TAG, "start");
+        Looper looper = Looper.myLooper() != null ? Looper.myLooper() : Looper.getMainLooper();
+        mRegistry = new ItemRegistry(listener, mScanners.size(), new Handler(looper));
+        int source = 0;
 
         for (BaseScanner scanner: mScanners.values()) {
-            scanner.start(listener);
+            scanner.start(observe(scanner.scannerType(), mRegistry.listenerFor(source++)));
         }
 
         return this;
     }
 
+    /**
+     * Reports each scanner's own finds, before they're merged across
+     * scanners. Should be set before the scanners are started.
+     */
+    MagnetScanner setActivityListener(ScannerActivityListener listener) {
+        mActivityListener = listener;
+        return this;
+    }
+
+    /**
+     * @return Types of the installed scanners.
+     */
+    List<String> getScannerTypes() {
+        List<String> types = new ArrayList<>();
+        for (BaseScanner scanner : mScanners.values()) {
+            types.add(scanner.scannerType());
+        }
+        return types;
+    }
+
+    /**
+     * @return The installed scanner of the given class, or null.
+     */
+    BaseScanner getScanner(Class<? extends BaseScanner> type) {
+        return mScanners.get(type.getName());
+    }
+
+    private MagnetScannerListener observe(final String scannerType, final MagnetScannerListener listener) {
+        final ScannerActivityListener activityListener = mActivityListener;
+        if (activityListener == null) return listener;
+
+        return new MagnetScannerListener() {
+            @Override
+            public void onItemFound(MagnetScannerItem item) {
+                activityListener.onScannerItemFound(scannerType);
+                listener.onItemFound(item);
+            }
+
+            @Override
+            public void onItemUpdated(MagnetScannerItem item) {
+                listener.onItemUpdated(item);
+            }
+
+            @Override
+            public void onItemLost(MagnetScannerItem item) {
+                listener.onItemLost(item);
+            }
+        };
+    }
+
+    /**
+     * Returns the items currently found, merged across scanners.
+     * @return List of items, empty when not started.
+     */
+    public List<MagnetScannerItem> getItems() {
+        if (mRegistry == null) return new ArrayList<>();
+        return mRegistry.getItems();
+    }
+
+    /**
+     * Returns the items nearest the device, kept ranked as distances
+     * change, so asking costs O(k log k) rather than a sort of every item.
+     * Items of unknown distance come last.
+     * @param k Max number of items.
+     * @return List of items, nearest first, empty when not started.
+     */
+    public List<MagnetScannerItem> getNearest(int k) {
+        if (mRegistry == null) return new ArrayList<>();
+        return mRegistry.getNearest(k);
+    }
+
+    /**
+     * Start all scanners scanning, receiving changes in batches
+     * of one display frame on the main thread.
+     * @param listener
+     * @return
+     */
+    public MagnetScanner start(MagnetScannerBatchListener listener) {
+        final Handler handler = new Handler(Looper.getMainLooper());
+
+        return start(listener, DEFAULT_BATCH_WINDOW_MS, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
+    }
+
+    /**
+     * Start all scanners scanning, receiving changes in batches.
+     *
+     * Events from every scanner are coalesced over the window and
+     * delivered as a single `onItemsChanged` call.
+     *
+     * @param listener
+     * @param windowMs How long events are collected before delivery.
+     * @param executor Executor batches are delivered on, should run tasks in order.
+     * @return
+     */
+    public MagnetScanner start(MagnetScannerBatchListener listener, long windowMs, Executor executor) {
+        mBatchingListener = new BatchingScannerListener(listener, windowMs, executor);
+        return start(mBatchingListener);
+    }
+
     /**
      * Stop all scanners scanning.
      * @return
@@ -116,19 +265,56 @@ public class MagnetScanner {
     public MagnetScanner stop() {
         Log.d(TAG, "stop");
 
+        // deliver what happened before stopping
+        if (mBatchingListener != null) {
+            mBatchingListener.flush();
+            mBatchingListener = null;
+        }
+
         for (BaseScanner scanner: mScanners.values()) {
             scanner.stop();
         }
 
+        if (mRegistry != null) {
+            mRegistry.clear();
+            mRegistry = null;
+        }
+
         return this;
     }
 
     /**
      * Starts periodic background scans.
      * Should be called when app goes into the background.
+     *
+     * Scans are scheduled as jobs where the JobScheduler is available,
+     * else woken by location updates.
      */
     public void startBackgroundScanning() {
+        startBackgroundScanning(false);
+    }
+
+    /**
+     * Starts periodic background scans.
+     *
+     * Scans broadcast only the items found since the app was last told
+     * about them, unless asked for all of them. Items stay known while
+     * scans keep seeing them, and are broadcast again after a few hours
+     * without being seen.
+     *
+     * @param allItems Broadcast every item found, the new ones first.
+     */
+    public void startBackgroundScanning(boolean allItems) {
         Log.d(TAG, "start background scanning");
+        BackgroundScan.setBroadcastAllItems(mContext, allItems);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            JobScanScheduler scheduler = new JobScanScheduler(mContext);
+            scheduler.reset();
+            if (scheduler.schedule()) return;
+            Log.e(TAG, "can't schedule scan job");
+        }
+
         mBackgroundScannerClient.start();
     }
 
@@ -138,6 +324,38 @@ public class MagnetScanner {
      */
     public void stopBackgroundScanning() {
         Log.d(TAG, "stop background scanning");
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            new JobScanScheduler(mContext).cancel();
+        }
+
         mBackgroundScannerClient.stop();
     }
+
+    /**
+     * Returns what the last background scans did: how long they ran,
+     * when each scanner found its first item, how many items were found
+     * and broadcast, how long searches took and why each scan stopped.
+     * @return Records of the last 128 scans, oldest first.
+     */
+    public List<ScanTelemetry.Record> getBackgroundScanRecords() {
+        return ScanTelemetry.getInstance(mContext).getRecords();
+    }
+
+    /**
+     * Prints a summary of the last background scans and their records,
+     * e.g. from an activity's or service's `dump()`. The scanning services
+     * also print them to `adb shell dumpsys activity service` while running.
+     */
+    public void dumpBackgroundScanRecords(PrintWriter writer) {
+        ScanTelemetry.getInstance(mContext).dump(writer);
+    }
+
+    interface ScannerActivityListener {
+
+        /**
+         * Called from the scanner's thread when it finds a new item.
+         */
+        void onScannerItemFound(String scannerType);
+    }
 }
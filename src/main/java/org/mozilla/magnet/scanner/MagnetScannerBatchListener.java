@@ -0,0 +1,18 @@
+package org.mozilla.magnet.scanner;
+
+import java.util.List;
+
+/**
+ * Receives changes to the discovered items in batches, see
+ * {@link MagnetScanner#start(MagnetScannerBatchListener, long, java.util.concurrent.Executor)}.
+ */
+public interface MagnetScannerBatchListener {
+
+    /**
+     * Called once per window with every change seen during it. Items found and lost within the
+     * same window are left out. Lists are never null and belong to the callee.
+     */
+    public void onItemsChanged(List<MagnetScannerItem> added,
+                               List<MagnetScannerItem> updated,
+                               List<MagnetScannerItem> removed);
+}
@@ -15,11 +15,38 @@ public class MagnetScannerItem {
     private String mType;
     private String mUrl;
 
+    // owned by the scanner's ExpiryList
+    MagnetScannerItem mExpiryPrev;
+    MagnetScannerItem mExpiryNext;
+    long mExpiresAt;
+
+    // owned by the registry's DistanceHeap, -1 when not in one
+    int mHeapIndex = -1;
+
     public MagnetScannerItem(String url) {
         mUrl = url;
         touch();
     }
 
+    /**
+     * @return A copy of the metadata, without the links of the
+     * lists the item is in.
+     */
+    MagnetScannerItem copy() {
+        MagnetScannerItem copy = new MagnetScannerItem(mUrl);
+        copy.mDistance = mDistance;
+        copy.mLatitude = mLatitude;
+        copy.mLongitude = mLongitude;
+        copy.mChannelId = mChannelId;
+        copy.mImageUri = mImageUri;
+        copy.mTitle = mTitle;
+        copy.mDevice = mDevice;
+        copy.mLastSeen = mLastSeen;
+        copy.mIconUri = mIconUri;
+        copy.mType = mType;
+        return copy;
+    }
+
     public String getUrl() {
         return mUrl;
     }
@@ -2,10 +2,22 @@ package org.mozilla.magnet.scanner;
 
 /**
  * Created by wilsonpage on 18/10/2016.
+ *
+ * Scanners call their listener from their own thread, e.g. BLE from a
+ * background thread, and keep changing their items afterwards. The
+ * listener passed to {@link MagnetScanner#start(MagnetScannerListener)}
+ * is called on the looper of the thread that started it, one call at a
+ * time, with merged items only changed on that thread.
  */
 
 public interface MagnetScannerListener {
     public void onItemFound(MagnetScannerItem item);
     public void onItemLost(MagnetScannerItem item);
+
+    /**
+     * Called when an item already found changes, e.g. its distance.
+     * Scanners rate-limit these calls.
+     */
+    public void onItemUpdated(MagnetScannerItem item);
 }
 
@@ -0,0 +1,78 @@
+package org.mozilla.magnet.scanner;
+
+import java.util.HashMap;
+
+/**
+ * Decides when a background scan has found all it's going to find.
+ *
+ * A scanner is done once it has gone its learned settle time without a
+ * new item, or its learned first item wait without finding anything.
+ * The scan is done when every scanner is. Thread safe, scanners report
+ * from their own threads.
+ */
+class QuiescenceTracker {
+    private final ScanHistory mHistory;
+    private final long mStartedAt;
+    private final HashMap<String, long[]> mScanners = new HashMap<>();
+
+    /**
+     * @param scanners Types of the scanners running.
+     * @param startedAt When the scan started, in ms.
+     */
+    QuiescenceTracker(ScanHistory history, Iterable<String> scanners, long startedAt) {
+        mHistory = history;
+        mStartedAt = startedAt;
+
+        for (String scanner : scanners) {
+            mScanners.put(scanner, new long[] { -1, -1 });
+        }
+    }
+
+    /**
+     * Records a new item found by a scanner.
+     */
+    synchronized void onItemFound(String scanner, long now) {
+        long[] times = mScanners.get(scanner);
+        if (times == null) return;
+        long elapsed = now - mStartedAt;
+        if (times[0] < 0) times[0] = elapsed;
+        times[1] = elapsed;
+    }
+
+    /**
+     * @return When every scanner will be done if nothing new is found, in ms.
+     */
+    synchronized long getQuietAt() {
+        long quietAt = mStartedAt;
+
+        for (String scanner : mScanners.keySet()) {
+            long[] times = mScanners.get(scanner);
+            long scannerQuietAt = times[0] < 0
+                    ? mStartedAt + mHistory.getFirstItemWait(scanner)
+                    : mStartedAt + times[1] + mHistory.getSettleTime(scanner);
+            quietAt = Math.max(quietAt, scannerQuietAt);
+        }
+
+        return quietAt;
+    }
+
+    /**
+     * @return Time from the start to the scanner's first item, -1 if none.
+     */
+    synchronized long getFirstItemTime(String scanner) {
+        long[] times = mScanners.get(scanner);
+        return times != null ? times[0] : -1;
+    }
+
+    /**
+     * Adds the timings of this scan to the history.
+     * @param now When the scan ended, in ms.
+     */
+    synchronized void save(long now) {
+        for (String scanner : mScanners.keySet()) {
+            long[] times = mScanners.get(scanner);
+            // scanners that found nothing ran the whole scan
+            mHistory.add(scanner, times[0], times[0] < 0 ? now - mStartedAt : times[1]);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.mozilla.magnet.scanner;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+import org.mozilla.magnet.scanner.ble.ScannerBle;
+import org.mozilla.magnet.scanner.geolocation.ScannerGeolocation;
+import org.mozilla.magnet.scanner.mdns.ScannerMdns;
+
+/**
+ * The scanners of background scans, kept for the life of the process
+ * rather than built for each wakeup and thrown away seconds later.
+ *
+ * The geolocation scanner stays connected to its api client and keeps
+ * its search results and region index in memory, the BLE scanner its
+ * backend and parser. Search requests already share the process'
+ * {@link org.mozilla.magnet.scanner.net.VolleyTransport}.
+ *
+ * Everything is released when the system asks for memory back, or once
+ * the running scan ends if one is, and built again by the next wakeup.
+ * Used from the main thread only.
+ */
+class ScanEngine implements ComponentCallbacks2 {
+    private final static String TAG = "ScanEngine";
+    private static ScanEngine sInstance;
+    private final Context mContext;
+    private ScannerBle mBle;
+    private ScannerMdns mMdns;
+    private ScannerGeolocation mGeolocation;
+    private boolean mInUse;
+    private boolean mReleasePending;
+
+    ScanEngine(Context context) {
+        mContext = context;
+    }
+
+    static ScanEngine getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ScanEngine(context.getApplicationContext());
+            sInstance.mContext.registerComponentCallbacks(sInstance);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Returns a scanner using the warm scanners, built on first use.
+     * Must be handed back with {@link #release(MagnetScanner)} once stopped.
+     */
+    MagnetScanner acquire(boolean useGeolocation) {
+        Log.d(TAG, "acquire, warm: " + (mBle != null));
+        mInUse = true;
+
+        if (mBle == null) {
+            mBle = new ScannerBle(mContext);
+            mMdns = new ScannerMdns(mContext);
+        }
+
+        MagnetScanner scanner = new MagnetScanner(mContext)
+                .useBle(mBle)
+                .useMdns(mMdns);
+
+        if (useGeolocation) {
+            if (mGeolocation == null) {
+                mGeolocation = new ScannerGeolocation(mContext).setKeepConnected(true);
+            }
+
+            scanner.useGeolocation(mGeolocation);
+        }
+
+        return scanner;
+    }
+
+    void release(MagnetScanner scanner) {
+        scanner.stop();
+        mInUse = false;
+
+        if (mReleasePending) {
+            trim();
+        }
+    }
+
+    boolean isWarm() {
+        return mBle != null;
+    }
+
+    /**
+     * Drops the scanners, or marks them to be dropped
+     * when the running scan is done.
+     */
+    void trim() {
+        if (mInUse) {
+            mReleasePending = true;
+            return;
+        }
+
+        Log.d(TAG, "trim");
+        mReleasePending = false;
+
+        if (mGeolocation != null) {
+            mGeolocation.release();
+        }
+
+        mBle = null;
+        mMdns = null;
+        mGeolocation = null;
+    }
+
+    /**
+     * The process is kept cached between wakeups, so only trims that
+     * mean memory is actually short release anything.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE
+                || level == TRIM_MEMORY_RUNNING_LOW
+                || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            trim();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
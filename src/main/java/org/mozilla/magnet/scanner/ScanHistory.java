@@ -0,0 +1,130 @@
+package org.mozilla.magnet.scanner;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How long each scanner took to find items in the last background
+ * scans, persisted so the timings are learned across wakeups.
+ *
+ * Each scan records, per scanner, the time from start to its first
+ * and to its last new item, or how long it ran without finding any.
+ */
+class ScanHistory {
+    private final static String PREFERENCES = "magnet-scan-history";
+    private final static int MAX_SAMPLES = 10;
+    private final static float MARGIN = 1.5f;
+
+    /**
+     * Waits before giving up on a scanner that hasn't found anything yet.
+     */
+    final static long MIN_FIRST_ITEM_WAIT_MS = 2000;
+    final static long DEFAULT_FIRST_ITEM_WAIT_MS = 10000;
+
+    /**
+     * Quiet times after which a scanner is considered done.
+     */
+    final static long MIN_SETTLE_MS = 1000;
+    final static long MAX_SETTLE_MS = 15000;
+    final static long DEFAULT_SETTLE_MS = 5000;
+
+    private final SharedPreferences mPreferences;
+
+    ScanHistory(Context context) {
+        this(context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE));
+    }
+
+    ScanHistory(SharedPreferences preferences) {
+        mPreferences = preferences;
+    }
+
+    /**
+     * @param firstItemMs Time to the first item, -1 if none was found.
+     * @param lastItemMs Time to the last new item, or how long the
+     *                   scanner ran if none was found.
+     */
+    void add(String scanner, long firstItemMs, long lastItemMs) {
+        List<long[]> samples = getSamples(scanner);
+        samples.add(new long[] { firstItemMs, lastItemMs });
+
+        while (samples.size() > MAX_SAMPLES) {
+            samples.remove(0);
+        }
+
+        StringBuilder value = new StringBuilder();
+        for (long[] sample : samples) {
+            if (value.length() > 0) value.append(',');
+            value.append(sample[0]).append(':').append(sample[1]);
+        }
+
+        mPreferences.edit().putString(scanner, value.toString()).apply();
+    }
+
+    /**
+     * @return How long a scanner is given to find a first item: a margin
+     * over the slowest first item recently, 10 s until one is seen.
+     *
+     * A scan that found nothing was cut off: its first item, if any, would
+     * have come later than it ran. The wait grows by the margin over that,
+     * up to the 10 s default, so a few quick finds can't keep it too short
+     * for good.
+     */
+    long getFirstItemWait(String scanner) {
+        long max = -1;
+        long cutOff = -1;
+        for (long[] sample : getSamples(scanner)) {
+            if (sample[0] >= 0) {
+                max = Math.max(max, sample[0]);
+            } else {
+                cutOff = Math.max(cutOff, sample[1]);
+            }
+        }
+
+        if (max < 0) return DEFAULT_FIRST_ITEM_WAIT_MS;
+        long wait = Math.max(MIN_FIRST_ITEM_WAIT_MS, (long) (max * MARGIN));
+        long grown = Math.min(DEFAULT_FIRST_ITEM_WAIT_MS, (long) (cutOff * MARGIN));
+        return Math.max(wait, grown);
+    }
+
+    /**
+     * @return How long a scanner must go without new items to be done:
+     * a margin over the longest it kept finding items after the first.
+     */
+    long getSettleTime(String scanner) {
+        long max = -1;
+        for (long[] sample : getSamples(scanner)) {
+            if (sample[0] < 0) continue;
+            max = Math.max(max, sample[1] - sample[0]);
+        }
+
+        if (max < 0) return DEFAULT_SETTLE_MS;
+        return Math.min(MAX_SETTLE_MS, Math.max(MIN_SETTLE_MS, (long) (max * MARGIN)));
+    }
+
+    void clear() {
+        mPreferences.edit().clear().apply();
+    }
+
+    private List<long[]> getSamples(String scanner) {
+        List<long[]> samples = new ArrayList<>();
+        String value = mPreferences.getString(scanner, "");
+        if (value.isEmpty()) return samples;
+
+        for (String sample : value.split(",")) {
+            int colon = sample.indexOf(':');
+            if (colon < 0) continue;
+            try {
+                samples.add(new long[] {
+                        Long.parseLong(sample.substring(0, colon)),
+                        Long.parseLong(sample.substring(colon + 1)) });
+            } catch (NumberFormatException e) {
+                // skip a corrupt sample
+            }
+        }
+
+        return samples;
+    }
+}
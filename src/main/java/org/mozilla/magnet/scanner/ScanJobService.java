@@ -0,0 +1,72 @@
+package org.mozilla.magnet.scanner;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+/**
+ * Runs a {@link BackgroundScan} for each job scheduled by
+ * {@link JobScanScheduler}, holding the job until the scan
+ * is done, then schedules the next one.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class ScanJobService extends JobService implements BackgroundScan.Callback {
+    private final static String TAG = "ScanJobService";
+    private JobScanScheduler mScheduler;
+    private BackgroundScan mScan;
+    private JobParameters mParams;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mScheduler = new JobScanScheduler(this);
+        mScan = new BackgroundScan(this, this);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        Log.d(TAG, "on start job");
+        if (mScan.isScanning()) return false;
+        mParams = params;
+        mScan.start();
+        return true;
+    }
+
+    /**
+     * The system wants the job to end before the scan did,
+     * the next scan is scheduled as usual.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        Log.d(TAG, "on stop job");
+        mParams = null;
+        mScan.stop();
+        mScheduler.schedule();
+        return false;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        ScanTelemetry.getInstance(this).dump(writer);
+    }
+
+    @Override
+    public void onScanComplete(boolean completed, int found) {
+        if (mParams == null) return;
+        JobParameters params = mParams;
+        mParams = null;
+
+        // a scan stopped by the app coming to the foreground isn't
+        // followed by another, background scanning has been stopped
+        if (completed) {
+            mScheduler.onScanComplete(found);
+        }
+
+        jobFinished(params, false);
+    }
+}
@@ -0,0 +1,346 @@
+package org.mozilla.magnet.scanner;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.mozilla.magnet.scanner.io.FileIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * What the last background scans did, kept to tune scan intervals and
+ * timeouts from the field.
+ *
+ * Each scan is a fixed size record of primitives in a ring buffer, the
+ * oldest overwritten once it's full. The whole buffer, a few KB, is
+ * written to the app's files directory after each scan and read back
+ * by the first scan of a process, both on the io thread of
+ * {@link FileIO#getExecutor()}. Thread safe.
+ *
+ * Layout: magic, next slot, count, then the slots: start time, duration,
+ * time to the first item of each scanner, items found and broadcast,
+ * search latency, stop reason and flags.
+ */
+public class ScanTelemetry {
+    private final static String TAG = "ScanTelemetry";
+    private final static String FILE = "magnet-scan-telemetry";
+    private final static int MAGIC = 0x4d474e54;
+    private final static int HEADER_SIZE = 12;
+    private final static int RECORD_SIZE = 40;
+    private final static int USED_GEOLOCATION = 1;
+    final static int DEFAULT_CAPACITY = 128;
+    private static ScanTelemetry sInstance;
+
+    private final File mFile;
+    private final int mCapacity;
+    private final ByteBuffer mBuffer;
+    private final ArrayList<Record> mPending = new ArrayList<>();
+    private boolean mLoaded;
+    private int mNext;
+    private int mCount;
+
+    /**
+     * Why a scan ended.
+     */
+    public enum StopReason {
+        /** Every scanner had gone quiet. */
+        QUIET,
+        /** The max scan duration was reached first. */
+        TIMEOUT,
+        /** Stopped early, by the app or the system. */
+        STOPPED
+    }
+
+    ScanTelemetry(File file, int capacity) {
+        mFile = file;
+        mCapacity = capacity;
+        mBuffer = ByteBuffer.allocate(HEADER_SIZE + capacity * RECORD_SIZE);
+    }
+
+    static synchronized ScanTelemetry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ScanTelemetry(new File(context.getFilesDir(), FILE), DEFAULT_CAPACITY);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Records a scan, overwriting the oldest when full. The buffer is
+     * read if it wasn't yet, then persisted, on the io thread.
+     */
+    synchronized void add(Record record) {
+        mPending.add(record);
+        saveLater();
+    }
+
+    /**
+     * Reads the buffer first if it wasn't yet, so on the calling thread
+     * when no scan was recorded by this process.
+     * @return The recorded scans, oldest first.
+     */
+    synchronized List<Record> getRecords() {
+        load();
+        putPending();
+        List<Record> records = new ArrayList<>(mCount);
+        int first = (mNext - mCount + mCapacity) % mCapacity;
+
+        for (int i = 0; i < mCount; i++) {
+            int position = HEADER_SIZE + ((first + i) % mCapacity) * RECORD_SIZE;
+            int stopReason = mBuffer.get(position + 36);
+
+            records.add(new Record(
+                    mBuffer.getLong(position),
+                    mBuffer.getInt(position + 8),
+                    mBuffer.getInt(position + 12),
+                    mBuffer.getInt(position + 16),
+                    mBuffer.getInt(position + 20),
+                    mBuffer.getInt(position + 24),
+                    mBuffer.getInt(position + 28),
+                    mBuffer.getInt(position + 32),
+                    StopReason.values()[Math.min(stopReason, StopReason.values().length - 1)],
+                    (mBuffer.get(position + 37) & USED_GEOLOCATION) != 0));
+        }
+
+        return records;
+    }
+
+    synchronized void clear() {
+        mLoaded = true;
+        mPending.clear();
+        mNext = 0;
+        mCount = 0;
+        saveLater();
+    }
+
+    /**
+     * Prints a summary then every recorded scan, oldest first.
+     */
+    void dump(PrintWriter writer) {
+        List<Record> records = getRecords();
+        int timeouts = 0;
+        int geolocationScans = 0;
+        int geolocationMisses = 0;
+        long duration = 0;
+
+        for (Record record : records) {
+            duration += record.mDuration;
+            if (record.mStopReason == StopReason.TIMEOUT) timeouts++;
+            if (record.mUsedGeolocation) {
+                geolocationScans++;
+                if (record.mGeolocationFirstItem < 0) geolocationMisses++;
+            }
+        }
+
+        writer.println("Background scans: " + records.size()
+                + ", mean duration: " + (records.isEmpty() ? 0 : duration / records.size()) + "ms"
+                + ", timeouts: " + timeouts
+                + ", geolocation without items: " + geolocationMisses + "/" + geolocationScans);
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        for (Record record : records) {
+            writer.println("  " + format.format(new Date(record.mStartedAt)) + " " + record);
+        }
+    }
+
+    private void put(Record record) {
+        int position = HEADER_SIZE + mNext * RECORD_SIZE;
+
+        mBuffer.putLong(position, record.mStartedAt);
+        mBuffer.putInt(position + 8, record.mDuration);
+        mBuffer.putInt(position + 12, record.mBleFirstItem);
+        mBuffer.putInt(position + 16, record.mMdnsFirstItem);
+        mBuffer.putInt(position + 20, record.mGeolocationFirstItem);
+        mBuffer.putInt(position + 24, record.mFound);
+        mBuffer.putInt(position + 28, record.mBroadcast);
+        mBuffer.putInt(position + 32, record.mSearchLatency);
+        mBuffer.put(position + 36, (byte) record.mStopReason.ordinal());
+        mBuffer.put(position + 37, (byte) (record.mUsedGeolocation ? USED_GEOLOCATION : 0));
+
+        mNext = (mNext + 1) % mCapacity;
+        mCount = Math.min(mCount + 1, mCapacity);
+    }
+
+    private void putPending() {
+        for (Record record : mPending) {
+            put(record);
+        }
+        mPending.clear();
+    }
+
+    private void saveLater() {
+        FileIO.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ScanTelemetry.this) {
+                    load();
+                    putPending();
+                    save();
+                }
+            }
+        });
+    }
+
+    private void load() {
+        if (mLoaded) return;
+        mLoaded = true;
+        if (!mFile.exists()) return;
+
+        byte[] data;
+
+        try {
+            data = FileIO.read(mFile);
+        } catch (IOException e) {
+            Log.e(TAG, "can't read telemetry: " + e);
+            return;
+        }
+
+        if (data.length != mBuffer.capacity()) {
+            Log.e(TAG, "ignoring telemetry of another size");
+            return;
+        }
+
+        System.arraycopy(data, 0, mBuffer.array(), 0, data.length);
+
+        int next = mBuffer.getInt(4);
+        int count = mBuffer.getInt(8);
+        if (mBuffer.getInt(0) != MAGIC || next < 0 || next >= mCapacity || count < 0 || count > mCapacity) {
+            Log.e(TAG, "ignoring corrupt telemetry");
+            return;
+        }
+
+        mNext = next;
+        mCount = count;
+    }
+
+    /**
+     * Writes the whole buffer, a single small write once per scan.
+     */
+    private void save() {
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, mNext);
+        mBuffer.putInt(8, mCount);
+
+        try {
+            FileIO.write(mFile, mBuffer.array());
+        } catch (IOException e) {
+            Log.e(TAG, "can't save telemetry: " + e);
+        }
+    }
+
+    /**
+     * One background scan. Times are in ms, -1 when it didn't happen.
+     */
+    public static final class Record {
+        private final long mStartedAt;
+        private final int mDuration;
+        private final int mBleFirstItem;
+        private final int mMdnsFirstItem;
+        private final int mGeolocationFirstItem;
+        private final int mFound;
+        private final int mBroadcast;
+        private final int mSearchLatency;
+        private final StopReason mStopReason;
+        private final boolean mUsedGeolocation;
+
+        Record(long startedAt, int duration, int bleFirstItem, int mdnsFirstItem, int geolocationFirstItem,
+               int found, int broadcast, int searchLatency, StopReason stopReason, boolean usedGeolocation) {
+            mStartedAt = startedAt;
+            mDuration = duration;
+            mBleFirstItem = bleFirstItem;
+            mMdnsFirstItem = mdnsFirstItem;
+            mGeolocationFirstItem = geolocationFirstItem;
+            mFound = found;
+            mBroadcast = broadcast;
+            mSearchLatency = searchLatency;
+            mStopReason = stopReason;
+            mUsedGeolocation = usedGeolocation;
+        }
+
+        /**
+         * @return A copy with the number of items broadcast, only known once
+         * the scan's items are written.
+         */
+        Record withBroadcast(int broadcast) {
+            return new Record(mStartedAt, mDuration, mBleFirstItem, mMdnsFirstItem, mGeolocationFirstItem,
+                    mFound, broadcast, mSearchLatency, mStopReason, mUsedGeolocation);
+        }
+
+        /**
+         * @return Wall clock time the scan started at.
+         */
+        public long getStartedAt() {
+            return mStartedAt;
+        }
+
+        public int getDuration() {
+            return mDuration;
+        }
+
+        /**
+         * @return Time from the start to the first item over BLE.
+         */
+        public int getBleFirstItem() {
+            return mBleFirstItem;
+        }
+
+        public int getMdnsFirstItem() {
+            return mMdnsFirstItem;
+        }
+
+        public int getGeolocationFirstItem() {
+            return mGeolocationFirstItem;
+        }
+
+        /**
+         * @return Items found by the scan, until it was stopped if it was.
+         */
+        public int getFound() {
+            return mFound;
+        }
+
+        /**
+         * @return Items broadcast to the app, see {@link MagnetScanner#startBackgroundScanning(boolean)}.
+         */
+        public int getBroadcast() {
+            return mBroadcast;
+        }
+
+        /**
+         * @return Time the last search request took to answer or fail.
+         */
+        public int getSearchLatency() {
+            return mSearchLatency;
+        }
+
+        public StopReason getStopReason() {
+            return mStopReason;
+        }
+
+        /**
+         * @return false if geolocation was left out, e.g. without a network.
+         */
+        public boolean usedGeolocation() {
+            return mUsedGeolocation;
+        }
+
+        @Override
+        public String toString() {
+            return mStopReason + " after " + mDuration + "ms"
+                    + ", first item ble: " + mBleFirstItem
+                    + ", mdns: " + mMdnsFirstItem
+                    + ", geolocation: " + (mUsedGeolocation ? String.valueOf(mGeolocationFirstItem) : "off")
+                    + ", found: " + mFound
+                    + ", broadcast: " + mBroadcast
+                    + ", search: " + mSearchLatency + "ms";
+        }
+    }
+}
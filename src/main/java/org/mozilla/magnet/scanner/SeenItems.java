@@ -0,0 +1,133 @@
+package org.mozilla.magnet.scanner;
+
+import org.mozilla.magnet.scanner.io.FileIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Urls recently broadcast by background scans, persisted across wakeups
+ * so an item the app was already told about isn't broadcast again.
+ *
+ * An item stays known while scans keep seeing it, and becomes new again
+ * once it has gone unseen for longer than the ttl. The ttl outlasts the
+ * longest interval between scans, so an item that's still around at the
+ * next scan isn't taken for one that re-appeared.
+ *
+ * Urls are kept as 64 bit hashes with the time they were last seen, in
+ * least recently seen order, dropping the oldest past the capacity. The
+ * file is a magic, a count and then hash and time pairs, 16 bytes a url,
+ * small enough to be read whole in a single call.
+ */
+class SeenItems {
+    private final static int MAGIC = 0x4d474e53;
+    private final static int HEADER_SIZE = 8;
+    private final static int ENTRY_SIZE = 16;
+    final static long DEFAULT_TTL_MS = TimeUnit.HOURS.toMillis(3);
+    final static int DEFAULT_CAPACITY = 1024;
+
+    private final long mTtl;
+    private final LinkedHashMap<Long, Long> mSeen;
+
+    SeenItems() {
+        this(DEFAULT_TTL_MS, DEFAULT_CAPACITY);
+    }
+
+    SeenItems(long ttlMs, final int capacity) {
+        mTtl = ttlMs;
+        mSeen = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Records the url as seen at {@code now}.
+     * @param now Wall clock time, scans can be a reboot apart.
+     * @return true if the url wasn't seen within the ttl.
+     */
+    boolean markSeen(String url, long now) {
+        Long lastSeen = mSeen.put(hash(url), now);
+        return lastSeen == null || now - lastSeen > mTtl || now < lastSeen;
+    }
+
+    int size() {
+        return mSeen.size();
+    }
+
+    void clear() {
+        mSeen.clear();
+    }
+
+    /**
+     * Replaces the urls with those of the file. A missing or
+     * corrupt file leaves the set empty.
+     * @return false if nothing could be read.
+     */
+    boolean load(File file) {
+        mSeen.clear();
+        if (!file.exists()) return false;
+
+        byte[] data;
+
+        try {
+            data = FileIO.read(file);
+        } catch (IOException e) {
+            return false;
+        }
+
+        if (data.length < HEADER_SIZE || FileIO.getInt(data, 0) != MAGIC) return false;
+        int count = FileIO.getInt(data, 4);
+        if (count < 0 || HEADER_SIZE + (long) ENTRY_SIZE * count != data.length) return false;
+
+        // entries are saved least recently seen first
+        for (int i = 0, position = HEADER_SIZE; i < count; i++, position += ENTRY_SIZE) {
+            mSeen.put(FileIO.getLong(data, position), FileIO.getLong(data, position + 8));
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the urls seen within the ttl.
+     */
+    void save(File file, long now) throws IOException {
+        Iterator<Long> times = mSeen.values().iterator();
+        while (times.hasNext()) {
+            long lastSeen = times.next();
+            if (now - lastSeen > mTtl || now < lastSeen) times.remove();
+        }
+
+        byte[] data = new byte[HEADER_SIZE + ENTRY_SIZE * mSeen.size()];
+        FileIO.putInt(data, 0, MAGIC);
+        FileIO.putInt(data, 4, mSeen.size());
+
+        int position = HEADER_SIZE;
+        for (Map.Entry<Long, Long> entry : mSeen.entrySet()) {
+            FileIO.putLong(data, position, entry.getKey());
+            FileIO.putLong(data, position + 8, entry.getValue());
+            position += ENTRY_SIZE;
+        }
+
+        FileIO.write(file, data);
+    }
+
+    /**
+     * 64 bit FNV-1a, collisions are unlikely among the few
+     * hundred urls a device comes across in a few hours.
+     */
+    static long hash(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,100 @@
+package org.mozilla.magnet.scanner.ble;
+
+/**
+ * Bounded, direct-mapped cache of BLE adverts already seen, keyed by device address plus a hash
+ * of the raw scan record.
+ *
+ * A positive entry points to the item the advert was parsed into, a negative entry marks an
+ * advert that is not a url beacon (headphones, watches...), so repeated callbacks for the same
+ * advert can skip parsing. When two adverts map to the same slot the newest one wins.
+ */
+class AdvertCache {
+    static final int MISS = -1;
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int mMask;
+    private final String[] mDevices;
+    private final long[] mRecordHashes;
+    private final BeaconItem[] mItems;
+    private final int[] mTxPowers;
+
+    AdvertCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two.
+     */
+    AdvertCache(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mMask = size - 1;
+        mDevices = new String[size];
+        mRecordHashes = new long[size];
+        mItems = new BeaconItem[size];
+        mTxPowers = new int[size];
+    }
+
+    /**
+     * 64 bit FNV-1a hash of {@code record[offset, offset + length)}.
+     */
+    static long hash(byte[] record, int offset, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        int end = offset + length;
+
+        for (int i = offset; i < end; i++) {
+            hash ^= record[i] & 0xff;
+            hash *= FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    /**
+     * @return Slot holding the advert, or {@link #MISS}.
+     */
+    int find(String device, long recordHash) {
+        int slot = slot(device, recordHash);
+        if (mRecordHashes[slot] == recordHash && device.equals(mDevices[slot])) {
+            return slot;
+        }
+        return MISS;
+    }
+
+    /**
+     * @return Item the advert in {@code slot} was parsed into, null if it isn't a beacon.
+     */
+    BeaconItem getItem(int slot) {
+        return mItems[slot];
+    }
+
+    int getTxPower(int slot) {
+        return mTxPowers[slot];
+    }
+
+    void putItem(String device, long recordHash, BeaconItem item, int txPower) {
+        int slot = slot(device, recordHash);
+        mDevices[slot] = device;
+        mRecordHashes[slot] = recordHash;
+        mItems[slot] = item;
+        mTxPowers[slot] = txPower;
+    }
+
+    void putNegative(String device, long recordHash) {
+        putItem(device, recordHash, null, 0);
+    }
+
+    void clear() {
+        for (int i = 0; i <= mMask; i++) {
+            mDevices[i] = null;
+            mItems[i] = null;
+        }
+    }
+
+    private int slot(String device, long recordHash) {
+        int h = device.hashCode() * 31 + (int) (recordHash ^ (recordHash >>> 32));
+        h ^= h >>> 16;
+        return h & mMask;
+    }
+}
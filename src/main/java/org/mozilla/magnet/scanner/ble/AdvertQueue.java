@@ -0,0 +1,143 @@
+package org.mozilla.magnet.scanner.ble;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free queue handing raw adverts from Bluetooth binder threads to the scanner
+ * thread. Any number of threads can offer, a single thread drains.
+ *
+ * Slots are allocated up front and records are copied into the slot's own buffer, so offering an
+ * advert doesn't allocate unless the record is longer than any seen before in that slot. Each
+ * slot carries a sequence number telling producers and the consumer whose turn it is (Dmitry
+ * Vyukov's bounded queue).
+ */
+class AdvertQueue {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    // legacy advertising packets: advert plus scan response
+    private static final int RECORD_SIZE = 62;
+
+    /**
+     * Receives adverts while the queue is drained. The record buffer is reused once the
+     * call returns.
+     */
+    interface Consumer {
+        void onAdvert(String address, int rssi, byte[] record, int length, long timestamp);
+    }
+
+    private final int mMask;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mTail = new AtomicLong();
+    private final String[] mAddresses;
+    private final int[] mRssi;
+    private final byte[][] mRecords;
+    private final int[] mRecordLengths;
+    private final long[] mTimestamps;
+    private long mHead;
+
+    AdvertQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two.
+     */
+    AdvertQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mMask = size - 1;
+        mSequences = new AtomicLongArray(size);
+        mAddresses = new String[size];
+        mRssi = new int[size];
+        mRecords = new byte[size][];
+        mRecordLengths = new int[size];
+        mTimestamps = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+            mRecords[i] = new byte[RECORD_SIZE];
+        }
+    }
+
+    /**
+     * Copies an advert into the queue. Safe to call from any thread.
+     * @return false if the queue is full and the advert was dropped.
+     */
+    boolean offer(String address, int rssi, byte[] record, long timestamp) {
+        long pos = mTail.get();
+        int index;
+
+        for (;;) {
+            index = (int) pos & mMask;
+            long diff = mSequences.get(index) - pos;
+
+            if (diff == 0) {
+                if (mTail.compareAndSet(pos, pos + 1)) { break; }
+                pos = mTail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = mTail.get();
+            }
+        }
+
+        int length = record.length;
+        if (mRecords[index].length < length) {
+            mRecords[index] = new byte[length];
+        }
+
+        System.arraycopy(record, 0, mRecords[index], 0, length);
+        mAddresses[index] = address;
+        mRssi[index] = rssi;
+        mRecordLengths[index] = length;
+        mTimestamps[index] = timestamp;
+
+        // publishes the slot to the consumer
+        mSequences.lazySet(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * Hands up to {@code max} adverts to the consumer, oldest first.
+     * Must only be called from the consumer thread.
+     * @return Number of adverts drained.
+     */
+    int drain(Consumer consumer, int max) {
+        int count = 0;
+
+        while (count < max) {
+            int index = (int) mHead & mMask;
+            if (mSequences.get(index) != mHead + 1) { break; }
+
+            consumer.onAdvert(mAddresses[index], mRssi[index], mRecords[index],
+                    mRecordLengths[index], mTimestamps[index]);
+
+            mAddresses[index] = null;
+            // hands the slot back to producers for the next lap
+            mSequences.lazySet(index, mHead + mMask + 1);
+            mHead++;
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return true if there is nothing to drain. Consumer thread only.
+     */
+    boolean isEmpty() {
+        return mSequences.get((int) mHead & mMask) != mHead + 1;
+    }
+
+    /**
+     * Drops every pending advert. Consumer thread only.
+     */
+    void clear() {
+        while (!isEmpty()) {
+            int index = (int) mHead & mMask;
+            mAddresses[index] = null;
+            mSequences.lazySet(index, mHead + mMask + 1);
+            mHead++;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.mozilla.magnet.scanner.ble;
+
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+
+/**
+ * Item discovered over BLE. Remembers the nearest beacon broadcasting the url and the distance
+ * last reported to the listener.
+ */
+class BeaconItem extends MagnetScannerItem {
+    int mNearestBeacon;
+    double mReportedDistance;
+    long mReportedAt;
+
+    BeaconItem(String url, int nearestBeacon) {
+        super(url);
+        mNearestBeacon = nearestBeacon;
+    }
+}
@@ -0,0 +1,140 @@
+package org.mozilla.magnet.scanner.ble;
+
+/**
+ * Keeps a short history of received signal strength for every beacon in range and smooths it
+ * into a distance estimate.
+ *
+ * State lives in flat primitive arrays: beacon {@code i} owns the ring buffer
+ * {@code mRssi[i * window, (i + 1) * window)}. Beacons are found by address, comparing the cached
+ * hash before the string. When the table is full the least recently seen beacon is replaced.
+ */
+class BeaconTracker {
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final int DEFAULT_WINDOW = 8;
+
+    private final int mCapacity;
+    private final int mWindow;
+    private final String[] mAddresses;
+    private final int[] mAddressHashes;
+    private final int[] mTxPowers;
+    private final long[] mLastSeen;
+    private final int[] mRssi;
+    private final int[] mRssiNext;
+    private final int[] mRssiCount;
+    private final int[] mRssiSum;
+    private int mSize;
+
+    BeaconTracker() {
+        this(DEFAULT_CAPACITY, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param capacity Maximum number of beacons tracked at once.
+     * @param window Number of rssi samples averaged per beacon.
+     */
+    BeaconTracker(int capacity, int window) {
+        mCapacity = capacity;
+        mWindow = window;
+        mAddresses = new String[capacity];
+        mAddressHashes = new int[capacity];
+        mTxPowers = new int[capacity];
+        mLastSeen = new long[capacity];
+        mRssi = new int[capacity * window];
+        mRssiNext = new int[capacity];
+        mRssiCount = new int[capacity];
+        mRssiSum = new int[capacity];
+    }
+
+    /**
+     * Records an advert received from a beacon.
+     * @param now Monotonic timestamp in milliseconds.
+     * @return Slot of the beacon.
+     */
+    int track(String address, int txPower, int rssi, long now) {
+        int slot = find(address);
+        if (slot < 0) {
+            slot = allocate(address);
+        }
+
+        // the oldest sample drops out of the window
+        int pos = slot * mWindow + mRssiNext[slot];
+        if (mRssiCount[slot] == mWindow) {
+            mRssiSum[slot] -= mRssi[pos];
+        } else {
+            mRssiCount[slot]++;
+        }
+
+        mRssi[pos] = rssi;
+        mRssiSum[slot] += rssi;
+        mRssiNext[slot] = (mRssiNext[slot] + 1) % mWindow;
+        mTxPowers[slot] = txPower;
+        mLastSeen[slot] = now;
+        return slot;
+    }
+
+    /**
+     * @return Slot of the beacon, or -1 if it isn't tracked.
+     */
+    int find(String address) {
+        int hash = address.hashCode();
+
+        for (int i = 0; i < mSize; i++) {
+            if (mAddressHashes[i] == hash && address.equals(mAddresses[i])) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return true if {@code slot} still belongs to {@code address} and was seen after
+     *  {@code since}.
+     */
+    boolean isTracking(int slot, String address, long since) {
+        return slot >= 0 && slot < mSize
+                && mLastSeen[slot] >= since
+                && address != null && address.equals(mAddresses[slot]);
+    }
+
+    String getAddress(int slot) {
+        return mAddresses[slot];
+    }
+
+    /**
+     * @return Distance in meters estimated from the average rssi in the window.
+     */
+    double getDistance(int slot) {
+        double rssi = (double) mRssiSum[slot] / mRssiCount[slot];
+        return EddyStoneParser.calculateDistance(mTxPowers[slot], rssi);
+    }
+
+    void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mAddresses[i] = null;
+        }
+        mSize = 0;
+    }
+
+    private int allocate(String address) {
+        int slot;
+
+        if (mSize < mCapacity) {
+            slot = mSize++;
+        } else {
+            slot = 0;
+            for (int i = 1; i < mCapacity; i++) {
+                if (mLastSeen[i] < mLastSeen[slot]) {
+                    slot = i;
+                }
+            }
+        }
+
+        mAddresses[slot] = address;
+        mAddressHashes[slot] = address.hashCode();
+        mRssiNext[slot] = 0;
+        mRssiCount[slot] = 0;
+        mRssiSum[slot] = 0;
+        return slot;
+    }
+}
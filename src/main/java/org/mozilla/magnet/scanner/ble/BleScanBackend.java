@@ -0,0 +1,33 @@
+package org.mozilla.magnet.scanner.ble;
+
+/**
+ * Source of raw BLE adverts for {@link ScannerBle}.
+ *
+ * Implementations wrap a platform scanning API; tests can drive the scanner with a fake one.
+ */
+public interface BleScanBackend {
+
+    /**
+     * Receives adverts, on whatever thread the platform delivers them.
+     */
+    interface Callback {
+        /**
+         * @param address Address of the device.
+         * @param rssi Received signal strength.
+         * @param record Raw advert and scan response.
+         * @param timestamp When the advert was received, in `SystemClock.elapsedRealtime()` time.
+         */
+        void onScanResult(String address, int rssi, byte[] record, long timestamp);
+    }
+
+    /**
+     * Starts delivering adverts to the callback.
+     * @return false if scanning isn't available, e.g. Bluetooth is off.
+     */
+    boolean start(Callback callback);
+
+    /**
+     * Stops delivering adverts.
+     */
+    void stop();
+}
@@ -1,38 +1,37 @@
 package org.mozilla.magnet.scanner.ble;
 
-import android.util.Log;
-
 import org.mozilla.magnet.scanner.MagnetScannerItem;
 
-import java.util.Arrays;
-import java.util.List;
-
 /**
  * Tries to parse a Bluetooth Low Energy device to find out if there is Eddystone (or UriBeacon)
  * information encoded.
  * This is a pretty minimal version that doesn't implement all the characteristics of the Eddystone
  * protocol.
+ *
+ * The record is walked once, every access is bounds-checked and the url is expanded into a
+ * buffer owned by the parser, so adverts that are not beacons are rejected without allocating.
+ * A parser instance is not thread safe; use one per scanning thread.
+ *
  * @author Francisco Jordano
  * Most of the code coming from:
  * https://github.com/google/physical-web/blob/master/android/PhysicalWeb/app/src/main/java/org/physical_web/physicalweb/ble/UriBeacon.java
  */
 public class EddyStoneParser {
 
-    private final static String TAG = EddyStoneParser.class.getName();
-
     private static final int DATA_TYPE_SERVICE_DATA = 0x16;
-    private static final byte[] URI_SERVICE_16_BIT_UUID_BYTES = {(byte) 0xd8, (byte) 0xfe};
-    private static final byte[] URIBEACON_SERVICE_16_BIT_UUID_BYTES = { (byte) 0xaa, (byte) 0xfe};
-    private static final byte URIBEACON_URL_FRAME_TYPE = 0x10;
+    private static final int EDDYSTONE_SERVICE_UUID = 0xfeaa;
+    private static final int URIBEACON_SERVICE_UUID = 0xfed8;
+    private static final int EDDYSTONE_URL_FRAME_TYPE = 0x10;
 
-    private static final List<String> URI_SCHEMES = Arrays.asList(
+    // urn:uuid: not supported
+    private static final String[] URI_SCHEMES = {
             "http://www.",
             "https://www.",
             "http://",
-            "https://");
-            // urn:uuid: not supported
+            "https://"
+    };
 
-    private static final List<String> URL_CODES = Arrays.asList(
+    private static final String[] URL_CODES = {
             ".com/",
             ".org/",
             ".edu/",
@@ -47,170 +46,200 @@ public class EddyStoneParser {
             ".info",
             ".biz",
             ".gov"
-    );
+    };
+
+    /**
+     * Longest url a single AD structure can expand to: the longest scheme plus every remaining
+     * byte of a 255 byte field expanded to the longest url code.
+     */
+    private static final int MAX_URL_LENGTH = 12 + 255 * 6;
+
+    private static final ThreadLocal<EddyStoneParser> sParsers = new ThreadLocal<EddyStoneParser>() {
+        @Override
+        protected EddyStoneParser initialValue() {
+            return new EddyStoneParser();
+        }
+    };
 
+    private final char[] mUrl = new char[MAX_URL_LENGTH];
+    private int mUrlLength;
+    private int mTxPower;
+    private int mServiceUuid;
 
     /**
      * Given an array of bytes, the payload of a BTLE record, tries to parse finding Eddystone
      * protocol attached. Also compatible with the previous UriBeacon.
      *
      * @param record Array of bytes defining the payload.
-     * @return JSONObject with the mandatory field 'url' if the parsing of the url has been correct
-     *  and an extra field 'metadata' with more information coming from the beacon, like distance,
-     *  transmision power, etc.
-     *  If the parser cannot find information of it's imcomplete, will return null.
+     * @param rssi Received signal strength, used to estimate the distance.
+     * @return MagnetScannerItem with the url and distance to the beacon, or null if the parser
+     *  cannot find beacon information or it's incomplete.
      */
     public static MagnetScannerItem parse(byte[] record, int rssi) {
-        byte[] serviceData = parseEddystoneRecord(record);
-        int currentPos = 0;
-        byte flags;
-        byte txPowerLevel;
-        String uri;
-
-        if (serviceData != null && serviceData.length >= 2) {
-            flags = serviceData[currentPos++];
-            txPowerLevel = serviceData[currentPos++];
-            uri = decodeUri(serviceData, currentPos);
-        } else {
-            serviceData = parseUribeaconRecord(record);
-
-            if (serviceData == null || serviceData.length < 2) {
-                return null;
-            }
-
-            currentPos = 0;
-            txPowerLevel = serviceData[currentPos++];
-            flags = (byte) (serviceData[currentPos] >> 4);
-            serviceData[currentPos] = (byte) (serviceData[currentPos] & 0xFF);
-            uri = decodeUri(serviceData, currentPos);
-        }
-
-        if (uri == null) {
+        EddyStoneParser parser = sParsers.get();
+        if (record == null || !parser.parse(record, 0, record.length)) {
             return null;
         }
 
-        MagnetScannerItem item = new MagnetScannerItem(uri);
-        item.setDistance(calculateDistance(txPowerLevel, rssi));
+        MagnetScannerItem item = new MagnetScannerItem(parser.getUrl());
+        item.setDistance(calculateDistance(parser.getTxPower(), rssi));
 
         return item;
     }
 
     /**
-     * Calculates the distance to the beacon based on transmission power configured in the beacon
-     * and rssi detected with our sensor.
-     * https://github.com/google/physical-web/blob/master/web-service/helpers.py#L124
-     * @param txPower int Transmission power, configured in the beacon.
-     * @param rssi int Received signal strength.
-     * @return
+     * Walks the AD structures in {@code record[offset, offset + length)} looking for Eddystone-URL
+     * (0xFEAA) or UriBeacon (0xFED8) service data. On success the url is kept in the parser and
+     * can be read with {@link #getUrl()} or {@link #copyUrl(char[], int)} until the next call.
+     *
+     * Never throws on malformed input.
+     *
+     * @return true if the record contains a url beacon frame.
      */
-    private static double calculateDistance(int txPower, int rssi) {
-        double x = ((txPower - rssi) - 41.0) / 20.0;
-        return Math.pow(10.0, x);
-    }
+    public boolean parse(byte[] record, int offset, int length) {
+        mUrlLength = 0;
+        mServiceUuid = 0;
 
-    /**
-     * From the list of bytes decodes them to get back the string format of the url.
-     * @param serviceData Array of bytes containing the payload.
-     * @param offset Where the url information starts from.
-     * @return String with the url, null if cannot parse the information.
-     */
-    private static String decodeUri(byte[] serviceData, int offset) {
-        if (serviceData.length <= offset) {
-            return null;
+        if (record == null || offset < 0 || length < 0 || offset > record.length - length) {
+            return false;
         }
 
-        try {
-            byte schemeByte = serviceData[offset++];
-            String scheme = URI_SCHEMES.get(schemeByte);
-            if (schemeByte >= URI_SCHEMES.size()) {
-                return null;
+        int pos = offset;
+        int end = offset + length;
+
+        while (pos < end) {
+            int fieldLength = record[pos++] & 0xff;
+            if (fieldLength == 0) {
+                break;
+            }
+
+            int fieldEnd = pos + fieldLength;
+            if (fieldEnd > end) {
+                return false;
             }
-            String url = new String(scheme);
-            while (offset < serviceData.length) {
-                byte b = serviceData[offset++];
-                if (b >= URL_CODES.size()) {
-                    url += (char) b;
-                } else {
-                    url += URL_CODES.get(b);
+
+            // field type and a 16 bit service uuid, little endian
+            if (fieldLength >= 3 && (record[pos] & 0xff) == DATA_TYPE_SERVICE_DATA) {
+                int uuid = (record[pos + 1] & 0xff) | ((record[pos + 2] & 0xff) << 8);
+
+                if (uuid == URIBEACON_SERVICE_UUID) {
+                    // [flags][tx power][scheme][url...]
+                    return parseFrame(record, pos + 4, fieldEnd, uuid);
+                }
+
+                if (uuid == EDDYSTONE_SERVICE_UUID) {
+                    // [frame type][tx power][scheme][url...]
+                    if (fieldLength < 4 || (record[pos + 3] & 0xff) != EDDYSTONE_URL_FRAME_TYPE) {
+                        return false;
+                    }
+                    return parseFrame(record, pos + 4, fieldEnd, uuid);
                 }
             }
 
-            return url;
-        } catch (Exception e) {
-            Log.e(TAG, "unable to decode uri: " + Arrays.toString(serviceData), e);
+            // length includes the length of the field type
+            pos = fieldEnd;
         }
 
-        return null;
+        return false;
     }
 
     /**
-     * Tries to parse the payload of a BTLE beacon with the Eddystone protocol specification.
-     * @param scanRecord Array of bytes containing the payload
-     * @return Array of bytes containing the parsed data.
+     * Reads the tx power and expands the encoded url of a frame into the url buffer.
+     * @param txPowerPos Position of the tx power byte.
+     * @param end End of the service data field (exclusive).
      */
-    private static byte[] parseEddystoneRecord(byte[] scanRecord) {
-        int currentPos = 0;
-        try {
-            while (currentPos < scanRecord.length) {
-                int fieldLength = scanRecord[currentPos++] & 0xff;
-                if (fieldLength == 0) {
-                    break;
-                }
-                int fieldType = scanRecord[currentPos] & 0xff;
-                if (fieldType == DATA_TYPE_SERVICE_DATA) {
-                    // The first two bytes of the service data are service data UUID.
-                    if (scanRecord[currentPos + 1] == URI_SERVICE_16_BIT_UUID_BYTES[0]
-                            && scanRecord[currentPos + 2] == URI_SERVICE_16_BIT_UUID_BYTES[1]) {
-                        // jump to data
-                        currentPos += 3;
-                        // length includes the length of the field type and ID
-                        byte[] bytes = new byte[fieldLength - 3];
-                        System.arraycopy(scanRecord, currentPos, bytes, 0, fieldLength - 3);
-                        return bytes;
-                    }
-                }
-                // length includes the length of the field type
-                currentPos += fieldLength;
+    private boolean parseFrame(byte[] record, int txPowerPos, int end, int uuid) {
+        int pos = txPowerPos;
+
+        // tx power and scheme are mandatory
+        if (pos + 1 >= end) {
+            return false;
+        }
+
+        int txPower = record[pos++];
+        int scheme = record[pos++] & 0xff;
+        if (scheme >= URI_SCHEMES.length) {
+            return false;
+        }
+
+        int length = append(URI_SCHEMES[scheme], 0);
+
+        while (pos < end) {
+            int b = record[pos++] & 0xff;
+
+            if (b < URL_CODES.length) {
+                length = append(URL_CODES[b], length);
+            } else if (b > 0x20 && b < 0x7f) {
+                mUrl[length++] = (char) b;
+            } else {
+                // reserved for future use
+                mUrlLength = 0;
+                return false;
             }
-        } catch (Exception e) {
-            Log.e(TAG, "unable to parse scan record: " + Arrays.toString(scanRecord), e);
         }
-        return null;
+
+        mUrlLength = length;
+        mTxPower = txPower;
+        mServiceUuid = uuid;
+        return true;
+    }
+
+    private int append(String expansion, int position) {
+        int length = expansion.length();
+        expansion.getChars(0, length, mUrl, position);
+        return position + length;
     }
 
     /**
-     * Tries to parse the payload of a BTLE beacon with the Uribeacon protocol specification.
-     * @param scanRecord Array of bytes containing the payload
-     * @return Array of bytes containing the parsed data.
+     * @return Service uuid of the last parsed frame, 0xFEAA or 0xFED8, 0 if it wasn't a beacon.
      */
-    private static byte[] parseUribeaconRecord(byte[] scanRecord) {
-        int currentPos = 0;
-        try {
-            while (currentPos < scanRecord.length) {
-                int fieldLength = scanRecord[currentPos++] & 0xff;
-                if (fieldLength == 0) {
-                    break;
-                }
-                int fieldType = scanRecord[currentPos] & 0xff;
-                if (fieldType == DATA_TYPE_SERVICE_DATA) {
-                    if (scanRecord[currentPos + 1] == URIBEACON_SERVICE_16_BIT_UUID_BYTES[0]
-                            && scanRecord[currentPos + 2] == URIBEACON_SERVICE_16_BIT_UUID_BYTES[1]
-                            && scanRecord[currentPos + 3] == URIBEACON_URL_FRAME_TYPE) {
-                        // Jump to beginning of frame.
-                        currentPos += 4;
-                        // TODO: Add tests
-                        // field length - field type - ID - frame type
-                        byte[] bytes = new byte[fieldLength - 4];
-                        System.arraycopy(scanRecord, currentPos, bytes, 0, fieldLength - 4);
-                        return bytes;
-                    }
-                }
-                // length includes the length of the field type.
-                currentPos += fieldLength;
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "unable to parse scan record: " + Arrays.toString(scanRecord), e);
+    public int getServiceUuid() {
+        return mServiceUuid;
+    }
+
+    /**
+     * @return Calibrated transmission power of the last parsed frame.
+     */
+    public int getTxPower() {
+        return mTxPower;
+    }
+
+    /**
+     * @return Length of the last parsed url, 0 if it wasn't a beacon.
+     */
+    public int getUrlLength() {
+        return mUrlLength;
+    }
+
+    /**
+     * @return String with the last parsed url, null if it wasn't a beacon.
+     */
+    public String getUrl() {
+        if (mUrlLength == 0) {
+            return null;
         }
-        return null;
+        return new String(mUrl, 0, mUrlLength);
+    }
+
+    /**
+     * Copies the last parsed url into {@code dest}, without allocating.
+     * @return Number of chars copied.
+     */
+    public int copyUrl(char[] dest, int offset) {
+        System.arraycopy(mUrl, 0, dest, offset, mUrlLength);
+        return mUrlLength;
+    }
+
+    /**
+     * Calculates the distance to the beacon based on transmission power configured in the beacon
+     * and rssi detected with our sensor.
+     * https://github.com/google/physical-web/blob/master/web-service/helpers.py#L124
+     * @param txPower int Transmission power, configured in the beacon.
+     * @param rssi double Received signal strength, possibly averaged.
+     * @return Estimated distance in meters.
+     */
+    public static double calculateDistance(int txPower, double rssi) {
+        double x = ((txPower - rssi) - 41.0) / 20.0;
+        return Math.pow(10.0, x);
     }
 }
@@ -0,0 +1,38 @@
+package org.mozilla.magnet.scanner.ble;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
+
+/**
+ * Scans with `BluetoothAdapter.startLeScan()`, the only API before Lollipop.
+ * Every advert from every nearby device is delivered to the app.
+ */
+@SuppressWarnings("deprecation")
+public class LegacyBleScanBackend implements BleScanBackend, BluetoothAdapter.LeScanCallback {
+    private final BluetoothAdapter mBTAdapter;
+    private Callback mCallback;
+
+    public LegacyBleScanBackend(BluetoothAdapter adapter) {
+        mBTAdapter = adapter;
+    }
+
+    @Override
+    public boolean start(Callback callback) {
+        if (mBTAdapter == null) return false;
+        mCallback = callback;
+        return mBTAdapter.startLeScan(this);
+    }
+
+    @Override
+    public void stop() {
+        if (mBTAdapter == null) return;
+        mBTAdapter.stopLeScan(this);
+    }
+
+    @Override
+    public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+        if (scanRecord == null) return;
+        mCallback.onScanResult(device.getAddress(), rssi, scanRecord, SystemClock.elapsedRealtime());
+    }
+}
@@ -0,0 +1,129 @@
+package org.mozilla.magnet.scanner.ble;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans with `BluetoothLeScanner`, filtering on the Eddystone (0xFEAA) and UriBeacon (0xFED8)
+ * service uuids so the Bluetooth controller can drop other adverts without waking the app.
+ *
+ * When the controller supports offloaded batching, results can also be delivered in batches
+ * with {@link #setReportDelay(long)}.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class LollipopBleScanBackend extends ScanCallback implements BleScanBackend {
+    private final static String TAG = LollipopBleScanBackend.class.getName();
+    private final static ParcelUuid EDDYSTONE_SERVICE_UUID = ParcelUuid.fromString("0000feaa-0000-1000-8000-00805f9b34fb");
+    private final static ParcelUuid URIBEACON_SERVICE_UUID = ParcelUuid.fromString("0000fed8-0000-1000-8000-00805f9b34fb");
+    private final BluetoothAdapter mBTAdapter;
+    private BluetoothLeScanner mScanner;
+    private Callback mCallback;
+    private int mScanMode = ScanSettings.SCAN_MODE_BALANCED;
+    private long mReportDelay = 0;
+
+    public LollipopBleScanBackend(BluetoothAdapter adapter) {
+        mBTAdapter = adapter;
+    }
+
+    /**
+     * @param scanMode One of the `ScanSettings.SCAN_MODE_*` constants.
+     * @return LollipopBleScanBackend
+     */
+    public LollipopBleScanBackend setScanMode(int scanMode) {
+        mScanMode = scanMode;
+        return this;
+    }
+
+    /**
+     * Asks the controller to hold results and deliver them in batches. Ignored when the
+     * controller doesn't support offloaded batching.
+     * @param ms Delay in milliseconds, 0 for immediate delivery.
+     * @return LollipopBleScanBackend
+     */
+    public LollipopBleScanBackend setReportDelay(long ms) {
+        mReportDelay = ms;
+        return this;
+    }
+
+    @Override
+    public boolean start(Callback callback) {
+        if (mBTAdapter == null) return false;
+
+        // null when bluetooth is off
+        mScanner = mBTAdapter.getBluetoothLeScanner();
+        if (mScanner == null) return false;
+
+        mCallback = callback;
+        mScanner.startScan(createFilters(), createSettings(), this);
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        if (mScanner == null) return;
+
+        // throws if bluetooth was turned off meanwhile
+        try {
+            mScanner.stopScan(this);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "unable to stop scan", e);
+        }
+
+        mScanner = null;
+    }
+
+    private List<ScanFilter> createFilters() {
+        List<ScanFilter> filters = new ArrayList<>();
+        filters.add(new ScanFilter.Builder().setServiceUuid(EDDYSTONE_SERVICE_UUID).build());
+        filters.add(new ScanFilter.Builder().setServiceUuid(URIBEACON_SERVICE_UUID).build());
+        return filters;
+    }
+
+    private ScanSettings createSettings() {
+        ScanSettings.Builder builder = new ScanSettings.Builder().setScanMode(mScanMode);
+
+        if (mReportDelay > 0 && mBTAdapter.isOffloadedScanBatchingSupported()) {
+            builder.setReportDelay(mReportDelay);
+        }
+
+        return builder.build();
+    }
+
+    @Override
+    public void onScanResult(int callbackType, ScanResult result) {
+        deliver(result);
+    }
+
+    @Override
+    public void onBatchScanResults(List<ScanResult> results) {
+        for (int i = 0, size = results.size(); i < size; i++) {
+            deliver(results.get(i));
+        }
+    }
+
+    @Override
+    public void onScanFailed(int errorCode) {
+        Log.e(TAG, "scan failed: " + errorCode);
+    }
+
+    private void deliver(ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        if (record == null) return;
+
+        long timestamp = TimeUnit.NANOSECONDS.toMillis(result.getTimestampNanos());
+        mCallback.onScanResult(result.getDevice().getAddress(), result.getRssi(), record.getBytes(), timestamp);
+    }
+}
@@ -1,43 +1,113 @@
 package org.mozilla.magnet.scanner.ble;
 
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothManager;
 import android.content.Context;
+import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 
 import org.mozilla.magnet.scanner.BaseScanner;
-import org.mozilla.magnet.scanner.MagnetScannerItem;
 import org.mozilla.magnet.scanner.MagnetScannerListener;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * MagnetScanner to discover web pages via Bluetooth Low Energy beacons using
  * the Eddystone (https://github.com/google/eddystone) protocol.
  *
+ * Adverts come from a {@link BleScanBackend}: hardware filtered `BluetoothLeScanner`
+ * scans on Lollipop and above, `BluetoothAdapter.startLeScan()` before.
+ *
+ * Adverts are queued from the Bluetooth callback and processed in batches on a
+ * dedicated scanner thread, which also owns the items and their expiry. The
+ * listener is called from that thread.
+ *
  * @author Francisco Jordano
  */
-public class ScannerBle extends BaseScanner implements BluetoothAdapter.LeScanCallback {
+public class ScannerBle extends BaseScanner implements BleScanBackend.Callback, AdvertQueue.Consumer {
     private final String TAG = ScannerBle.class.getName();
-    private final int EXPIRE_CHECK_INTERVAL_MS = 6000;
     private final int ITEM_MAX_AGE_MS = 5000;
+    private final int NEAREST_BEACON_MAX_AGE_MS = 3000;
     private final static String TYPE = "ble";
-    private BluetoothAdapter mBTAdapter;
-    private Context mContext = null;
-    private Handler mHandler;
+    private final static long BATCH_INTERVAL_MS = 50;
+    private final static int MAX_BATCH_SIZE = 256;
+    private final static long THREAD_JOIN_TIMEOUT_MS = 500;
+    private final static double DEFAULT_UPDATE_THRESHOLD_METERS = 0.5;
+    private final static long DEFAULT_MIN_UPDATE_INTERVAL_MS = 1000;
+    private final BleScanBackend mBackend;
+    private final Looper mLooper;
+    private final EddyStoneParser mParser = new EddyStoneParser();
+    private final AdvertCache mAdvertCache = new AdvertCache();
+    private final BeaconTracker mBeaconTracker = new BeaconTracker();
+    private final AdvertQueue mAdvertQueue = new AdvertQueue();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    private double mUpdateThreshold = DEFAULT_UPDATE_THRESHOLD_METERS;
+    private long mMinUpdateInterval = DEFAULT_MIN_UPDATE_INTERVAL_MS;
+    private HandlerThread mThread;
 
     /**
      * Constructor with context needed to launch the BTLE scanner.
      * @param context Context
      */
     public ScannerBle(Context context) {
-        mContext = context;
-        final BluetoothManager bluetoothManager = (BluetoothManager) mContext.getSystemService(Context.BLUETOOTH_SERVICE);
-        mBTAdapter = bluetoothManager.getAdapter();
+        this(createBackend(context));
+    }
+
+    /**
+     * Constructor with the backend delivering adverts.
+     * @param backend BleScanBackend
+     */
+    public ScannerBle(BleScanBackend backend) {
+        this(backend, null);
+    }
+
+    /**
+     * Processes adverts on the given looper instead of a scanner thread.
+     */
+    ScannerBle(BleScanBackend backend, Looper looper) {
+        mBackend = backend;
+        mLooper = looper;
+        setItemMaxAge(ITEM_MAX_AGE_MS);
+    }
+
+    /**
+     * Uses `BluetoothLeScanner` with hardware filtering when available,
+     * falls back to `BluetoothAdapter.startLeScan()` on API 18-20.
+     */
+    private static BleScanBackend createBackend(Context context) {
+        BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
+        BluetoothAdapter adapter = bluetoothManager.getAdapter();
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return new LollipopBleScanBackend(adapter);
+        }
+
+        return new LegacyBleScanBackend(adapter);
+    }
+
+    /**
+     * Sets how much the smoothed distance to an item must change
+     * before the listener is told with `onItemUpdated`.
+     * @param meters Minimum change in meters.
+     * @return ScannerBle
+     */
+    public ScannerBle setUpdateThreshold(double meters) {
+        mUpdateThreshold = meters;
+        return this;
+    }
+
+    /**
+     * Sets the minimum time between two `onItemUpdated` calls for the same item.
+     * @param ms Minimum interval in milliseconds.
+     * @return ScannerBle
+     */
+    public ScannerBle setMinUpdateInterval(long ms) {
+        mMinUpdateInterval = ms;
+        return this;
     }
 
     /**
@@ -55,88 +125,175 @@ public class ScannerBle extends BaseScanner implements BluetoothAdapter.LeScanCa
     @Override
     public void start(MagnetScannerListener listener) {
         if (isStarted()) return;
-        super.start(listener);
         Log.d(TAG, "starting scan");
-        mHandler = new Handler();
-        if (mBTAdapter == null) return;
-        mBTAdapter.startLeScan(this);
-        startExpireCheck();
+        if (mLooper == null) {
+            mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            mThread.start();
+        }
+        mAdvertQueue.clear();
+        mDrainScheduled.set(false);
+        super.start(listener);
+        if (!mBackend.start(this)) {
+            Log.d(TAG, "ble scanning unavailable");
+        }
     }
 
     /**
      * Stops the scanning.
+     *
+     * The scanner thread is stopped and joined before the items are
+     * cleared, so it can't touch them while they're torn down.
      */
     @Override
     public void stop() {
         if (isStopped()) return;
-        super.stop();
         Log.d(TAG, "stopping scan");
-        if (mBTAdapter == null) return;
-        mBTAdapter.stopLeScan(this);
-        stopExpireCheck();
+        mBackend.stop();
+        stopThread();
+        super.stop();
+        mAdvertCache.clear();
+        mBeaconTracker.clear();
     }
 
     @Override
-    public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
-        MagnetScannerItem item = EddyStoneParser.parse(scanRecord, rssi);
-
-        // not all ble advertisements are eddystone-url
-        if (item == null) { return; }
+    protected Looper getLooper() {
+        if (mLooper != null) return mLooper;
+        return mThread.getLooper();
+    }
 
-        String id = item.getUrl();
-        MagnetScannerItem existingItem = getItem(id);
+    private void stopThread() {
+        if (mThread == null) return;
+        mThread.quit();
 
-        // if item already in cache, touch and exit
-        if (existingItem != null) {
-            existingItem.touch();
-            return;
+        try {
+            mThread.join(THREAD_JOIN_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
 
-        item.setDevice(device.toString());
-        item.setType(scannerType());
-        addItem(item);
+        mThread = null;
     }
 
-    private void startExpireCheck() {
-        scheduleExpireCheck();
-    }
+    /**
+     * Called on a Bluetooth binder thread. Only copies the advert into the
+     * queue and wakes the scanner thread, which does the rest in batches.
+     */
+    @Override
+    public void onScanResult(String address, int rssi, byte[] record, long timestamp) {
+        if (!isStarted()) { return; }
 
-    private void stopExpireCheck() {
-        mHandler.removeCallbacks(expireCheck);
-    }
+        // when the queue is full the advert is dropped,
+        // beacons will repeat it shortly
+        if (!mAdvertQueue.offer(address, rssi, record, timestamp)) { return; }
 
-    private void scheduleExpireCheck() {
-        mHandler.postDelayed(expireCheck, EXPIRE_CHECK_INTERVAL_MS);
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            Handler handler = getHandler();
+            if (handler != null) {
+                handler.postDelayed(drainAdverts, BATCH_INTERVAL_MS);
+            }
+        }
     }
 
-    private Runnable expireCheck = new Runnable() {
+    private final Runnable drainAdverts = new Runnable() {
+        @Override
         public void run() {
-            Map items = getItems();
-            Iterator it = items.entrySet().iterator();
-            long now = System.currentTimeMillis();
-            ArrayList<String> toRemove = new ArrayList<>();
-
-            while (it.hasNext()) {
-                Map.Entry pair = (Map.Entry) it.next();
-                String id = (String) pair.getKey();
-                MagnetScannerItem item = (MagnetScannerItem) pair.getValue();
-                long lastSeen = item.getLastSeen();
-                long age = now - lastSeen;
-
-                // remove expired mItems
-                if (age > ITEM_MAX_AGE_MS) {
-                    toRemove.add(id);
-                }
+            // cleared first so adverts queued while
+            // draining schedule another batch
+            mDrainScheduled.set(false);
+            if (isStopped()) { return; }
+
+            mAdvertQueue.drain(ScannerBle.this, MAX_BATCH_SIZE);
+
+            if (!mAdvertQueue.isEmpty() && mDrainScheduled.compareAndSet(false, true)) {
+                getHandler().post(drainAdverts);
             }
+        }
+    };
+
+    /**
+     * Processes an advert on the scanner thread.
+     */
+    @Override
+    public void onAdvert(String address, int rssi, byte[] record, int length, long now) {
+        long recordHash = AdvertCache.hash(record, 0, length);
+        int slot = mAdvertCache.find(address, recordHash);
+
+        // the same advert is received many times a second,
+        // answer repeats from the cache without parsing
+        if (slot != AdvertCache.MISS) {
+            BeaconItem cachedItem = mAdvertCache.getItem(slot);
+
+            // not all ble advertisements are eddystone-url
+            if (cachedItem == null) { return; }
 
-            // remove items in separate loop to avoid
-            // `ConcurrentModificationException`
-            for (String id: toRemove) {
-                removeItem(id);
+            // only valid while the item hasn't expired
+            if (getItem(cachedItem.getUrl()) == cachedItem) {
+                trackAdvert(cachedItem, address, mAdvertCache.getTxPower(slot), rssi, now);
+                return;
             }
+        }
 
-            // loop
-            scheduleExpireCheck();
+        if (!mParser.parse(record, 0, length)) {
+            mAdvertCache.putNegative(address, recordHash);
+            return;
         }
-    };
+
+        int txPower = mParser.getTxPower();
+        String id = mParser.getUrl();
+        BeaconItem existingItem = (BeaconItem) getItem(id);
+
+        // if item already in cache, track the advert and exit
+        if (existingItem != null) {
+            mAdvertCache.putItem(address, recordHash, existingItem, txPower);
+            trackAdvert(existingItem, address, txPower, rssi, now);
+            return;
+        }
+
+        int beacon = mBeaconTracker.track(address, txPower, rssi, now);
+        BeaconItem item = new BeaconItem(id, beacon);
+        item.mReportedDistance = mBeaconTracker.getDistance(beacon);
+        item.mReportedAt = now;
+        item.setDistance(item.mReportedDistance);
+        item.setDevice(address);
+        item.setType(scannerType());
+        mAdvertCache.putItem(address, recordHash, item, txPower);
+        addItem(item);
+    }
+
+    /**
+     * Feeds an advert for a known item into the beacon's rssi window.
+     *
+     * When several beacons broadcast the same url the item follows
+     * the nearest one. The listener is only told about the new
+     * distance once it has moved past the threshold, and no more
+     * often than the minimum update interval.
+     */
+    private void trackAdvert(BeaconItem item, String address, int txPower, int rssi, long now) {
+        int beacon = mBeaconTracker.track(address, txPower, rssi, now);
+        double distance = mBeaconTracker.getDistance(beacon);
+        touchItem(item);
+
+        // slots are reused once a beacon is evicted,
+        // the address tells whether it's the one followed
+        if (!mBeaconTracker.getAddress(beacon).equals(item.getDevice())) {
+            int nearest = item.mNearestBeacon;
+            boolean nearestInRange = mBeaconTracker.isTracking(nearest, item.getDevice(), now - NEAREST_BEACON_MAX_AGE_MS);
+
+            // a farther beacon for the same url
+            if (nearestInRange && distance >= mBeaconTracker.getDistance(nearest)) { return; }
+
+            item.setDevice(address);
+        }
+
+        item.mNearestBeacon = beacon;
+
+        item.setDistance(distance);
+
+        if (Math.abs(distance - item.mReportedDistance) < mUpdateThreshold) { return; }
+        if (now - item.mReportedAt < mMinUpdateInterval) { return; }
+
+        item.mReportedDistance = distance;
+        item.mReportedAt = now;
+        updateItem(item);
+    }
 }
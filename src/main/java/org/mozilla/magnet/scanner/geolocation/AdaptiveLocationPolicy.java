@@ -0,0 +1,129 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import android.location.Location;
+import android.util.Log;
+
+import com.google.android.gms.location.LocationRequest;
+
+/**
+ * Location policy following how the user moves.
+ *
+ * - Still: no real movement for a minute. Balanced power fixes every
+ *   30 s are enough to notice the user leaving.
+ * - Walking: high accuracy fixes every 3 s, as before.
+ * - Fast: faster than a brisk walk. High accuracy fixes every second,
+ *   so new areas are searched before the user has passed them.
+ *
+ * Speed comes from the fixes, or from the distance between them when
+ * they have none, smoothed over a few fixes. Thresholds have some
+ * hysteresis so the request isn't switched back and forth.
+ */
+public class AdaptiveLocationPolicy implements LocationPolicy {
+    private final static String TAG = "AdaptiveLocationPolicy";
+    private final static int STILL = 0;
+    private final static int WALKING = 1;
+    private final static int FAST = 2;
+    private final static float STILL_SPEED_MPS = 0.3f;
+    private final static float WAKE_SPEED_MPS = 0.6f;
+    private final static float FAST_SPEED_MPS = 3f;
+    private final static float SLOW_SPEED_MPS = 2f;
+    private final static float STILL_RADIUS_METERS = 25;
+    private final static long STILL_AFTER_MS = 60000;
+    private final static float SPEED_SMOOTHING = 0.5f;
+
+    final static Settings STILL_SETTINGS = new Settings(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY, 30000, 10000, STILL_RADIUS_METERS);
+    final static Settings WALKING_SETTINGS = new Settings(LocationRequest.PRIORITY_HIGH_ACCURACY, 3000, 3000, 5);
+    final static Settings FAST_SETTINGS = new Settings(LocationRequest.PRIORITY_HIGH_ACCURACY, 1000, 1000, 10);
+
+    private int mState = WALKING;
+    private float mSpeed = -1;
+    private Location mLastLocation;
+    private Location mStillAnchor;
+    private long mStillSince;
+
+    @Override
+    public Settings getInitialSettings() {
+        // a scanner kept between runs shouldn't start from a stale state
+        mState = WALKING;
+        mSpeed = -1;
+        mLastLocation = null;
+        mStillAnchor = null;
+        return getSettings(mState);
+    }
+
+    @Override
+    public Settings onLocationChanged(Location location) {
+        updateSpeed(location);
+        boolean moved = updateStillness(location);
+        mLastLocation = location;
+
+        int state = nextState(location, moved);
+        if (state == mState) return null;
+
+        Log.d(TAG, "state: " + mState + " -> " + state + ", speed: " + mSpeed);
+        mState = state;
+        return getSettings(state);
+    }
+
+    private void updateSpeed(Location location) {
+        float speed;
+
+        if (location.hasSpeed()) {
+            speed = location.getSpeed();
+        } else if (mLastLocation != null && location.getTime() > mLastLocation.getTime()) {
+            speed = location.distanceTo(mLastLocation) * 1000f / (location.getTime() - mLastLocation.getTime());
+        } else {
+            return;
+        }
+
+        mSpeed = mSpeed < 0 ? speed : mSpeed + SPEED_SMOOTHING * (speed - mSpeed);
+    }
+
+    /**
+     * Tracks since when the user has stayed around the same spot.
+     * @return true if the user has left the spot.
+     */
+    private boolean updateStillness(Location location) {
+        boolean slow = mSpeed >= 0 && mSpeed < STILL_SPEED_MPS;
+        boolean moved = mStillAnchor != null && hasLeft(mStillAnchor, location);
+
+        if (!slow || mStillAnchor == null || moved) {
+            mStillAnchor = slow ? location : null;
+            mStillSince = location.getTime();
+        }
+
+        return moved;
+    }
+
+    private int nextState(Location location, boolean moved) {
+        switch (mState) {
+            case STILL:
+                if (!moved && mSpeed < WAKE_SPEED_MPS) return STILL;
+                return mSpeed > FAST_SPEED_MPS ? FAST : WALKING;
+
+            case FAST:
+                return mSpeed < SLOW_SPEED_MPS ? WALKING : FAST;
+
+            default:
+                if (mSpeed > FAST_SPEED_MPS) return FAST;
+                if (mStillAnchor != null && location.getTime() - mStillSince >= STILL_AFTER_MS) return STILL;
+                return WALKING;
+        }
+    }
+
+    /**
+     * Inaccurate fixes wander, only a move past their accuracy counts.
+     */
+    private static boolean hasLeft(Location anchor, Location location) {
+        float radius = Math.max(STILL_RADIUS_METERS, location.getAccuracy());
+        return location.distanceTo(anchor) > radius;
+    }
+
+    private static Settings getSettings(int state) {
+        switch (state) {
+            case STILL: return STILL_SETTINGS;
+            case FAST: return FAST_SETTINGS;
+            default: return WALKING_SETTINGS;
+        }
+    }
+}
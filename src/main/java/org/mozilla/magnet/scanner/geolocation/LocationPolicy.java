@@ -0,0 +1,66 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import android.location.Location;
+
+/**
+ * Decides how often and how precisely {@link ScannerGeolocation} asks for
+ * location updates, e.g. from how fast the user is moving.
+ */
+public interface LocationPolicy {
+
+    /**
+     * Called as the scanner starts, the policy starts over from here.
+     * @return Settings of the first location request.
+     */
+    Settings getInitialSettings();
+
+    /**
+     * Called with every location update.
+     * @return Settings to switch to, or null to keep the current ones.
+     */
+    Settings onLocationChanged(Location location);
+
+    /**
+     * Parameters of a fused location `LocationRequest`.
+     */
+    final class Settings {
+        private final int mPriority;
+        private final long mInterval;
+        private final long mFastestInterval;
+        private final float mSmallestDisplacement;
+
+        /**
+         * @param priority One of the `LocationRequest.PRIORITY_*` constants.
+         * @param interval Desired interval between updates in milliseconds.
+         * @param fastestInterval Fastest interval updates are accepted at in milliseconds.
+         * @param smallestDisplacement Smallest displacement between updates in meters.
+         */
+        public Settings(int priority, long interval, long fastestInterval, float smallestDisplacement) {
+            mPriority = priority;
+            mInterval = interval;
+            mFastestInterval = fastestInterval;
+            mSmallestDisplacement = smallestDisplacement;
+        }
+
+        public int getPriority() {
+            return mPriority;
+        }
+
+        public long getInterval() {
+            return mInterval;
+        }
+
+        public long getFastestInterval() {
+            return mFastestInterval;
+        }
+
+        public float getSmallestDisplacement() {
+            return mSmallestDisplacement;
+        }
+
+        @Override
+        public String toString() {
+            return "priority: " + mPriority + ", interval: " + mInterval + ", displacement: " + mSmallestDisplacement;
+        }
+    }
+}
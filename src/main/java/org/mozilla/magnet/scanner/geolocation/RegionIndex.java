@@ -0,0 +1,290 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import android.util.Log;
+
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+import org.mozilla.magnet.scanner.io.FileIO;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * On-device index of every beacon of a region, answering radius
+ * searches without the network.
+ *
+ * Items are bucketed in a uniform grid of {@link #CELL_DEGREES} cells, so a
+ * search only looks at the few cells under its bounding box. The index is
+ * updated in place from deltas and persisted to a compact binary file.
+ * The region is the bounding box of the items, recomputed when an item
+ * on its edge is removed. Not thread safe.
+ */
+class RegionIndex {
+    private final static String TAG = "RegionIndex";
+    private final static int FILE_VERSION = 2;
+    private final static double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+    /**
+     * Side of a cell, about 110 m north to south.
+     */
+    final static double CELL_DEGREES = 0.001;
+
+    private final HashMap<Long, ArrayList<MagnetScannerItem>> mCells = new HashMap<>();
+    private final HashMap<String, MagnetScannerItem> mItems = new HashMap<>();
+    private long mVersion;
+    private double mNorth = Double.NEGATIVE_INFINITY;
+    private double mSouth = Double.POSITIVE_INFINITY;
+    private double mEast = Double.NEGATIVE_INFINITY;
+    private double mWest = Double.POSITIVE_INFINITY;
+    private boolean mBoundsStale;
+
+    /**
+     * Adds an item, replacing the one with the same url.
+     */
+    void put(MagnetScannerItem item) {
+        if (item.getLatitude() == null || item.getLongitude() == null) return;
+        remove(item.getUrl());
+
+        double latitude = item.getLatitude();
+        double longitude = item.getLongitude();
+        long key = key(row(latitude), col(longitude));
+        ArrayList<MagnetScannerItem> cell = mCells.get(key);
+
+        if (cell == null) {
+            cell = new ArrayList<>(4);
+            mCells.put(key, cell);
+        }
+
+        cell.add(item);
+        mItems.put(item.getUrl(), item);
+
+        mNorth = Math.max(mNorth, latitude);
+        mSouth = Math.min(mSouth, latitude);
+        mEast = Math.max(mEast, longitude);
+        mWest = Math.min(mWest, longitude);
+    }
+
+    void remove(String url) {
+        MagnetScannerItem item = mItems.remove(url);
+        if (item == null) return;
+
+        long key = key(row(item.getLatitude()), col(item.getLongitude()));
+        ArrayList<MagnetScannerItem> cell = mCells.get(key);
+        cell.remove(item);
+
+        if (cell.isEmpty()) {
+            mCells.remove(key);
+        }
+
+        // the box may shrink, recomputed when next needed
+        if (item.getLatitude() == mNorth || item.getLatitude() == mSouth
+                || item.getLongitude() == mEast || item.getLongitude() == mWest) {
+            mBoundsStale = true;
+        }
+    }
+
+    /**
+     * Applies a full download or a delta of the region.
+     */
+    void apply(Update update) {
+        if (update.mFull) {
+            clear();
+        }
+
+        for (String url : update.mRemoved) {
+            remove(url);
+        }
+
+        for (MagnetScannerItem item : update.mItems) {
+            put(item);
+        }
+
+        mVersion = update.mVersion;
+    }
+
+    void clear() {
+        mCells.clear();
+        mItems.clear();
+        mVersion = 0;
+        mNorth = Double.NEGATIVE_INFINITY;
+        mSouth = Double.POSITIVE_INFINITY;
+        mEast = Double.NEGATIVE_INFINITY;
+        mWest = Double.POSITIVE_INFINITY;
+        mBoundsStale = false;
+    }
+
+    /**
+     * @return Items within the radius of a point, by url.
+     */
+    HashMap<String, MagnetScannerItem> query(double latitude, double longitude, int radius) {
+        HashMap<String, MagnetScannerItem> result = new HashMap<>();
+        double dLat = radius / METERS_PER_DEGREE;
+        double dLon = dLat / Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+        int maxRow = row(latitude + dLat);
+        int maxCol = col(longitude + dLon);
+
+        for (int row = row(latitude - dLat); row <= maxRow; row++) {
+            for (int col = col(longitude - dLon); col <= maxCol; col++) {
+                ArrayList<MagnetScannerItem> cell = mCells.get(key(row, col));
+                if (cell == null) continue;
+
+                for (int i = 0; i < cell.size(); i++) {
+                    MagnetScannerItem item = cell.get(i);
+                    if (SearchTileCache.distance(latitude, longitude, item.getLatitude(), item.getLongitude()) <= radius) {
+                        result.put(item.getUrl(), item);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Whether a point is within the region, the bounding box of its
+     * items grown by the given margin.
+     */
+    boolean covers(double latitude, double longitude, int margin) {
+        if (mItems.isEmpty()) return false;
+        if (mBoundsStale) updateBounds();
+        double dLat = margin / METERS_PER_DEGREE;
+        double dLon = dLat / Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+        return latitude >= mSouth - dLat && latitude <= mNorth + dLat
+                && longitude >= mWest - dLon && longitude <= mEast + dLon;
+    }
+
+    private void updateBounds() {
+        mNorth = Double.NEGATIVE_INFINITY;
+        mSouth = Double.POSITIVE_INFINITY;
+        mEast = Double.NEGATIVE_INFINITY;
+        mWest = Double.POSITIVE_INFINITY;
+
+        for (MagnetScannerItem item : mItems.values()) {
+            mNorth = Math.max(mNorth, item.getLatitude());
+            mSouth = Math.min(mSouth, item.getLatitude());
+            mEast = Math.max(mEast, item.getLongitude());
+            mWest = Math.min(mWest, item.getLongitude());
+        }
+
+        mBoundsStale = false;
+    }
+
+    /**
+     * @return Version of the last update applied, 0 when empty.
+     */
+    long getVersion() {
+        return mVersion;
+    }
+
+    int size() {
+        return mItems.size();
+    }
+
+    void save(File file) {
+        byte[] data = encode();
+        if (data == null) return;
+
+        try {
+            FileIO.write(file, data);
+        } catch (IOException e) {
+            Log.e(TAG, "save failed: " + e);
+        }
+    }
+
+    /**
+     * Encodes the index for `save()`, so the file can be written
+     * on another thread than the one using the index.
+     * @return The bytes of the file, null if an item can't be encoded.
+     */
+    byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + mItems.size() * 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(FILE_VERSION);
+            out.writeLong(mVersion);
+            out.writeInt(mItems.size());
+
+            for (MagnetScannerItem item : mItems.values()) {
+                out.writeUTF(item.getUrl());
+                out.writeBoolean(item.getChannelId() != null);
+                if (item.getChannelId() != null) out.writeUTF(item.getChannelId());
+                out.writeDouble(item.getLatitude());
+                out.writeDouble(item.getLongitude());
+            }
+        } catch (IOException e) {
+            // a string too long for the format
+            Log.e(TAG, "encode failed: " + e);
+            return null;
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replaces the index with a file written by `save()`.
+     * @return false if the file is missing or unreadable, leaving the index empty.
+     */
+    boolean load(File file) {
+        clear();
+        if (!file.exists()) return false;
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(FileIO.read(file)));
+            if (in.readInt() != FILE_VERSION) return false;
+            long version = in.readLong();
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                String url = in.readUTF();
+                String channelId = in.readBoolean() ? in.readUTF() : null;
+                double latitude = in.readDouble();
+                double longitude = in.readDouble();
+                put(SearchResponseParser.createItem(url, channelId, latitude, longitude));
+            }
+
+            mVersion = version;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "load failed: " + e);
+            clear();
+            return false;
+        }
+    }
+
+    private static long key(int row, int col) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    private static int row(double latitude) {
+        return (int) Math.floor(latitude / CELL_DEGREES);
+    }
+
+    private static int col(double longitude) {
+        return (int) Math.floor(longitude / CELL_DEGREES);
+    }
+
+    /**
+     * A download of the region: every item when full, else the
+     * items added or changed and the urls removed since a version.
+     */
+    static class Update {
+        final long mVersion;
+        final boolean mFull;
+        final List<MagnetScannerItem> mItems;
+        final List<String> mRemoved;
+
+        Update(long version, boolean full, List<MagnetScannerItem> items, List<String> removed) {
+            mVersion = version;
+            mFull = full;
+            mItems = items;
+            mRemoved = removed;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Downloads the beacons of a region, in full or as the changes since
+ * the version already indexed, decoded on the network thread.
+ */
+class RegionRequest extends Request<RegionIndex.Update> {
+    private final static String DEFAULT_CHARSET = "utf-8";
+    private final Response.Listener<RegionIndex.Update> mListener;
+    private final boolean mFull;
+
+    /**
+     * @param since Version already indexed, 0 to download the whole region.
+     */
+    RegionRequest(String url, long since, Response.Listener<RegionIndex.Update> listener, Response.ErrorListener errorListener) {
+        super(Method.GET, getUrl(url, since), errorListener);
+        mListener = listener;
+        mFull = since == 0;
+        setShouldCache(false);
+    }
+
+    private static String getUrl(String url, long since) {
+        if (since == 0) return url;
+        return url + (url.indexOf('?') < 0 ? "?" : "&") + "since=" + since;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return Priority.LOW;
+    }
+
+    @Override
+    protected Response<RegionIndex.Update> parseNetworkResponse(NetworkResponse response) {
+        try {
+            String charset = HttpHeaderParser.parseCharset(response.headers, DEFAULT_CHARSET);
+            RegionIndex.Update update = SearchResponseParser.parseRegion(new ByteArrayInputStream(response.data), charset, mFull);
+            return Response.success(update, null);
+        } catch (IOException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    @Override
+    protected void deliverResponse(RegionIndex.Update response) {
+        mListener.onResponse(response);
+    }
+}
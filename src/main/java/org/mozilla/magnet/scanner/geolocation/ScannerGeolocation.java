@@ -3,14 +3,15 @@ package org.mozilla.magnet.scanner.geolocation;
 import android.content.Context;
 import android.location.Location;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.android.volley.NetworkError;
 import com.android.volley.Request;
-import com.android.volley.RequestQueue;
 import com.android.volley.Response;
+import com.android.volley.TimeoutError;
 import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonArrayRequest;
-import com.android.volley.toolbox.Volley;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.GoogleApiClient.OnConnectionFailedListener;
@@ -19,30 +20,88 @@ import com.google.android.gms.location.LocationListener;
 import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationServices;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.mozilla.magnet.scanner.BaseScanner;
 import org.mozilla.magnet.scanner.MagnetScannerItem;
 import org.mozilla.magnet.scanner.MagnetScannerListener;
-
+import org.mozilla.magnet.scanner.io.FileIO;
+import org.mozilla.magnet.scanner.net.Backoff;
+import org.mozilla.magnet.scanner.net.CircuitBreaker;
+import org.mozilla.magnet.scanner.net.HttpTransport;
+import org.mozilla.magnet.scanner.net.VolleyTransport;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
 
+/**
+ * MagnetScanner to discover web pages registered near the device's location,
+ * using the beacon search API.
+ *
+ * Search results are cached by map tile, in memory and in the app's cache
+ * directory, so revisiting an area is answered without the network. While
+ * the user moves, the area ahead of them is prefetched at low priority.
+ *
+ * In offline region mode the beacons of a whole region are downloaded once,
+ * then kept up to date from deltas, and searches within the region are
+ * answered from an on-device index.
+ *
+ * Bursts of location updates are collapsed into one scan of the latest
+ * location. Each scan supersedes the previous one: its request is
+ * cancelled and a response that still arrives is dropped, as is anything
+ * arriving after `stop()`.
+ *
+ * Failed searches are retried with exponential backoff. After repeated
+ * failures a circuit breaker, shared by every scanner of the same API,
+ * stops searches until a probe succeeds again after a cool-down.
+ *
+ * A scanner started again and again, e.g. by background scans, can keep
+ * its api client connected in between, see {@link #setKeepConnected(boolean)},
+ * and {@link #release()} it all when memory runs low.
+ */
 public class ScannerGeolocation extends BaseScanner implements ConnectionCallbacks, OnConnectionFailedListener, LocationListener {
     private final static String TAG = "ScannerGeolocation";
     private final static String SCANNER_TYPE = "geolocation";
     private final static String API_SEARCH_URL = "https://tengam.org/content/v1/search/beacons/";
     private final static int MIN_DISTANCE_CHANGE_METERS = 10;
-    private final static int LOCATION_INTERVAL = 3000;
     private final static int MIN_ACCURACY_METERS = 20;
     private final static int SCAN_RADIUS_METERS = 100;
+    private final static String TILE_CACHE_FILE = "magnet-geolocation-tiles";
+    private final static int PREFETCH_MIN_ACCURACY_METERS = 50;
+    private final static long SCAN_DEBOUNCE_MS = 1000;
+    private final static String REGION_FILE_PREFIX = "magnet-geolocation-region-";
+    private final static double DISTANCE_UPDATE_METERS = 1;
+    private final static int BREAKER_THRESHOLD = 3;
+    private final static long BREAKER_COOL_DOWN_MS = 60000;
+    private final static HashMap<String, CircuitBreaker> sBreakers = new HashMap<>();
     private final String mApiSearchUrl;
+    private final CircuitBreaker mBreaker;
+    private final Backoff mBackoff = new Backoff(1000, 8000, 3);
+    private final SearchTileCache mTileCache = new SearchTileCache();
+    private final SearchPrefetcher mPrefetcher = new SearchPrefetcher(mTileCache, SCAN_RADIUS_METERS);
+    private final Object mScanTag = new Object();
+    private final Object mPrefetchTag = new Object();
+    private final Object mRegionTag = new Object();
+    private final File mCacheDir;
+    private File mTileCacheFile;
+    private boolean mTileCacheLoaded;
+    private boolean mTileCacheLoading;
+    private boolean mTileCacheSavePending;
+    private String mRegionUrl;
+    private File mRegionFile;
+    private RegionIndex mRegionIndex;
+    private boolean mRegionLoaded;
     private GoogleApiClient mGoogleApiClient;
+    private boolean mKeepConnected;
     private Location mLastLocation;
-    private RequestQueue mQueue;
+    private Location mPendingLocation;
+    private Location mRetryLocation;
+    private int mRetries;
+    private LocationPolicy mLocationPolicy = new AdaptiveLocationPolicy();
+    private long mLastScanAt;
+    private int mSearchLatency = -1;
+    private int mGeneration;
+    private HttpTransport mTransport;
     private Listeners mListeners;
 
     public ScannerGeolocation(Context context) {
@@ -50,11 +109,21 @@ public class ScannerGeolocation extends BaseScanner implements ConnectionCallbac
     }
 
     public ScannerGeolocation(Context context, String apiUrl) {
+        this(context, apiUrl, null);
+    }
+
+    /**
+     * @param googleApiClient Client to get locations with, null to build one.
+     */
+    ScannerGeolocation(Context context, String apiUrl, GoogleApiClient googleApiClient) {
         Log.d(TAG, "create");
 
         mApiSearchUrl = apiUrl;
-        mQueue = Volley.newRequestQueue(context);
-        mGoogleApiClient = new GoogleApiClient.Builder(context)
+        mBreaker = getCircuitBreaker(apiUrl);
+        mTransport = VolleyTransport.getInstance();
+        mCacheDir = context.getCacheDir();
+        mTileCacheFile = new File(mCacheDir, TILE_CACHE_FILE);
+        mGoogleApiClient = googleApiClient != null ? googleApiClient : new GoogleApiClient.Builder(context)
                 .addApi(LocationServices.API)
                 .addConnectionCallbacks(this)
                 .addOnConnectionFailedListener(this)
@@ -66,31 +135,285 @@ public class ScannerGeolocation extends BaseScanner implements ConnectionCallbac
         return SCANNER_TYPE;
     }
 
+    /**
+     * @return The circuit breaker of the default search API.
+     */
+    public static CircuitBreaker getCircuitBreaker() {
+        return getCircuitBreaker(API_SEARCH_URL);
+    }
+
+    /**
+     * Returns the circuit breaker of a search API, shared by every scanner
+     * of the process. While open, scans complete without searching.
+     * @param apiUrl Url of the search API.
+     * @return CircuitBreaker
+     */
+    public static CircuitBreaker getCircuitBreaker(String apiUrl) {
+        synchronized (sBreakers) {
+            CircuitBreaker breaker = sBreakers.get(apiUrl);
+
+            if (breaker == null) {
+                breaker = new CircuitBreaker(BREAKER_THRESHOLD, BREAKER_COOL_DOWN_MS);
+                sBreakers.put(apiUrl, breaker);
+            }
+
+            return breaker;
+        }
+    }
+
+    /**
+     * Sets the file search results are persisted to between
+     * runs, null keeps them in memory only.
+     * @param file File in the app's cache directory by default.
+     * @return ScannerGeolocation
+     */
+    public ScannerGeolocation setTileCacheFile(File file) {
+        mTileCacheFile = file;
+        mTileCacheLoaded = false;
+        return this;
+    }
+
+    /**
+     * Answers searches from an on-device index of a region's beacons
+     * instead of the search API, while the user is within the region.
+     *
+     * The region is downloaded from the given url once and kept in the
+     * app's cache directory. Each start then asks for the changes since
+     * the version indexed, `url?since=<version>`. The url answers with
+     * `{"version": 7, "items": [search results], "removed": [urls]}`.
+     *
+     * @param url Url of the region download.
+     * @return ScannerGeolocation
+     */
+    public ScannerGeolocation useOfflineRegion(String url) {
+        mRegionUrl = url;
+        mRegionFile = new File(mCacheDir, REGION_FILE_PREFIX + Integer.toHexString(url.hashCode()));
+        mRegionIndex = new RegionIndex();
+        mRegionLoaded = false;
+        return this;
+    }
+
+    /**
+     * Sets the transport search requests are sent with.
+     * @param transport The process' shared {@link VolleyTransport} by default.
+     * @return ScannerGeolocation
+     */
+    public ScannerGeolocation setTransport(HttpTransport transport) {
+        mTransport = transport;
+        return this;
+    }
+
+    /**
+     * Sets the policy deciding how often and how precisely the
+     * location is requested.
+     * @param policy {@link AdaptiveLocationPolicy} by default.
+     * @return ScannerGeolocation
+     */
+    public ScannerGeolocation setLocationPolicy(LocationPolicy policy) {
+        mLocationPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Keeps the api client connected after `stop()`, so the next
+     * `start()` gets locations without connecting again. Location
+     * updates are still removed. Disconnects on {@link #release()}.
+     * @param keepConnected false by default.
+     * @return ScannerGeolocation
+     */
+    public ScannerGeolocation setKeepConnected(boolean keepConnected) {
+        mKeepConnected = keepConnected;
+        return this;
+    }
+
+    /**
+     * Disconnects the api client and drops the search results and
+     * region index held in memory, they're read back from the cache
+     * directory on the next `start()`. Should be called when stopped.
+     *
+     * While the tile cache file is still being read, the tiles are kept:
+     * those fetched meanwhile are only saved once the file's are merged.
+     */
+    public void release() {
+        Log.d(TAG, "release");
+
+        if (mGoogleApiClient.isConnected() || mGoogleApiClient.isConnecting()) {
+            mGoogleApiClient.disconnect();
+        }
+
+        if (mTileCacheFile != null && !mTileCacheLoading) {
+            mTileCache.clear();
+            mTileCacheLoaded = false;
+        }
+
+        if (mRegionIndex != null) {
+            mRegionIndex.clear();
+            mRegionLoaded = false;
+        }
+    }
+
+    /**
+     * @return Time the last search request since `start()` took to
+     * answer or fail in ms, -1 if none was sent.
+     */
+    public int getSearchLatency() {
+        return mSearchLatency;
+    }
+
     @Override
     public void start(MagnetScannerListener listener) {
+        if (isStarted()) return;
         super.start(listener);
         Log.d(TAG, "start");
+        mSearchLatency = -1;
 
-        if (mGoogleApiClient != null) {
+        if (mTileCacheFile != null && !mTileCacheLoaded) {
+            loadTileCache(mTileCacheFile);
+            mTileCacheLoaded = true;
+        }
+
+        if (mRegionIndex != null) {
+            if (mRegionLoaded) {
+                updateRegion();
+            } else {
+                loadRegion(mRegionFile);
+                mRegionLoaded = true;
+            }
+        }
+
+        if (mGoogleApiClient.isConnected()) {
+            onConnected(null);
+        } else {
             mGoogleApiClient.connect();
         }
     }
 
     @Override
     public void stop() {
+        if (isStopped()) return;
+        cancelScans();
         super.stop();
         Log.d(TAG, "stop");
 
         // there's a chance that the GoogleApiClient might not
         // be connected yet, in which case we can't disconnect
-        if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
+        if (mGoogleApiClient.isConnected()) {
             LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient, this);
-            mGoogleApiClient.disconnect();
+            if (!mKeepConnected) mGoogleApiClient.disconnect();
         }
 
         // clear the last location so that a
         // scan will be performed next `.start()`
         mLastLocation = null;
+
+        if (mTileCacheFile != null) {
+            saveTileCache(mTileCacheFile);
+        }
+    }
+
+    /**
+     * Reads the tile cache file on the io thread, then adds its tiles to
+     * the cache on the scanner's thread. Scans until then search online.
+     */
+    private void loadTileCache(final File file) {
+        final Handler handler = getHandler();
+        mTileCacheLoading = true;
+
+        FileIO.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final SearchTileCache loaded = new SearchTileCache();
+                loaded.load(file, System.currentTimeMillis());
+
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mTileCache.merge(loaded);
+                        mTileCacheLoading = false;
+
+                        // stopped while the file was read
+                        if (mTileCacheSavePending) {
+                            mTileCacheSavePending = false;
+                            if (isStopped()) saveTileCache(file);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Encodes the tile cache here, where it's used, and writes it on the
+     * io thread. Writes and later loads run in order on the same thread.
+     *
+     * Until the tiles of the file are merged in, writing would replace
+     * them with those fetched since, so the save waits for the merge.
+     */
+    private void saveTileCache(final File file) {
+        if (mTileCacheLoading) {
+            mTileCacheSavePending = true;
+            return;
+        }
+
+        final byte[] data = mTileCache.encode();
+        if (data == null) return;
+
+        FileIO.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileIO.write(file, data);
+                } catch (IOException e) {
+                    Log.e(TAG, "can't save tile cache: " + e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the region file on the io thread, then swaps the index in on
+     * the scanner's thread and asks for the changes since its version.
+     * Scans until then search online.
+     */
+    private void loadRegion(final File file) {
+        final Handler handler = getHandler();
+
+        FileIO.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final RegionIndex loaded = new RegionIndex();
+                loaded.load(file);
+
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // another region is used since
+                        if (file != mRegionFile) return;
+                        mRegionIndex = loaded;
+                        if (isStarted()) updateRegion();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Encodes the region index here and writes it on the io thread.
+     */
+    private void saveRegion(final File file) {
+        final byte[] data = mRegionIndex.encode();
+        if (data == null) return;
+
+        FileIO.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileIO.write(file, data);
+                } catch (IOException e) {
+                    Log.e(TAG, "can't save region: " + e);
+                }
+            }
+        });
     }
 
     public void addListeners(Listeners listeners) {
@@ -111,11 +434,20 @@ public class ScannerGeolocation extends BaseScanner implements ConnectionCallbac
     @Override
     public void onConnected(Bundle connectionHint) {
         if (!isStarted()) return;
+        requestLocationUpdates(mLocationPolicy.getInitialSettings());
+    }
+
+    /**
+     * Registers for location updates, replacing the previous request.
+     */
+    private void requestLocationUpdates(LocationPolicy.Settings settings) {
+        Log.d(TAG, "request location updates: " + settings);
 
         LocationRequest locationRequest = LocationRequest.create()
-            .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
-            .setInterval(LOCATION_INTERVAL)
-            .setFastestInterval(LOCATION_INTERVAL);
+            .setPriority(settings.getPriority())
+            .setInterval(settings.getInterval())
+            .setFastestInterval(settings.getFastestInterval())
+            .setSmallestDisplacement(settings.getSmallestDisplacement());
 
         try {
             // throws if the app hasn't been granted location permissions yet
@@ -127,6 +459,13 @@ public class ScannerGeolocation extends BaseScanner implements ConnectionCallbac
 
     @Override
     public void onLocationChanged(Location location) {
+        if (!isStarted()) return;
+
+        LocationPolicy.Settings settings = mLocationPolicy.onLocationChanged(location);
+        if (settings != null && mGoogleApiClient.isConnected()) {
+            requestLocationUpdates(settings);
+        }
+
         float accuracy = location.getAccuracy();
         double lat = location.getLatitude();
         double lon = location.getLongitude();
@@ -135,6 +474,12 @@ public class ScannerGeolocation extends BaseScanner implements ConnectionCallbac
         Log.d(TAG, "lon: " + lat);
         Log.d(TAG, "accuracy: " + accuracy);
 
+        // heading is useful well before the
+        // fix is accurate enough to scan
+        if (accuracy <= PREFETCH_MIN_ACCURACY_METERS) {
+            prefetch(location);
+        }
+
         if (accuracy > MIN_ACCURACY_METERS) {
             Log.d(TAG, "not accurate enough");
             return;
@@ -147,7 +492,66 @@ public class ScannerGeolocation extends BaseScanner implements ConnectionCallbac
         }
 
         mLastLocation = location;
-        scan(location);
+        scheduleScan(location);
+    }
+
+    /**
+     * Scans right away unless a scan ran less than `SCAN_DEBOUNCE_MS`
+     * ago, in which case the latest location is scanned once that
+     * has passed.
+     */
+    private void scheduleScan(Location location) {
+        mPendingLocation = location;
+        long wait = mLastScanAt + SCAN_DEBOUNCE_MS - SystemClock.uptimeMillis();
+        getHandler().removeCallbacks(scanPendingLocation);
+
+        if (wait <= 0) {
+            scanPendingLocation.run();
+        } else {
+            getHandler().postDelayed(scanPendingLocation, wait);
+        }
+    }
+
+    private final Runnable scanPendingLocation = new Runnable() {
+        @Override
+        public void run() {
+            Location location = mPendingLocation;
+            mPendingLocation = null;
+            if (isStopped() || location == null) return;
+            mLastScanAt = SystemClock.uptimeMillis();
+            mRetries = 0;
+            scan(location);
+        }
+    };
+
+    private final Runnable retryScan = new Runnable() {
+        @Override
+        public void run() {
+            Location location = mRetryLocation;
+            mRetryLocation = null;
+            if (isStopped() || location == null) return;
+            mRetries++;
+            scan(location);
+        }
+    };
+
+    /**
+     * Cancels the pending and in-flight scans and prefetches, none
+     * of them will call back.
+     */
+    private void cancelScans() {
+        mGeneration++;
+        mPendingLocation = null;
+        mRetryLocation = null;
+        mLastScanAt = 0;
+        if (getHandler() != null) {
+            getHandler().removeCallbacks(scanPendingLocation);
+            getHandler().removeCallbacks(retryScan);
+        }
+        mTransport.cancelAll(mScanTag);
+        mTransport.cancelAll(mPrefetchTag);
+        mTransport.cancelAll(mRegionTag);
+        mPrefetcher.cancel();
     }
 
     /**
@@ -173,100 +577,292 @@ public class ScannerGeolocation extends BaseScanner implements ConnectionCallbac
         Log.e(TAG, "connection suspended: " + result);
     }
 
-    private void scan(Location location) {
-        String lat = String.valueOf(location.getLatitude());
-        String lon = String.valueOf(location.getLongitude());
-        String url = mApiSearchUrl + lat + "," + lon + "," + SCAN_RADIUS_METERS;
-        int method = Request.Method.GET;
+    /**
+     * Answers from the tile cache when it covers the search, else
+     * fetches the missing tiles and answers from the response.
+     * Supersedes the previous scan, and its retry.
+     */
+    private void scan(final Location location) {
+        final double latitude = location.getLatitude();
+        final double longitude = location.getLongitude();
+        final long now = System.currentTimeMillis();
+        final int generation = ++mGeneration;
+        mTransport.cancelAll(mScanTag);
+        getHandler().removeCallbacks(retryScan);
+        mRetryLocation = null;
+
+        if (isInRegion(latitude, longitude)) {
+            Log.d(TAG, "scan answered from region");
+            reportItems(mRegionIndex.query(latitude, longitude, SCAN_RADIUS_METERS), latitude, longitude);
+            onScanComplete();
+            return;
+        }
+
+        HashMap<String, MagnetScannerItem> cached = mTileCache.query(latitude, longitude, SCAN_RADIUS_METERS, now);
+        if (cached != null) {
+            Log.d(TAG, "scan answered from cache");
+            reportItems(cached, latitude, longitude);
+            onScanComplete();
+            return;
+        }
+
+        if (!mBreaker.allowRequest(SystemClock.elapsedRealtime())) {
+            Log.d(TAG, "search api unavailable, not scanning");
+            onScanComplete();
+            return;
+        }
+
+        search(location, mTileCache.getMissingArea(latitude, longitude, SCAN_RADIUS_METERS, now), generation, true);
+    }
+
+    /**
+     * Searches the area of a scan, conditionally when the cached tiles
+     * hold validators for it. When the answer is not modified but the
+     * cached tiles are gone, the area is searched again without them.
+     */
+    private void search(final Location location, final SearchTileCache.Area area, final int generation, final boolean conditional) {
+        final double latitude = location.getLatitude();
+        final double longitude = location.getLongitude();
+        final long now = System.currentTimeMillis();
+        final long sentAt = SystemClock.elapsedRealtime();
+        String url = getSearchUrl(area);
         Log.d(TAG, "scanning: " + url);
 
-        JsonArrayRequest request = new JsonArrayRequest(method, url, null, new Response.Listener<JSONArray>() {
+        SearchRequest request = new SearchRequest(url, new Response.Listener<SearchRequest.Result>() {
             @Override
-            public void onResponse(JSONArray response) {
-                onScanResponse(response);
+            public void onResponse(SearchRequest.Result result) {
+                mBreaker.onSuccess();
+                if (isSuperseded(generation)) return;
+                mSearchLatency = (int) (SystemClock.elapsedRealtime() - sentAt);
+
+                if (!onScanResponse(result, area, latitude, longitude, now) && conditional) {
+                    Log.d(TAG, "cached tiles gone while revalidating, searching again");
+                    search(location, area, generation, false);
+                    return;
+                }
+
                 onScanComplete();
             }
         }, new Response.ErrorListener() {
             @Override
             public void onErrorResponse(VolleyError error) {
+                onSearchError(error);
+                if (isSuperseded(generation)) return;
+                mSearchLatency = (int) (SystemClock.elapsedRealtime() - sentAt);
                 Log.e(TAG, "request error: " + error);
+                if (retry(location, error)) return;
                 onScanComplete();
             }
         });
 
-        mQueue.add(request);
+        request.setTag(mScanTag);
+        request.setValidators(conditional ? mTileCache.getValidators(area, url) : null);
+        mTransport.send(request);
     }
 
-    private void onScanResponse(JSONArray json) {
-        Log.d(TAG, "scan response: " + json);
+    /**
+     * Fetches the tiles ahead of a moving user into the cache. Prefetches
+     * go at low priority, behind the searches for where the user is.
+     */
+    private void prefetch(Location location) {
+        if (!location.hasBearing() || !location.hasSpeed()) return;
+        if (isInRegion(location.getLatitude(), location.getLongitude())) return;
+        // leave the probe of a half open breaker to scans
+        if (mBreaker.getState(SystemClock.elapsedRealtime()) != CircuitBreaker.State.CLOSED) return;
+        final long now = System.currentTimeMillis();
+        final SearchTileCache.Area area = mPrefetcher.next(location.getLatitude(), location.getLongitude(),
+                location.getBearing(), location.getSpeed(), now);
+        if (area == null) return;
+
+        String url = getSearchUrl(area);
+        Log.d(TAG, "prefetching: " + url);
+
+        SearchRequest request = new SearchRequest(url, new Response.Listener<SearchRequest.Result>() {
+            @Override
+            public void onResponse(SearchRequest.Result result) {
+                mBreaker.onSuccess();
+                if (isStopped()) return;
+                cacheResult(result, area, now);
+                mPrefetcher.onComplete(area);
+            }
+        }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                onSearchError(error);
+                if (isStopped()) return;
+                Log.e(TAG, "prefetch error: " + error);
+                mPrefetcher.onComplete(area);
+            }
+        });
 
-        HashMap<String,MagnetScannerItem> oldItems = getItems();
-        HashMap<String,MagnetScannerItem> newItems = inflateJsonItems(json);
-        ArrayList<String> toRemove = new ArrayList<>();
+        request.setTag(mPrefetchTag);
+        request.setPriority(Request.Priority.LOW);
+        request.setValidators(mTileCache.getValidators(area, url));
+        mTransport.send(request);
+    }
 
-        // remove old items
-        Iterator iterator = oldItems.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry pair = (Map.Entry) iterator.next();
-            String id = (String) pair.getKey();
+    /**
+     * Schedules the scan again after a backoff delay, when the error
+     * may be transient and the breaker hasn't opened.
+     * @return false if the scan is given up.
+     */
+    private boolean retry(Location location, VolleyError error) {
+        if (!isTransient(error)) return false;
+        if (mBreaker.isOpen(SystemClock.elapsedRealtime())) return false;
+        long delay = mBackoff.getDelay(mRetries);
+        if (delay < 0) return false;
+
+        Log.d(TAG, "retrying in " + delay + "ms");
+        mRetryLocation = location;
+        getHandler().postDelayed(retryScan, delay);
+        return true;
+    }
 
-            // remove old items not found in the latest scan
-            if (!newItems.containsKey(id)) {
-                toRemove.add(id);
+    /**
+     * Client errors are our own doing, they don't count against the API.
+     */
+    private void onSearchError(VolleyError error) {
+        int status = error.networkResponse != null ? error.networkResponse.statusCode : 0;
+        if (status >= 400 && status < 500) return;
+        mBreaker.onFailure(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Timeouts, lost connections and server errors may go away,
+     * unlike client errors or a response that can't be parsed.
+     */
+    private static boolean isTransient(VolleyError error) {
+        if (error instanceof TimeoutError || error instanceof NetworkError) return true;
+        return error.networkResponse != null && error.networkResponse.statusCode >= 500;
+    }
+
+    private boolean isInRegion(double latitude, double longitude) {
+        return mRegionIndex != null && mRegionIndex.covers(latitude, longitude, SCAN_RADIUS_METERS);
+    }
+
+    /**
+     * Downloads the offline region, or the changes since the version
+     * indexed, and saves the updated index.
+     */
+    private void updateRegion() {
+        long since = mRegionIndex.getVersion();
+        Log.d(TAG, "updating region since: " + since);
+
+        RegionRequest request = new RegionRequest(mRegionUrl, since, new Response.Listener<RegionIndex.Update>() {
+            @Override
+            public void onResponse(RegionIndex.Update update) {
+                if (isStopped()) return;
+                Log.d(TAG, "region update: " + update.mItems.size() + " items, " + update.mRemoved.size() + " removed");
+                mRegionIndex.apply(update);
+                saveRegion(mRegionFile);
             }
-        }
+        }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                Log.e(TAG, "region error: " + error);
+            }
+        });
+
+        request.setTag(mRegionTag);
+        mTransport.send(request);
+    }
+
+    /**
+     * Volley already drops cancelled requests, checked again so a
+     * stale response can never replace the items of a newer scan.
+     */
+    private boolean isSuperseded(int generation) {
+        if (generation == mGeneration && isStarted()) return false;
+        Log.d(TAG, "dropping superseded response");
+        return true;
+    }
 
-        // remove items in separate loop to avoid
-        // `ConcurrentModificationException`
-        for (String id: toRemove) {
-            removeItem(id);
+    private String getSearchUrl(SearchTileCache.Area area) {
+        String lat = String.valueOf(area.getLatitude());
+        String lon = String.valueOf(area.getLongitude());
+        return mApiSearchUrl + lat + "," + lon + "," + area.getRadius();
+    }
+
+    /**
+     * The response covers the tiles of the searched area, which are
+     * cached whole. The scan is then answered from the cache, as the
+     * search may only have covered the part of the circle that was
+     * missing or stale.
+     *
+     * When the area hasn't changed since it was last searched, nothing
+     * is decoded: the cached tiles are marked fresh and answer the scan.
+     *
+     * @return false if not modified but the cached tiles can't answer
+     * the scan, evicted or replaced while the search was in flight.
+     */
+    private boolean onScanResponse(SearchRequest.Result result, SearchTileCache.Area area, double latitude, double longitude, long now) {
+        if (!cacheResult(result, area, now)) return false;
+        Log.d(TAG, "scan response: " + (result.isNotModified() ? "not modified" : result.getItems().size() + " items"));
+
+        HashMap<String, MagnetScannerItem> cached = mTileCache.query(latitude, longitude, SCAN_RADIUS_METERS, now);
+        if (cached != null) {
+            reportItems(cached, latitude, longitude);
+        } else if (result.isNotModified()) {
+            return false;
+        } else {
+            // the rest of the circle was evicted meanwhile
+            reportItems(SearchTileCache.withinRadius(result.getItems(), latitude, longitude, SCAN_RADIUS_METERS), latitude, longitude);
         }
 
-        // add new items
-        iterator = newItems.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry pair = (Map.Entry) iterator.next();
-            String id = (String) pair.getKey();
-            MagnetScannerItem item = (MagnetScannerItem) pair.getValue();
+        return true;
+    }
 
-            // add new items found in the scan
-            if (!oldItems.containsKey(id)) {
-                addItem(item);
+    /**
+     * Replaces the items with the results of a scan, with their distance
+     * from where the scan was made. Items still found are updated when
+     * the user has moved nearer or further from them.
+     */
+    private void reportItems(HashMap<String, MagnetScannerItem> items, double latitude, double longitude) {
+        ArrayList<MagnetScannerItem> moved = new ArrayList<>();
+
+        for (MagnetScannerItem item : getItems().values()) {
+            if (!items.containsKey(item.getUrl())) continue;
+            double distance = distanceTo(item, latitude, longitude);
+            if (Math.abs(distance - item.getDistance()) < DISTANCE_UPDATE_METERS) continue;
+            item.setDistance(distance);
+            moved.add(item);
+        }
+
+        for (MagnetScannerItem item : items.values()) {
+            if (getItem(item.getUrl()) == null) {
+                item.setDistance(distanceTo(item, latitude, longitude));
             }
         }
+
+        replaceItems(items);
+
+        for (MagnetScannerItem item : moved) {
+            updateItem(item);
+        }
     }
 
-    private void onScanComplete() {
-        Log.d(TAG, "on scan complete");
-        if (mListeners == null) { return; }
-        mListeners.onGeolocationScanComplete();
+    private static double distanceTo(MagnetScannerItem item, double latitude, double longitude) {
+        return SearchTileCache.distance(latitude, longitude, item.getLatitude(), item.getLongitude());
     }
 
     /**
-     * Transform JSONArray into a HashMap.
-     * @param jsonArray
-     * @return
+     * Stores the results of a search in the tile cache, or marks
+     * the cached tiles fresh again when not modified.
+     * @return false if the cached tiles are gone since the search was sent.
      */
-    private HashMap<String,MagnetScannerItem> inflateJsonItems(JSONArray jsonArray) {
-        HashMap<String,MagnetScannerItem> result = new HashMap<>();
-
-        for (int i = 0 ; i < jsonArray.length(); i++) {
-            try {
-                JSONObject jsonItem = jsonArray.getJSONObject(i);
-                String url = jsonItem.getString("short_url");
-                MagnetScannerItem scannerItem = new MagnetScannerItem(url);
-                scannerItem.setType(SCANNER_TYPE);
-                scannerItem.setChannelId(jsonItem.getString("channel_id"));
-                JSONObject jsonLocation = jsonItem.getJSONObject("location");
-                scannerItem.setLatitude(jsonLocation.getDouble("latitude"));
-                scannerItem.setLongitude(jsonLocation.getDouble("longitude"));
-                result.put(url, scannerItem);
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
+    private boolean cacheResult(SearchRequest.Result result, SearchTileCache.Area area, long now) {
+        if (result.isNotModified()) {
+            return mTileCache.revalidate(area, result.getValidators(), now);
         }
 
-        return result;
+        mTileCache.put(area, result.getItems().values(), result.getValidators(), now);
+        return true;
+    }
+
+    private void onScanComplete() {
+        Log.d(TAG, "on scan complete");
+        if (mListeners == null) { return; }
+        mListeners.onGeolocationScanComplete();
     }
 
     public interface Listeners {
@@ -0,0 +1,66 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+/**
+ * Picks the search area ahead of a moving user, so its tiles are
+ * cached by the time they get there.
+ *
+ * The position is projected along the bearing by the distance covered
+ * in {@link #LOOKAHEAD_MS} at the current speed, and the tiles missing
+ * under the search circle there are fetched. One prefetch at a time.
+ */
+class SearchPrefetcher {
+    private final static float MIN_SPEED_MPS = 0.5f;
+    private final static long LOOKAHEAD_MS = 30000;
+    private final static double MIN_LOOKAHEAD_METERS = 100;
+    private final static double MAX_LOOKAHEAD_METERS = 500;
+    private final static double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+    private final SearchTileCache mTileCache;
+    private final int mRadius;
+    private SearchTileCache.Area mPending;
+
+    SearchPrefetcher(SearchTileCache tileCache, int radius) {
+        mTileCache = tileCache;
+        mRadius = radius;
+    }
+
+    /**
+     * Returns the area to prefetch for a user moving from the given
+     * point, null when standing still, already cached, or a prefetch
+     * is still pending.
+     * @param bearing Degrees east of true north.
+     * @param speed Meters per second.
+     */
+    SearchTileCache.Area next(double latitude, double longitude, float bearing, float speed, long now) {
+        if (mPending != null || speed < MIN_SPEED_MPS) return null;
+
+        double distance = speed * LOOKAHEAD_MS / 1000d;
+        distance = Math.max(MIN_LOOKAHEAD_METERS, Math.min(MAX_LOOKAHEAD_METERS, distance));
+
+        double radians = Math.toRadians(bearing);
+        double dLat = distance * Math.cos(radians) / METERS_PER_DEGREE;
+        double dLon = distance * Math.sin(radians) / (METERS_PER_DEGREE * Math.max(0.01, Math.cos(Math.toRadians(latitude))));
+
+        mPending = mTileCache.getMissingArea(latitude + dLat, longitude + dLon, mRadius, now);
+        return mPending;
+    }
+
+    /**
+     * Called once the prefetch has been answered or has failed.
+     */
+    void onComplete(SearchTileCache.Area area) {
+        if (mPending == area) {
+            mPending = null;
+        }
+    }
+
+    /**
+     * Forgets the pending prefetch, once its request has been cancelled.
+     */
+    void cancel() {
+        mPending = null;
+    }
+
+    boolean isPending() {
+        return mPending != null;
+    }
+}
@@ -0,0 +1,139 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Beacon search request, decoded into items on the network
+ * thread with {@link SearchResponseParser}.
+ *
+ * Given the validators of a previous response the request is
+ * conditional, and a `304 Not Modified` is delivered as a
+ * {@link Result} without items and without decoding anything.
+ * Volley's own response cache is bypassed, results are cached
+ * by {@link SearchTileCache}.
+ */
+class SearchRequest extends Request<SearchRequest.Result> {
+    private final static String DEFAULT_CHARSET = "utf-8";
+    private final Response.Listener<Result> mListener;
+    private Priority mPriority = Priority.NORMAL;
+    private SearchTileCache.Validators mValidators;
+
+    SearchRequest(String url, Response.Listener<Result> listener, Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        mListener = listener;
+        setShouldCache(false);
+    }
+
+    SearchRequest setPriority(Priority priority) {
+        mPriority = priority;
+        return this;
+    }
+
+    /**
+     * Makes the request conditional on the response the validators came from.
+     * @param validators Validators, null for an unconditional request.
+     */
+    SearchRequest setValidators(SearchTileCache.Validators validators) {
+        mValidators = validators;
+        return this;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        if (mValidators == null) {
+            return super.getHeaders();
+        }
+
+        HashMap<String, String> headers = new HashMap<>();
+
+        if (mValidators.mETag != null) {
+            headers.put("If-None-Match", mValidators.mETag);
+        }
+
+        if (mValidators.mLastModified != null) {
+            headers.put("If-Modified-Since", mValidators.mLastModified);
+        }
+
+        return headers;
+    }
+
+    @Override
+    protected Response<Result> parseNetworkResponse(NetworkResponse response) {
+        if (response.notModified) {
+            return Response.success(new Result(null, mValidators), null);
+        }
+
+        try {
+            String charset = HttpHeaderParser.parseCharset(response.headers, DEFAULT_CHARSET);
+            HashMap<String, MagnetScannerItem> items = SearchResponseParser.parse(new ByteArrayInputStream(response.data), charset);
+            return Response.success(new Result(items, getValidators(response)), null);
+        } catch (IOException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    /**
+     * @return Validators of a response, null if it has none.
+     */
+    private SearchTileCache.Validators getValidators(NetworkResponse response) {
+        if (response.headers == null) return null;
+        String eTag = response.headers.get("ETag");
+        String lastModified = response.headers.get("Last-Modified");
+        if (eTag == null && lastModified == null) return null;
+        return new SearchTileCache.Validators(getUrl(), eTag, lastModified);
+    }
+
+    @Override
+    protected void deliverResponse(Result response) {
+        mListener.onResponse(response);
+    }
+
+    /**
+     * Items of a search, or none when the server answered that
+     * the results of the validated request haven't changed.
+     */
+    static class Result {
+        private final HashMap<String, MagnetScannerItem> mItems;
+        private final SearchTileCache.Validators mValidators;
+
+        Result(HashMap<String, MagnetScannerItem> items, SearchTileCache.Validators validators) {
+            mItems = items;
+            mValidators = validators;
+        }
+
+        boolean isNotModified() {
+            return mItems == null;
+        }
+
+        /**
+         * @return Items by url, null when not modified.
+         */
+        HashMap<String, MagnetScannerItem> getItems() {
+            return mItems;
+        }
+
+        /**
+         * @return Validators of the response, or those sent when not modified.
+         */
+        SearchTileCache.Validators getValidators() {
+            return mValidators;
+        }
+    }
+}
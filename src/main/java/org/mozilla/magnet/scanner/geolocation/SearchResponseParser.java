@@ -0,0 +1,201 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Turns responses of the beacon search API into items.
+ *
+ * The body is decoded with a pull parser straight into items: fields
+ * other than the url, channel and location are skipped without being
+ * materialised, and no intermediate tree is built.
+ */
+class SearchResponseParser {
+    private final static String SCANNER_TYPE = "geolocation";
+
+    /**
+     * Decodes a json array of search results. Results missing
+     * one of the fields needed are skipped.
+     * @param in Response body, closed once read.
+     * @param charset Charset of the body.
+     * @return Items by url.
+     * @throws IOException When the body isn't a json array.
+     */
+    static HashMap<String,MagnetScannerItem> parse(InputStream in, String charset) throws IOException {
+        HashMap<String,MagnetScannerItem> result = new HashMap<>();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, charset));
+
+        try {
+            reader.beginArray();
+
+            while (reader.hasNext()) {
+                MagnetScannerItem item = readItem(reader);
+                if (item != null) {
+                    result.put(item.getUrl(), item);
+                }
+            }
+
+            reader.endArray();
+        } catch (IllegalStateException e) {
+            // thrown by the reader on unexpected tokens
+            throw new IOException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+
+        return result;
+    }
+
+    /**
+     * Decodes a download of a region's beacons:
+     * `{"version": 7, "items": [search results], "removed": [urls]}`.
+     * @param full Whether the download has every item of the region or
+     *             only the changes since the version asked for.
+     * @throws IOException When the body isn't a region object.
+     */
+    static RegionIndex.Update parseRegion(InputStream in, String charset, boolean full) throws IOException {
+        ArrayList<MagnetScannerItem> items = new ArrayList<>();
+        ArrayList<String> removed = new ArrayList<>();
+        long version = 0;
+        JsonReader reader = new JsonReader(new InputStreamReader(in, charset));
+
+        try {
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (name.equals("version")) {
+                    version = reader.nextLong();
+                } else if (name.equals("items")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        MagnetScannerItem item = readItem(reader);
+                        if (item != null) {
+                            items.add(item);
+                        }
+                    }
+                    reader.endArray();
+                } else if (name.equals("removed")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        String url = readString(reader);
+                        if (url != null) {
+                            removed.add(url);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            // thrown by the reader on unexpected tokens
+            throw new IOException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+
+        return new RegionIndex.Update(version, full, items, removed);
+    }
+
+    private static MagnetScannerItem readItem(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+
+        String url = null;
+        String channelId = null;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (name.equals("short_url")) {
+                url = readString(reader);
+            } else if (name.equals("channel_id")) {
+                channelId = readString(reader);
+            } else if (name.equals("location") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+
+                while (reader.hasNext()) {
+                    String locationName = reader.nextName();
+
+                    if (locationName.equals("latitude")) {
+                        latitude = readDouble(reader);
+                    } else if (locationName.equals("longitude")) {
+                        longitude = readDouble(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+
+        if (url == null || channelId == null || Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return null;
+        }
+
+        return createItem(url, channelId, latitude, longitude);
+    }
+
+    /**
+     * @return The string or number value, null for anything else.
+     */
+    private static String readString(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+
+        reader.skipValue();
+        return null;
+    }
+
+    /**
+     * @return The numeric value, NaN for anything else.
+     */
+    private static double readDouble(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NUMBER || token == JsonToken.STRING) {
+            try {
+                return reader.nextDouble();
+            } catch (NumberFormatException e) {
+                // the value is left unconsumed
+                reader.skipValue();
+                return Double.NaN;
+            }
+        }
+
+        reader.skipValue();
+        return Double.NaN;
+    }
+
+    static MagnetScannerItem createItem(String url, String channelId, double latitude, double longitude) {
+        MagnetScannerItem scannerItem = new MagnetScannerItem(url);
+        scannerItem.setType(SCANNER_TYPE);
+        scannerItem.setChannelId(channelId);
+        scannerItem.setLatitude(latitude);
+        scannerItem.setLongitude(longitude);
+        return scannerItem;
+    }
+}
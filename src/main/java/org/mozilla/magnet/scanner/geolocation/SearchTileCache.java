@@ -0,0 +1,464 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import android.util.Log;
+
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+import org.mozilla.magnet.scanner.io.FileIO;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches search results by tile of a fixed latitude/longitude grid, so
+ * walking around the same block is answered locally instead of downloading
+ * the same beacons again.
+ *
+ * Tiles missing under a query circle are fetched together, as the circle
+ * circumscribing them, and the results are split into the tiles they fall
+ * in. A query whose circle is covered by fresh tiles is answered from the
+ * cache, filtered to the real radius.
+ *
+ * Tiles go stale after the ttl and the least recently used are evicted
+ * past the max tile count. Tiles remember the validators of the response
+ * they came from, so a stale area can be revalidated with a conditional
+ * request instead of downloaded again. Not thread safe.
+ */
+class SearchTileCache {
+    private final static String TAG = "SearchTileCache";
+    private final static int FILE_VERSION = 3;
+    private final static int DEFAULT_MAX_TILES = 64;
+    private final static long DEFAULT_TTL_MS = 10 * 60 * 1000;
+    private final static long MAX_REVALIDATE_AGE_MS = 24 * 60 * 60 * 1000;
+    private final static double EARTH_RADIUS_METERS = 6371008.8;
+    private final static double METERS_PER_DEGREE = EARTH_RADIUS_METERS * Math.PI / 180;
+
+    /**
+     * Side of a tile, about 220 m north to south.
+     */
+    final static double TILE_DEGREES = 0.002;
+
+    private final LinkedHashMap<Long, Tile> mTiles;
+    private final long mTtl;
+    private boolean mModified;
+
+    SearchTileCache() {
+        this(DEFAULT_MAX_TILES, DEFAULT_TTL_MS);
+    }
+
+    SearchTileCache(final int maxTiles, long ttl) {
+        mTtl = ttl;
+        mTiles = new LinkedHashMap<Long, Tile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+                return size() > maxTiles;
+            }
+        };
+    }
+
+    /**
+     * Answers a search from the cache.
+     * @return Items within the radius, or null if a tile under the circle is missing or stale.
+     */
+    HashMap<String, MagnetScannerItem> query(double latitude, double longitude, int radius, long now) {
+        Area area = Area.around(latitude, longitude, radius);
+        HashMap<String, MagnetScannerItem> result = new HashMap<>();
+
+        for (int row = area.mMinRow; row <= area.mMaxRow; row++) {
+            for (int col = area.mMinCol; col <= area.mMaxCol; col++) {
+                Tile tile = mTiles.get(key(row, col));
+                if (tile == null || now - tile.mFetchedAt > mTtl) return null;
+
+                for (MagnetScannerItem item : tile.mItems) {
+                    if (distance(latitude, longitude, item.getLatitude(), item.getLongitude()) <= radius) {
+                        result.put(item.getUrl(), item);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the area to search to fill every missing or stale
+     * tile under the circle, null when it is fully cached.
+     */
+    Area getMissingArea(double latitude, double longitude, int radius, long now) {
+        Area area = Area.around(latitude, longitude, radius);
+        Area missing = null;
+
+        for (int row = area.mMinRow; row <= area.mMaxRow; row++) {
+            for (int col = area.mMinCol; col <= area.mMaxCol; col++) {
+                Tile tile = mTiles.get(key(row, col));
+                if (tile != null && now - tile.mFetchedAt <= mTtl) continue;
+
+                if (missing == null) {
+                    missing = new Area(row, row, col, col);
+                } else {
+                    missing.include(row, col);
+                }
+            }
+        }
+
+        return missing;
+    }
+
+    /**
+     * Stores the results of a search of the given area. Every tile of
+     * the area is replaced, results outside of it are dropped.
+     * @param validators Validators of the response, null if it had none.
+     */
+    void put(Area area, Collection<MagnetScannerItem> items, Validators validators, long now) {
+        HashMap<Long, Tile> tiles = new HashMap<>();
+
+        for (int row = area.mMinRow; row <= area.mMaxRow; row++) {
+            for (int col = area.mMinCol; col <= area.mMaxCol; col++) {
+                tiles.put(key(row, col), new Tile(now, validators));
+            }
+        }
+
+        for (MagnetScannerItem item : items) {
+            if (item.getLatitude() == null || item.getLongitude() == null) continue;
+            Tile tile = tiles.get(key(row(item.getLatitude()), col(item.getLongitude())));
+            if (tile != null) {
+                tile.mItems.add(item);
+            }
+        }
+
+        mTiles.putAll(tiles);
+        mModified = true;
+    }
+
+    /**
+     * Returns the validators to revalidate an area with, null unless
+     * every tile of the area came from the same search of it.
+     */
+    Validators getValidators(Area area, String url) {
+        Validators validators = null;
+
+        for (int row = area.mMinRow; row <= area.mMaxRow; row++) {
+            for (int col = area.mMinCol; col <= area.mMaxCol; col++) {
+                Tile tile = mTiles.get(key(row, col));
+                if (tile == null || tile.mValidators == null) return null;
+                if (!tile.mValidators.mUrl.equals(url)) return null;
+
+                if (validators == null) {
+                    validators = tile.mValidators;
+                } else if (!validators.matches(tile.mValidators)) {
+                    return null;
+                }
+            }
+        }
+
+        return validators;
+    }
+
+    /**
+     * Marks the tiles of an area fresh again after the server answered
+     * a conditional search with not modified.
+     * @return false if a tile is gone or has changed since the search was sent.
+     */
+    boolean revalidate(Area area, Validators validators, long now) {
+        for (int row = area.mMinRow; row <= area.mMaxRow; row++) {
+            for (int col = area.mMinCol; col <= area.mMaxCol; col++) {
+                Tile tile = mTiles.get(key(row, col));
+                if (tile == null || !validators.matches(tile.mValidators)) return false;
+            }
+        }
+
+        for (int row = area.mMinRow; row <= area.mMaxRow; row++) {
+            for (int col = area.mMinCol; col <= area.mMaxCol; col++) {
+                mTiles.get(key(row, col)).mFetchedAt = now;
+            }
+        }
+
+        mModified = true;
+        return true;
+    }
+
+    void clear() {
+        mTiles.clear();
+        mModified = true;
+    }
+
+    int size() {
+        return mTiles.size();
+    }
+
+    /**
+     * Writes the tiles to a file, least recently used first.
+     * Does nothing when nothing changed since the last load or save.
+     */
+    void save(File file) {
+        byte[] data = encode();
+        if (data == null) return;
+
+        try {
+            FileIO.write(file, data);
+        } catch (IOException e) {
+            Log.e(TAG, "save failed: " + e);
+        }
+    }
+
+    /**
+     * Encodes the tiles for `save()`, so the file can be written
+     * on another thread than the one using the cache.
+     * @return The bytes of the file, null when nothing changed since
+     * the last load or encode.
+     */
+    byte[] encode() {
+        if (!mModified) return null;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        try {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mTiles.size());
+
+            for (Map.Entry<Long, Tile> entry : mTiles.entrySet()) {
+                Tile tile = entry.getValue();
+                out.writeLong(entry.getKey());
+                out.writeLong(tile.mFetchedAt);
+                out.writeInt(tile.mItems.size());
+
+                for (MagnetScannerItem item : tile.mItems) {
+                    out.writeUTF(item.getUrl());
+                    out.writeBoolean(item.getChannelId() != null);
+                    if (item.getChannelId() != null) out.writeUTF(item.getChannelId());
+                    out.writeDouble(item.getLatitude());
+                    out.writeDouble(item.getLongitude());
+                }
+
+                Validators validators = tile.mValidators;
+                out.writeBoolean(validators != null);
+                if (validators != null) {
+                    out.writeUTF(validators.mUrl);
+                    out.writeUTF(validators.mETag != null ? validators.mETag : "");
+                    out.writeUTF(validators.mLastModified != null ? validators.mLastModified : "");
+                }
+            }
+        } catch (IOException e) {
+            // a string too long for the format
+            Log.e(TAG, "encode failed: " + e);
+            return null;
+        }
+
+        mModified = false;
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Adds the tiles of a file written by `save()`, skipping stale ones
+     * unless they can still be revalidated. A missing or unreadable file
+     * leaves the cache as it is.
+     */
+    void load(File file, long now) {
+        if (!file.exists()) return;
+        LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<>();
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(FileIO.read(file)));
+            if (in.readInt() != FILE_VERSION) return;
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                long key = in.readLong();
+                long fetchedAt = in.readLong();
+                ArrayList<MagnetScannerItem> tileItems = new ArrayList<>();
+                int items = in.readInt();
+
+                for (int j = 0; j < items; j++) {
+                    String url = in.readUTF();
+                    String channelId = in.readBoolean() ? in.readUTF() : null;
+                    double latitude = in.readDouble();
+                    double longitude = in.readDouble();
+                    tileItems.add(SearchResponseParser.createItem(url, channelId, latitude, longitude));
+                }
+
+                Validators validators = null;
+                if (in.readBoolean()) {
+                    String url = in.readUTF();
+                    String eTag = in.readUTF();
+                    String lastModified = in.readUTF();
+                    validators = new Validators(url, eTag.isEmpty() ? null : eTag, lastModified.isEmpty() ? null : lastModified);
+                }
+
+                long age = now - fetchedAt;
+                if (age <= mTtl || (validators != null && age <= MAX_REVALIDATE_AGE_MS)) {
+                    Tile tile = new Tile(fetchedAt, validators);
+                    tile.mItems.addAll(tileItems);
+                    tiles.put(key, tile);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "load failed: " + e);
+            return;
+        }
+
+        addMissing(tiles);
+    }
+
+    /**
+     * Adds the tiles of a cache loaded on another thread, see `load()`.
+     */
+    void merge(SearchTileCache loaded) {
+        addMissing(loaded.mTiles);
+    }
+
+    private void addMissing(Map<Long, Tile> tiles) {
+        // tiles fetched since the process started are newer
+        for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+            if (!mTiles.containsKey(entry.getKey())) {
+                mTiles.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static long key(int row, int col) {
+        return ((long) row << 32) | (col & 0xffffffffL);
+    }
+
+    private static int row(double latitude) {
+        return (int) Math.floor(latitude / TILE_DEGREES);
+    }
+
+    private static int col(double longitude) {
+        return (int) Math.floor(longitude / TILE_DEGREES);
+    }
+
+    /**
+     * @return The items within the radius of a point.
+     */
+    static HashMap<String, MagnetScannerItem> withinRadius(Map<String, MagnetScannerItem> items, double latitude, double longitude, int radius) {
+        HashMap<String, MagnetScannerItem> result = new HashMap<>();
+
+        for (MagnetScannerItem item : items.values()) {
+            if (item.getLatitude() == null || item.getLongitude() == null) continue;
+            if (distance(latitude, longitude, item.getLatitude(), item.getLongitude()) <= radius) {
+                result.put(item.getUrl(), item);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Great-circle distance in meters (haversine).
+     */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static class Tile {
+        final ArrayList<MagnetScannerItem> mItems = new ArrayList<>();
+        final Validators mValidators;
+        long mFetchedAt;
+
+        Tile(long fetchedAt, Validators validators) {
+            mFetchedAt = fetchedAt;
+            mValidators = validators;
+        }
+    }
+
+    /**
+     * Validators of the search response tiles came from, used
+     * for `If-None-Match` and `If-Modified-Since`.
+     */
+    static class Validators {
+        final String mUrl;
+        final String mETag;
+        final String mLastModified;
+
+        Validators(String url, String eTag, String lastModified) {
+            mUrl = url;
+            mETag = eTag;
+            mLastModified = lastModified;
+        }
+
+        boolean matches(Validators other) {
+            return other != null
+                    && mUrl.equals(other.mUrl)
+                    && same(mETag, other.mETag)
+                    && same(mLastModified, other.mLastModified);
+        }
+
+        private static boolean same(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * A rectangle of tiles, searched as the circle circumscribing it.
+     */
+    static class Area {
+        private int mMinRow;
+        private int mMaxRow;
+        private int mMinCol;
+        private int mMaxCol;
+
+        Area(int minRow, int maxRow, int minCol, int maxCol) {
+            mMinRow = minRow;
+            mMaxRow = maxRow;
+            mMinCol = minCol;
+            mMaxCol = maxCol;
+        }
+
+        /**
+         * Tiles under the bounding box of a circle.
+         */
+        static Area around(double latitude, double longitude, int radius) {
+            double dLat = radius / METERS_PER_DEGREE;
+            double dLon = dLat / Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+            return new Area(row(latitude - dLat), row(latitude + dLat), col(longitude - dLon), col(longitude + dLon));
+        }
+
+        private void include(int row, int col) {
+            mMinRow = Math.min(mMinRow, row);
+            mMaxRow = Math.max(mMaxRow, row);
+            mMinCol = Math.min(mMinCol, col);
+            mMaxCol = Math.max(mMaxCol, col);
+        }
+
+        double getLatitude() {
+            return (mMinRow + mMaxRow + 1) * TILE_DEGREES / 2;
+        }
+
+        double getLongitude() {
+            return (mMinCol + mMaxCol + 1) * TILE_DEGREES / 2;
+        }
+
+        /**
+         * @return Distance from the center to the farthest corner, rounded up.
+         */
+        int getRadius() {
+            double north = (mMaxRow + 1) * TILE_DEGREES;
+            double south = mMinRow * TILE_DEGREES;
+            double west = mMinCol * TILE_DEGREES;
+            double latitude = getLatitude();
+            double longitude = getLongitude();
+
+            // corners are symmetric east to west
+            double farthest = Math.max(distance(latitude, longitude, north, west),
+                    distance(latitude, longitude, south, west));
+            return (int) Math.ceil(farthest);
+        }
+
+        int getTileCount() {
+            return (mMaxRow - mMinRow + 1) * (mMaxCol - mMinCol + 1);
+        }
+    }
+}
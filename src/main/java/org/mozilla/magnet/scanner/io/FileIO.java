@@ -0,0 +1,101 @@
+package org.mozilla.magnet.scanner.io;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reading and writing of the small binary files the scanners persist,
+ * and the background thread that does it for the scanners.
+ *
+ * Files are read whole and written whole: next to their destination
+ * first, then renamed over it, so a reader never sees a half written
+ * file and a write interrupted by the process dying leaves the previous
+ * one in place. Numbers are big-endian, as `DataOutputStream` writes them.
+ */
+public final class FileIO {
+    private final static Executor sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "magnet-io");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private FileIO() {
+    }
+
+    /**
+     * @return Executor running disk work off the main thread, one task at a time in order.
+     */
+    public static Executor getExecutor() {
+        return sExecutor;
+    }
+
+    /**
+     * @throws IOException if the file is missing or unreadable.
+     */
+    public static byte[] read(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) throw new IOException("too large: " + file);
+
+        byte[] data = new byte[(int) length];
+        FileInputStream in = new FileInputStream(file);
+
+        try {
+            new DataInputStream(in).readFully(data);
+        } finally {
+            in.close();
+        }
+
+        return data;
+    }
+
+    /**
+     * Replaces the file with the data, through a temporary file.
+     */
+    public static void write(File file, byte[] data) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("can't rename " + temp);
+        }
+    }
+
+    public static int getInt(byte[] data, int position) {
+        return ((data[position] & 0xff) << 24)
+                | ((data[position + 1] & 0xff) << 16)
+                | ((data[position + 2] & 0xff) << 8)
+                | (data[position + 3] & 0xff);
+    }
+
+    public static long getLong(byte[] data, int position) {
+        return ((long) getInt(data, position) << 32) | (getInt(data, position + 4) & 0xffffffffL);
+    }
+
+    public static void putInt(byte[] data, int position, int value) {
+        data[position] = (byte) (value >>> 24);
+        data[position + 1] = (byte) (value >>> 16);
+        data[position + 2] = (byte) (value >>> 8);
+        data[position + 3] = (byte) value;
+    }
+
+    public static void putLong(byte[] data, int position, long value) {
+        putInt(data, position, (int) (value >>> 32));
+        putInt(data, position + 4, (int) value);
+    }
+}
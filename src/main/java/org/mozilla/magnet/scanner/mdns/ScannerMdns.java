@@ -16,6 +16,9 @@ import org.mozilla.magnet.scanner.MagnetScannerListener;
 /**
  * MagnetScanner that discovers web pages via mDNS protocol.
  *
+ * Items are removed when the service is lost. They can also be made to
+ * expire with {@link #setItemMaxAge(long)}, which is off by default.
+ *
  * @author Francisco Jordano
  */
 public class ScannerMdns extends BaseScanner implements NsdManager.DiscoveryListener {
@@ -48,22 +51,51 @@ public class ScannerMdns extends BaseScanner implements NsdManager.DiscoveryList
         Log.d(TAG, "Service discovery started");
     }
 
+    /**
+     * Called on an nsd thread, the item is added on the scanner's.
+     */
     @Override
     public void onServiceFound(NsdServiceInfo service) {
         Log.d(TAG, "service found: " + service);
-        String url = getUrl(service);
+        final String url = getUrl(service);
         if (url == null) { return; }
-        MagnetScannerItem item = new MagnetScannerItem(url);
-        item.setType(scannerType());
-        addItem(item);
+
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (isStopped()) { return; }
+
+                // services can be announced again, which
+                // pushes back their expiry when enabled
+                MagnetScannerItem existingItem = getItem(url);
+                if (existingItem != null) {
+                    touchItem(existingItem);
+                    return;
+                }
+
+                MagnetScannerItem item = new MagnetScannerItem(url);
+                item.setType(scannerType());
+                addItem(item);
+            }
+        });
     }
 
+    /**
+     * Called on an nsd thread, the item is removed on the scanner's.
+     */
     @Override
     public void onServiceLost(NsdServiceInfo service) {
         Log.e(TAG, "service lost" + service);
-        String url = getUrl(service);
+        final String url = getUrl(service);
         if (url == null) { return; }
-        removeItem(url);
+
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (isStopped()) { return; }
+                removeItem(url);
+            }
+        });
     }
 
     @Override
@@ -0,0 +1,39 @@
+package org.mozilla.magnet.scanner.net;
+
+import java.util.Random;
+
+/**
+ * Retry delays growing exponentially, with jitter so clients that
+ * failed together don't all retry at the same moment.
+ *
+ * The n-th retry waits a random time between half and all of
+ * `min(maxDelay, initialDelay * 2^n)`.
+ */
+public class Backoff {
+    private final long mInitialDelayMs;
+    private final long mMaxDelayMs;
+    private final int mMaxRetries;
+    private final Random mRandom;
+
+    public Backoff(long initialDelayMs, long maxDelayMs, int maxRetries) {
+        this(initialDelayMs, maxDelayMs, maxRetries, new Random());
+    }
+
+    Backoff(long initialDelayMs, long maxDelayMs, int maxRetries, Random random) {
+        mInitialDelayMs = initialDelayMs;
+        mMaxDelayMs = maxDelayMs;
+        mMaxRetries = maxRetries;
+        mRandom = random;
+    }
+
+    /**
+     * @param retry Number of retries made so far.
+     * @return Delay before the next retry, or -1 when out of retries.
+     */
+    public long getDelay(int retry) {
+        if (retry >= mMaxRetries) return -1;
+        long delay = Math.min(mMaxDelayMs, mInitialDelayMs << Math.min(retry, 30));
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+}
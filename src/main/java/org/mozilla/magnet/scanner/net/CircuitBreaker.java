@@ -0,0 +1,88 @@
+package org.mozilla.magnet.scanner.net;
+
+import android.util.Log;
+
+/**
+ * Stops requests to a backend that keeps failing.
+ *
+ * - Closed: requests go through, consecutive failures are counted.
+ * - Open: after `threshold` failures in a row, requests are refused
+ *   for the cool-down.
+ * - Half open: once the cool-down is over a single probe goes through.
+ *   Its success closes the breaker, its failure opens it again.
+ *
+ * Times are milliseconds on a monotonic clock, e.g.
+ * `SystemClock.elapsedRealtime()`. Thread safe.
+ */
+public class CircuitBreaker {
+    private final static String TAG = "CircuitBreaker";
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int mThreshold;
+    private final long mCoolDownMs;
+    private State mState = State.CLOSED;
+    private int mFailures;
+    private long mOpenedAt;
+    private long mProbeAt;
+
+    /**
+     * @param threshold Failures in a row opening the breaker.
+     * @param coolDownMs How long requests are refused once open.
+     */
+    public CircuitBreaker(int threshold, long coolDownMs) {
+        mThreshold = threshold;
+        mCoolDownMs = coolDownMs;
+    }
+
+    /**
+     * Asks to send a request, taking the probe when half open.
+     * @return false if the request shouldn't be sent.
+     */
+    public synchronized boolean allowRequest(long now) {
+        switch (getState(now)) {
+            case CLOSED:
+                return true;
+
+            case HALF_OPEN:
+                // a probe that never reported back, e.g. cancelled, is replaced
+                if (mState == State.HALF_OPEN && now < mProbeAt + mCoolDownMs) return false;
+                Log.d(TAG, "probing");
+                mState = State.HALF_OPEN;
+                mProbeAt = now;
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (mState != State.CLOSED) Log.d(TAG, "closed");
+        mState = State.CLOSED;
+        mFailures = 0;
+    }
+
+    public synchronized void onFailure(long now) {
+        mFailures++;
+        if (mState == State.CLOSED && mFailures < mThreshold) return;
+        Log.d(TAG, "opened after " + mFailures + " failures");
+        mState = State.OPEN;
+        mOpenedAt = now;
+    }
+
+    /**
+     * @return The state, half open as soon as the cool-down is over.
+     */
+    public synchronized State getState(long now) {
+        if (mState == State.OPEN && now >= mOpenedAt + mCoolDownMs) return State.HALF_OPEN;
+        return mState;
+    }
+
+    /**
+     * @return true while requests are refused without a probe.
+     */
+    public boolean isOpen(long now) {
+        return getState(now) == State.OPEN;
+    }
+}
@@ -0,0 +1,70 @@
+package org.mozilla.magnet.scanner.net;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.android.volley.toolbox.HurlStack;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.BasicHttpEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HurlStack asking for gzipped responses and decompressing them.
+ *
+ * Android's HttpURLConnection only decompresses transparently when it
+ * adds `Accept-Encoding` itself, which plain Java doesn't do at all, so
+ * the header and the decompression are both handled here.
+ */
+class GzipHurlStack extends HurlStack {
+    private final static String ACCEPT_ENCODING = "Accept-Encoding";
+    private final static String CONTENT_ENCODING = "Content-Encoding";
+    private final static String GZIP = "gzip";
+
+    @Override
+    public HttpResponse performRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        Map<String, String> headers = new HashMap<>(additionalHeaders);
+        headers.put(ACCEPT_ENCODING, GZIP);
+
+        HttpResponse response = super.performRequest(request, headers);
+        Header encoding = response.getFirstHeader(CONTENT_ENCODING);
+        HttpEntity entity = response.getEntity();
+
+        if (entity != null && encoding != null && GZIP.equalsIgnoreCase(encoding.getValue())) {
+            response.setEntity(decompress(entity));
+            response.removeHeaders(CONTENT_ENCODING);
+            response.removeHeaders("Content-Length");
+        }
+
+        return response;
+    }
+
+    private static HttpEntity decompress(HttpEntity entity) throws IOException {
+        BasicHttpEntity result = new BasicHttpEntity();
+        result.setContent(gunzip(entity.getContent()));
+        result.setContentLength(-1);
+        result.setContentType(entity.getContentType());
+        return result;
+    }
+
+    /**
+     * Bodyless responses, like `304 Not Modified`, can still be
+     * labelled gzip and are passed through as they are.
+     */
+    private static InputStream gunzip(InputStream in) throws IOException {
+        if (in == null) return null;
+        PushbackInputStream pushback = new PushbackInputStream(in);
+        int first = pushback.read();
+        if (first == -1) return pushback;
+        pushback.unread(first);
+        return new GZIPInputStream(pushback);
+    }
+}
@@ -0,0 +1,24 @@
+package org.mozilla.magnet.scanner.net;
+
+import com.android.volley.Request;
+
+/**
+ * Sends the HTTP requests of the scanners.
+ *
+ * Requests carry their own priority, and a tag when they need
+ * to be cancelled together. Responses and errors are delivered
+ * to the request's listeners.
+ */
+public interface HttpTransport {
+
+    /**
+     * Queues a request.
+     * @return The request.
+     */
+    <T> Request<T> send(Request<T> request);
+
+    /**
+     * Cancels every queued or running request with the tag.
+     */
+    void cancelAll(Object tag);
+}
@@ -0,0 +1,80 @@
+package org.mozilla.magnet.scanner.net;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.ResponseDelivery;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.NoCache;
+
+import java.util.EnumMap;
+
+/**
+ * {@link HttpTransport} over one Volley queue shared by the process.
+ *
+ * - Connections are kept alive and reused between requests to a host.
+ * - Responses are requested gzipped and decompressed as they are read.
+ * - Each request gets the timeout of its priority: a scan waited on by
+ *   the user gives up sooner than a background download.
+ *
+ * Volley's response cache is not used, the scanners cache what they need.
+ */
+public class VolleyTransport implements HttpTransport {
+    private final static String TAG = "VolleyTransport";
+    private final static int THREAD_POOL_SIZE = 2;
+    private static VolleyTransport sInstance;
+    private final RequestQueue mQueue;
+    private final EnumMap<Request.Priority, Integer> mTimeouts = new EnumMap<>(Request.Priority.class);
+
+    /**
+     * @return The transport shared by the process, delivering on the main thread.
+     */
+    public static synchronized VolleyTransport getInstance() {
+        if (sInstance == null) {
+            sInstance = new VolleyTransport(THREAD_POOL_SIZE, new ExecutorDelivery(new Handler(Looper.getMainLooper())));
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * @param threadPoolSize Number of requests run at once.
+     * @param delivery Where responses are delivered.
+     */
+    public VolleyTransport(int threadPoolSize, ResponseDelivery delivery) {
+        mTimeouts.put(Request.Priority.IMMEDIATE, 5000);
+        mTimeouts.put(Request.Priority.HIGH, 5000);
+        mTimeouts.put(Request.Priority.NORMAL, 10000);
+        mTimeouts.put(Request.Priority.LOW, 20000);
+
+        mQueue = new RequestQueue(new NoCache(), new BasicNetwork(new GzipHurlStack()), threadPoolSize, delivery);
+        mQueue.start();
+    }
+
+    /**
+     * Sets the connect and read timeout of requests with a priority.
+     * @return VolleyTransport
+     */
+    public VolleyTransport setTimeout(Request.Priority priority, int timeoutMs) {
+        mTimeouts.put(priority, timeoutMs);
+        return this;
+    }
+
+    @Override
+    public <T> Request<T> send(Request<T> request) {
+        int timeout = mTimeouts.get(request.getPriority());
+        request.setRetryPolicy(new DefaultRetryPolicy(timeout, 0, 1f));
+        Log.d(TAG, "send: " + request.getUrl() + ", timeout: " + timeout);
+        return mQueue.add(request);
+    }
+
+    @Override
+    public void cancelAll(Object tag) {
+        mQueue.cancelAll(tag);
+    }
+}
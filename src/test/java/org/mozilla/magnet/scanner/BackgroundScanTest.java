@@ -0,0 +1,47 @@
+package org.mozilla.magnet.scanner;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowConnectivityManager;
+import org.robolectric.shadows.ShadowNetworkInfo;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class BackgroundScanTest extends TestCase {
+    private Context mContext;
+    private ShadowConnectivityManager mConnectivity;
+
+    @Before
+    public void setup() {
+        mContext = RuntimeEnvironment.application;
+        mConnectivity = Shadows.shadowOf((ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE));
+    }
+
+    @Test
+    public void skipsGeolocationWithoutNetwork() {
+        mConnectivity.setActiveNetworkInfo(null);
+        assertFalse(BackgroundScan.shouldUseGeolocation(mContext));
+
+        mConnectivity.setActiveNetworkInfo(ShadowNetworkInfo.newInstance(NetworkInfo.DetailedState.CONNECTING,
+                ConnectivityManager.TYPE_WIFI, 0, true, false));
+        assertFalse(BackgroundScan.shouldUseGeolocation(mContext));
+    }
+
+    @Test
+    public void usesGeolocationWhenConnected() {
+        mConnectivity.setActiveNetworkInfo(ShadowNetworkInfo.newInstance(NetworkInfo.DetailedState.CONNECTED,
+                ConnectivityManager.TYPE_WIFI, 0, true, true));
+        assertTrue(BackgroundScan.shouldUseGeolocation(mContext));
+    }
+}
@@ -0,0 +1,102 @@
+package org.mozilla.magnet.scanner;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class BatchingScannerListenerTest extends TestCase {
+    private final List<Batch> mBatches = new ArrayList<>();
+    private BatchingScannerListener mListener;
+
+    @Before
+    public void setup() {
+        MagnetScannerBatchListener batchListener = new MagnetScannerBatchListener() {
+            @Override
+            public void onItemsChanged(List<MagnetScannerItem> added,
+                                       List<MagnetScannerItem> updated,
+                                       List<MagnetScannerItem> removed) {
+                mBatches.add(new Batch(added, updated, removed));
+            }
+        };
+
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+
+        mListener = new BatchingScannerListener(batchListener, 100, direct);
+    }
+
+    @Test
+    public void deliversOneBatchPerWindow() {
+        MagnetScannerItem a = new MagnetScannerItem("https://a.com");
+        MagnetScannerItem b = new MagnetScannerItem("https://b.com");
+
+        mListener.onItemFound(a);
+        mListener.onItemFound(b);
+        mListener.onItemUpdated(a);
+        assertEquals(0, mBatches.size());
+
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+        assertEquals(1, mBatches.size());
+        assertEquals(2, mBatches.get(0).mAdded.size());
+        assertEquals(0, mBatches.get(0).mUpdated.size());
+        assertEquals(0, mBatches.get(0).mRemoved.size());
+    }
+
+    @Test
+    public void collapsesFoundThenLost() {
+        MagnetScannerItem a = new MagnetScannerItem("https://a.com");
+        MagnetScannerItem b = new MagnetScannerItem("https://b.com");
+
+        mListener.onItemFound(a);
+        mListener.onItemLost(a);
+        mListener.onItemLost(b);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, mBatches.size());
+        assertEquals(0, mBatches.get(0).mAdded.size());
+        assertEquals(1, mBatches.get(0).mRemoved.size());
+        assertSame(b, mBatches.get(0).mRemoved.get(0));
+    }
+
+    @Test
+    public void lostThenFoundIsAnUpdate() {
+        MagnetScannerItem a = new MagnetScannerItem("https://a.com");
+        MagnetScannerItem a2 = new MagnetScannerItem("https://a.com");
+
+        mListener.onItemLost(a);
+        mListener.onItemFound(a2);
+        mListener.flush();
+
+        assertEquals(1, mBatches.size());
+        assertEquals(1, mBatches.get(0).mUpdated.size());
+        assertSame(a2, mBatches.get(0).mUpdated.get(0));
+    }
+
+    private static class Batch {
+        final List<MagnetScannerItem> mAdded;
+        final List<MagnetScannerItem> mUpdated;
+        final List<MagnetScannerItem> mRemoved;
+
+        Batch(List<MagnetScannerItem> added, List<MagnetScannerItem> updated, List<MagnetScannerItem> removed) {
+            mAdded = added;
+            mUpdated = updated;
+            mRemoved = removed;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.mozilla.magnet.scanner;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class DistanceHeapTest extends TestCase {
+    private DistanceHeap mHeap;
+
+    @Before
+    public void setup() {
+        mHeap = new DistanceHeap();
+    }
+
+    @Test
+    public void ranksNearestFirst() {
+        MagnetScannerItem far = item("https://far", 30);
+        MagnetScannerItem unknown = item("https://unknown", -1);
+        MagnetScannerItem near = item("https://near", 2);
+        MagnetScannerItem mid = item("https://mid", 10);
+
+        mHeap.add(far);
+        mHeap.add(unknown);
+        mHeap.add(near);
+        mHeap.add(mid);
+
+        assertEquals(list(near, mid), mHeap.nearest(2));
+        assertEquals(list(near, mid, far, unknown), mHeap.nearest(10));
+        assertTrue(mHeap.nearest(0).isEmpty());
+    }
+
+    @Test
+    public void reranksUpdatedItems() {
+        MagnetScannerItem a = item("https://a", 1);
+        MagnetScannerItem b = item("https://b", 5);
+        mHeap.add(a);
+        mHeap.add(b);
+
+        a.setDistance(8);
+        mHeap.update(a);
+        assertEquals(list(b, a), mHeap.nearest(2));
+
+        mHeap.remove(b);
+        assertEquals(list(a), mHeap.nearest(2));
+        assertEquals(-1, b.mHeapIndex);
+
+        mHeap.clear();
+        assertEquals(0, mHeap.size());
+        assertEquals(-1, a.mHeapIndex);
+    }
+
+    @Test
+    public void matchesFullSort() {
+        Random random = new Random(42);
+        List<MagnetScannerItem> items = new ArrayList<>();
+
+        for (int i = 0; i < 2000; i++) {
+            int op = items.isEmpty() ? 0 : random.nextInt(3);
+
+            if (op == 0) {
+                MagnetScannerItem item = item("https://" + i, random.nextInt(10) == 0 ? -1 : random.nextDouble() * 100);
+                items.add(item);
+                mHeap.add(item);
+            } else if (op == 1) {
+                MagnetScannerItem item = items.get(random.nextInt(items.size()));
+                item.setDistance(random.nextDouble() * 100);
+                mHeap.update(item);
+            } else {
+                mHeap.remove(items.remove(random.nextInt(items.size())));
+            }
+
+            int k = random.nextInt(10);
+            assertEquals(distances(sorted(items, k)), distances(mHeap.nearest(k)));
+        }
+
+        assertEquals(items.size(), mHeap.size());
+
+        // every item, so the candidates span the whole heap
+        assertEquals(distances(sorted(items, items.size())), distances(mHeap.nearest(items.size())));
+    }
+
+    private static List<MagnetScannerItem> sorted(List<MagnetScannerItem> items, int k) {
+        List<MagnetScannerItem> result = new ArrayList<>(items);
+        Collections.sort(result, new Comparator<MagnetScannerItem>() {
+            @Override
+            public int compare(MagnetScannerItem a, MagnetScannerItem b) {
+                return Double.compare(rank(a), rank(b));
+            }
+        });
+        return result.subList(0, Math.min(k, result.size()));
+    }
+
+    private static double rank(MagnetScannerItem item) {
+        return item.getDistance() < 0 ? Double.POSITIVE_INFINITY : item.getDistance();
+    }
+
+    // ties may come out in any order, their distances can't
+    private static List<Double> distances(List<MagnetScannerItem> items) {
+        List<Double> result = new ArrayList<>();
+        for (MagnetScannerItem item : items) result.add(item.getDistance());
+        return result;
+    }
+
+    private static List<MagnetScannerItem> list(MagnetScannerItem... items) {
+        List<MagnetScannerItem> result = new ArrayList<>();
+        Collections.addAll(result, items);
+        return result;
+    }
+
+    private static MagnetScannerItem item(String url, double distance) {
+        return new MagnetScannerItem(url).setDistance(distance);
+    }
+}
@@ -0,0 +1,66 @@
+package org.mozilla.magnet.scanner;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ExpiryListTest extends TestCase {
+
+    @Test
+    public void pollsInDeadlineOrder() {
+        ExpiryList list = new ExpiryList();
+        MagnetScannerItem a = new MagnetScannerItem("https://a.com");
+        MagnetScannerItem b = new MagnetScannerItem("https://b.com");
+        MagnetScannerItem c = new MagnetScannerItem("https://c.com");
+
+        list.touch(a, 100);
+        list.touch(b, 200);
+        list.touch(c, 300);
+
+        assertNull(list.poll(99));
+        assertSame(a, list.poll(250));
+        assertSame(b, list.poll(250));
+        assertNull(list.poll(250));
+        assertSame(c, list.peek());
+    }
+
+    @Test
+    public void touchMovesItemToTail() {
+        ExpiryList list = new ExpiryList();
+        MagnetScannerItem a = new MagnetScannerItem("https://a.com");
+        MagnetScannerItem b = new MagnetScannerItem("https://b.com");
+
+        list.touch(a, 100);
+        list.touch(b, 200);
+        list.touch(a, 300);
+
+        assertSame(b, list.poll(1000));
+        assertSame(a, list.poll(1000));
+        assertTrue(list.isEmpty());
+    }
+
+    @Test
+    public void removeUnlinksAnywhere() {
+        ExpiryList list = new ExpiryList();
+        MagnetScannerItem a = new MagnetScannerItem("https://a.com");
+        MagnetScannerItem b = new MagnetScannerItem("https://b.com");
+        MagnetScannerItem c = new MagnetScannerItem("https://c.com");
+
+        list.touch(a, 100);
+        list.touch(b, 200);
+        list.touch(c, 300);
+        list.remove(b);
+        list.remove(b);
+
+        assertSame(a, list.poll(1000));
+        assertSame(c, list.poll(1000));
+        assertNull(list.poll(1000));
+
+        list.touch(b, 400);
+        list.clear();
+        assertTrue(list.isEmpty());
+    }
+}
@@ -0,0 +1,172 @@
+package org.mozilla.magnet.scanner;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class ItemRegistryTest extends TestCase {
+    private final List<MagnetScannerItem> mFound = new ArrayList<>();
+    private final List<MagnetScannerItem> mUpdated = new ArrayList<>();
+    private final List<MagnetScannerItem> mLost = new ArrayList<>();
+    private MagnetScannerListener mBle;
+    private MagnetScannerListener mGeolocation;
+    private ItemRegistry mRegistry;
+
+    @Before
+    public void setup() {
+        setup(null);
+    }
+
+    private void setup(Handler handler) {
+        mRegistry = new ItemRegistry(new MagnetScannerListener() {
+            @Override
+            public void onItemFound(MagnetScannerItem item) {
+                mFound.add(item);
+            }
+
+            @Override
+            public void onItemLost(MagnetScannerItem item) {
+                mLost.add(item);
+            }
+
+            @Override
+            public void onItemUpdated(MagnetScannerItem item) {
+                mUpdated.add(item);
+            }
+        }, 2, handler);
+
+        mBle = mRegistry.listenerFor(0);
+        mGeolocation = mRegistry.listenerFor(1);
+    }
+
+    @Test
+    public void reportsUrlOnceAcrossSources() {
+        mBle.onItemFound(new MagnetScannerItem("https://a.com").setType("ble").setDistance(3));
+        mGeolocation.onItemFound(new MagnetScannerItem("https://a.com").setType("geolocation")
+                .setLatitude(51.5).setLongitude(-0.1).setChannelId("channel"));
+
+        assertEquals(1, mFound.size());
+        assertEquals(1, mUpdated.size());
+
+        MagnetScannerItem item = mFound.get(0);
+        assertEquals(3.0, item.getDistance());
+        assertEquals("ble", item.getType());
+        assertEquals(51.5, item.getLatitude());
+        assertEquals("channel", item.getChannelId());
+    }
+
+    @Test
+    public void lostWhenLastSourceDrops() {
+        MagnetScannerItem ble = new MagnetScannerItem("https://a.com").setType("ble").setDistance(3);
+        MagnetScannerItem geolocation = new MagnetScannerItem("https://a.com").setType("geolocation");
+
+        mBle.onItemFound(ble);
+        mGeolocation.onItemFound(geolocation);
+        mBle.onItemLost(ble);
+
+        assertEquals(0, mLost.size());
+        assertEquals(-1.0, mFound.get(0).getDistance());
+        assertEquals("geolocation", mFound.get(0).getType());
+
+        mGeolocation.onItemLost(geolocation);
+        assertEquals(1, mLost.size());
+        assertSame(mFound.get(0), mLost.get(0));
+    }
+
+    @Test
+    public void updatesOnlyWhenMergedItemChanges() {
+        mBle.onItemFound(new MagnetScannerItem("https://a.com").setType("ble").setDistance(3));
+        mBle.onItemUpdated(new MagnetScannerItem("https://a.com").setType("ble").setDistance(3));
+        assertEquals(0, mUpdated.size());
+
+        mBle.onItemUpdated(new MagnetScannerItem("https://a.com").setType("ble").setDistance(1));
+        assertEquals(1, mUpdated.size());
+        assertEquals(1.0, mUpdated.get(0).getDistance());
+    }
+
+    @Test
+    public void ranksMergedItems() {
+        MagnetScannerItem geolocation = new MagnetScannerItem("https://a.com").setType("geolocation").setDistance(40);
+        mGeolocation.onItemFound(geolocation);
+        mGeolocation.onItemFound(new MagnetScannerItem("https://b.com").setType("geolocation").setDistance(20));
+        mBle.onItemFound(new MagnetScannerItem("https://c.com").setType("ble"));
+        assertEquals(urls("https://b.com", "https://a.com"), urls(mRegistry.getNearest(2)));
+
+        // the beacon of a.com is in range, nearer than the geolocation
+        mBle.onItemFound(new MagnetScannerItem("https://a.com").setType("ble").setDistance(3));
+        assertEquals(urls("https://a.com", "https://b.com", "https://c.com"), urls(mRegistry.getNearest(5)));
+
+        mGeolocation.onItemLost(geolocation);
+        mBle.onItemLost(new MagnetScannerItem("https://a.com"));
+        assertEquals(urls("https://b.com", "https://c.com"), urls(mRegistry.getNearest(5)));
+    }
+
+    @Test
+    public void deliversOnHostLooper() throws Exception {
+        setup(new Handler(Looper.getMainLooper()));
+        ShadowLooper.pauseMainLooper();
+        final MagnetScannerItem beacon = new MagnetScannerItem("https://a.com").setType("ble").setDistance(3);
+
+        Thread scanner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mBle.onItemFound(beacon);
+                // the scanner goes on tracking its beacon
+                beacon.setDistance(8);
+            }
+        });
+        scanner.start();
+        scanner.join();
+        assertTrue(mFound.isEmpty());
+
+        ShadowLooper.unPauseMainLooper();
+        assertEquals(1, mFound.size());
+        assertEquals(3.0, mFound.get(0).getDistance());
+        assertEquals(1, mRegistry.getItems().size());
+    }
+
+    @Test
+    public void dropsEventsQueuedBeforeClear() throws Exception {
+        setup(new Handler(Looper.getMainLooper()));
+        ShadowLooper.pauseMainLooper();
+
+        Thread scanner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mBle.onItemFound(new MagnetScannerItem("https://a.com").setType("ble"));
+            }
+        });
+        scanner.start();
+        scanner.join();
+
+        mRegistry.clear();
+        ShadowLooper.unPauseMainLooper();
+        assertTrue(mFound.isEmpty());
+        assertTrue(mRegistry.getItems().isEmpty());
+    }
+
+    private static List<String> urls(String... urls) {
+        List<String> result = new ArrayList<>();
+        for (String url : urls) result.add(url);
+        return result;
+    }
+
+    private static List<String> urls(List<MagnetScannerItem> items) {
+        List<String> result = new ArrayList<>();
+        for (MagnetScannerItem item : items) result.add(item.getUrl());
+        return result;
+    }
+}
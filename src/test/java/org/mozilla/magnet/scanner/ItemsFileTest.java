@@ -0,0 +1,127 @@
+package org.mozilla.magnet.scanner;
+
+import android.content.Intent;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class ItemsFileTest extends TestCase {
+    private File mFile;
+
+    @Before
+    public void setup() throws IOException {
+        mFile = File.createTempFile("items", null);
+    }
+
+    @After
+    public void teardown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void roundTripsItems() throws IOException {
+        MagnetScannerItem ble = new MagnetScannerItem("https://www.mozilla.org/").setType("ble").setDistance(2.5);
+        MagnetScannerItem geolocation = new MagnetScannerItem("https://tengam.org/\u00e9t\u00e9")
+                .setType("geolocation")
+                .setChannelId("channel-1")
+                .setLatitude(51.5074)
+                .setLongitude(-0.1278);
+        MagnetScannerItem bare = new MagnetScannerItem("https://bare");
+
+        ItemsFile.write(mFile, 7, Arrays.asList(ble, geolocation, bare));
+        ItemsFile items = ItemsFile.open(mFile);
+
+        assertEquals(7, items.getVersion());
+        assertEquals(3, items.size());
+        assertEquals(ble.serialize(), items.get(0).serialize());
+        assertEquals(geolocation.serialize(), items.get(1).serialize());
+        assertEquals(bare.serialize(), items.get(2).serialize());
+        assertNull(items.get(2).getType());
+        assertNull(items.get(2).getLatitude());
+    }
+
+    @Test
+    public void decodesAnyItemDirectly() throws IOException {
+        List<MagnetScannerItem> list = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            list.add(new MagnetScannerItem("https://goo.gl/" + i).setType("ble").setDistance(i));
+        }
+
+        ItemsFile.write(mFile, 1, list);
+        ItemsFile items = ItemsFile.open(mFile);
+
+        assertEquals("https://goo.gl/999", items.get(999).getUrl());
+        assertEquals(500.0, items.get(500).getDistance());
+
+        try {
+            items.get(1000);
+            fail("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void readsBroadcast() throws IOException {
+        ItemsFile.write(mFile, 42, Arrays.asList(new MagnetScannerItem("https://a")));
+
+        Intent intent = new Intent("org.mozilla.magnet.scanner.ITEMS_FOUND");
+        intent.putExtra(ItemsFile.EXTRA_PATH, mFile.getPath());
+        intent.putExtra(ItemsFile.EXTRA_VERSION, 42L);
+
+        ItemsFile items = ItemsFile.fromIntent(intent);
+        assertEquals(intent.getLongExtra(ItemsFile.EXTRA_VERSION, 0), items.getVersion());
+        assertEquals("https://a", items.get(0).getUrl());
+    }
+
+    @Test
+    public void rejectsItemsOfAnotherScan() throws IOException {
+        Intent intent = new Intent("org.mozilla.magnet.scanner.ITEMS_FOUND");
+        intent.putExtra(ItemsFile.EXTRA_PATH, mFile.getPath());
+        intent.putExtra(ItemsFile.EXTRA_VERSION, 42L);
+
+        // a newer scan wrote over the file before the broadcast was read
+        ItemsFile.write(mFile, 43, Arrays.asList(new MagnetScannerItem("https://b")));
+
+        try {
+            ItemsFile.fromIntent(intent);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // other version
+        }
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        byte[] data = ItemsFile.encode(1, Arrays.asList(new MagnetScannerItem("https://a")));
+
+        try {
+            new ItemsFile(Arrays.copyOf(data, 10));
+            fail("expected IOException");
+        } catch (IOException e) {
+            // truncated header
+        }
+
+        data[0] = 0;
+        try {
+            new ItemsFile(data);
+            fail("expected IOException");
+        } catch (IOException e) {
+            // wrong magic
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.mozilla.magnet.scanner;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class JobScanSchedulerTest extends TestCase {
+    private static final long MINUTE = 60000;
+    private JobScheduler mJobScheduler;
+    private JobScanScheduler mScheduler;
+
+    @Before
+    public void setup() {
+        Context context = RuntimeEnvironment.application;
+        mJobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        mScheduler = new JobScanScheduler(context);
+        mScheduler.reset();
+    }
+
+    @Test
+    public void schedulesScanJob() {
+        assertTrue(mScheduler.schedule());
+
+        JobInfo job = getPendingJob();
+        assertEquals(JobScanScheduler.JOB_ID, job.getId());
+        assertEquals(ScanJobService.class.getName(), job.getService().getClassName());
+        assertEquals(5 * MINUTE, job.getMinLatencyMillis());
+
+        // a window the system can batch the scan into
+        assertEquals(7.5 * MINUTE, (double) job.getMaxExecutionDelayMillis());
+        assertFalse(job.isPeriodic());
+    }
+
+    @Test
+    public void backsOffAfterEmptyScans() {
+        mScheduler.onScanComplete(0);
+        assertEquals(10 * MINUTE, getPendingJob().getMinLatencyMillis());
+
+        mScheduler.onScanComplete(0);
+        assertEquals(20 * MINUTE, getPendingJob().getMinLatencyMillis());
+
+        for (int i = 0; i < 20; i++) {
+            mScheduler.onScanComplete(0);
+        }
+        assertEquals(JobScanScheduler.MAX_INTERVAL_MS, getPendingJob().getMinLatencyMillis());
+
+        // back to the shortest interval as soon as something is found
+        mScheduler.onScanComplete(3);
+        assertEquals(5 * MINUTE, getPendingJob().getMinLatencyMillis());
+    }
+
+    @Test
+    public void persistsBackoff() {
+        mScheduler.onScanComplete(0);
+        assertEquals(10 * MINUTE, new JobScanScheduler(RuntimeEnvironment.application).getInterval());
+
+        mScheduler.reset();
+        assertEquals(5 * MINUTE, mScheduler.getInterval());
+    }
+
+    @Test
+    public void cancelsScanJob() {
+        // the shadow job scheduler doesn't implement cancel
+        final JobScheduler jobScheduler = mock(JobScheduler.class);
+        Context context = new ContextWrapper(RuntimeEnvironment.application) {
+            @Override
+            public Object getSystemService(String name) {
+                return JOB_SCHEDULER_SERVICE.equals(name) ? jobScheduler : super.getSystemService(name);
+            }
+        };
+
+        new JobScanScheduler(context).cancel();
+        verify(jobScheduler).cancel(JobScanScheduler.JOB_ID);
+    }
+
+    @Test
+    public void reportsRefusedJob() {
+        Shadows.shadowOf(mJobScheduler).failOnJob(JobScanScheduler.JOB_ID);
+        assertFalse(mScheduler.schedule());
+    }
+
+    private JobInfo getPendingJob() {
+        List<JobInfo> jobs = mJobScheduler.getAllPendingJobs();
+        assertEquals(1, jobs.size());
+        return jobs.get(0);
+    }
+}
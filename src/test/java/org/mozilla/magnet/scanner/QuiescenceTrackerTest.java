@@ -0,0 +1,73 @@
+package org.mozilla.magnet.scanner;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class QuiescenceTrackerTest extends TestCase {
+    private static final long START = 100000;
+    private ScanHistory mHistory;
+
+    @Before
+    public void setup() {
+        mHistory = new ScanHistory(RuntimeEnvironment.application);
+        mHistory.clear();
+
+        // ble finds its first beacon within 2 s, and the rest within 2 s more
+        mHistory.add("ble", 2000, 4000);
+
+        // geolocation answers in one go, after about 3 s
+        mHistory.add("geolocation", 3000, 3000);
+    }
+
+    @Test
+    public void waitsForFirstItems() {
+        QuiescenceTracker tracker = tracker();
+        assertEquals(START + 4500, tracker.getQuietAt());
+    }
+
+    @Test
+    public void stopsOnceEveryScannerIsQuiet() {
+        QuiescenceTracker tracker = tracker();
+
+        tracker.onItemFound("geolocation", START + 2500);
+        tracker.onItemFound("ble", START + 1000);
+        assertEquals(START + 1000 + 3000, tracker.getQuietAt());
+
+        // a late beacon keeps the scan going
+        tracker.onItemFound("ble", START + 3000);
+        assertEquals(START + 3000 + 3000, tracker.getQuietAt());
+    }
+
+    @Test
+    public void learnsFromScan() {
+        QuiescenceTracker tracker = tracker();
+        tracker.onItemFound("ble", START + 500);
+        tracker.onItemFound("ble", START + 9000);
+        tracker.save(START + 12000);
+
+        assertEquals(12750, mHistory.getSettleTime("ble"));
+        // geolocation ran the 12 s without an item
+        assertEquals(ScanHistory.DEFAULT_FIRST_ITEM_WAIT_MS, mHistory.getFirstItemWait("geolocation"));
+    }
+
+    @Test
+    public void ignoresUnknownScanners() {
+        QuiescenceTracker tracker = new QuiescenceTracker(mHistory, Arrays.asList("ble"), START);
+        tracker.onItemFound("mdns", START + 20000);
+        assertEquals(START + 3000, tracker.getQuietAt());
+    }
+
+    private QuiescenceTracker tracker() {
+        return new QuiescenceTracker(mHistory, Arrays.asList("ble", "geolocation"), START);
+    }
+}
@@ -0,0 +1,65 @@
+package org.mozilla.magnet.scanner;
+
+import android.content.ComponentCallbacks2;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class ScanEngineTest extends TestCase {
+    private ScanEngine mEngine;
+
+    @Before
+    public void setup() {
+        mEngine = new ScanEngine(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void keepsScannersBetweenScans() {
+        assertFalse(mEngine.isWarm());
+
+        MagnetScanner first = mEngine.acquire(false);
+        mEngine.release(first);
+        assertTrue(mEngine.isWarm());
+
+        MagnetScanner second = mEngine.acquire(false);
+        assertNotSame(first, second);
+        assertEquals(first.getScannerTypes(), second.getScannerTypes());
+        mEngine.release(second);
+        assertTrue(mEngine.isWarm());
+    }
+
+    @Test
+    public void trimsUnderMemoryPressure() {
+        mEngine.release(mEngine.acquire(false));
+
+        // cached between wakeups as usual
+        mEngine.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        mEngine.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertTrue(mEngine.isWarm());
+
+        mEngine.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+        assertFalse(mEngine.isWarm());
+
+        mEngine.release(mEngine.acquire(false));
+        mEngine.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertFalse(mEngine.isWarm());
+    }
+
+    @Test
+    public void trimsOnceScanEnds() {
+        MagnetScanner scanner = mEngine.acquire(false);
+        mEngine.onLowMemory();
+        assertTrue(mEngine.isWarm());
+
+        mEngine.release(scanner);
+        assertFalse(mEngine.isWarm());
+    }
+}
@@ -0,0 +1,92 @@
+package org.mozilla.magnet.scanner;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class ScanHistoryTest extends TestCase {
+    private ScanHistory mHistory;
+
+    @Before
+    public void setup() {
+        mHistory = new ScanHistory(RuntimeEnvironment.application);
+        mHistory.clear();
+    }
+
+    @Test
+    public void defaultsWithoutHistory() {
+        assertEquals(ScanHistory.DEFAULT_FIRST_ITEM_WAIT_MS, mHistory.getFirstItemWait("ble"));
+        assertEquals(ScanHistory.DEFAULT_SETTLE_MS, mHistory.getSettleTime("ble"));
+
+        // scans that found nothing don't teach anything
+        mHistory.add("ble", -1, -1);
+        assertEquals(ScanHistory.DEFAULT_FIRST_ITEM_WAIT_MS, mHistory.getFirstItemWait("ble"));
+    }
+
+    @Test
+    public void learnsFromSlowestScan() {
+        mHistory.add("ble", 800, 2000);
+        mHistory.add("ble", 1600, 3000);
+        mHistory.add("ble", -1, -1);
+
+        assertEquals(2400, mHistory.getFirstItemWait("ble"));
+        assertEquals(2100, mHistory.getSettleTime("ble"));
+        assertEquals(ScanHistory.DEFAULT_SETTLE_MS, mHistory.getSettleTime("mdns"));
+    }
+
+    @Test
+    public void clampsTimes() {
+        mHistory.add("geolocation", 100, 100);
+        assertEquals(ScanHistory.MIN_FIRST_ITEM_WAIT_MS, mHistory.getFirstItemWait("geolocation"));
+        assertEquals(ScanHistory.MIN_SETTLE_MS, mHistory.getSettleTime("geolocation"));
+
+        mHistory.add("mdns", 1000, 60000);
+        assertEquals(ScanHistory.MAX_SETTLE_MS, mHistory.getSettleTime("mdns"));
+    }
+
+    @Test
+    public void growsWaitAfterCutOffScans() {
+        // a quick first item, then scans cut off at the wait it gave
+        mHistory.add("geolocation", 1000, 1000);
+        assertEquals(2000, mHistory.getFirstItemWait("geolocation"));
+
+        mHistory.add("geolocation", -1, 2000);
+        assertEquals(3000, mHistory.getFirstItemWait("geolocation"));
+
+        mHistory.add("geolocation", -1, 3000);
+        assertEquals(4500, mHistory.getFirstItemWait("geolocation"));
+
+        // up to the default, never past it on cut-off scans alone
+        mHistory.add("geolocation", -1, 30000);
+        assertEquals(ScanHistory.DEFAULT_FIRST_ITEM_WAIT_MS, mHistory.getFirstItemWait("geolocation"));
+
+        // slower first items still count in full
+        mHistory.add("geolocation", 8000, 8000);
+        assertEquals(12000, mHistory.getFirstItemWait("geolocation"));
+    }
+
+    @Test
+    public void keepsRecentScans() {
+        mHistory.add("ble", 20000, 20000);
+        for (int i = 0; i < 10; i++) {
+            mHistory.add("ble", 2000, 2000);
+        }
+
+        // the slow scan has been forgotten
+        assertEquals(3000, mHistory.getFirstItemWait("ble"));
+    }
+
+    @Test
+    public void persists() {
+        mHistory.add("ble", 1000, 3000);
+        ScanHistory reloaded = new ScanHistory(RuntimeEnvironment.application);
+        assertEquals(3000, reloaded.getSettleTime("ble"));
+    }
+}
@@ -0,0 +1,168 @@
+package org.mozilla.magnet.scanner;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.magnet.scanner.io.FileIO;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class ScanTelemetryTest extends TestCase {
+    private File mFile;
+
+    @Before
+    public void setup() throws Exception {
+        mFile = File.createTempFile("telemetry", null);
+        mFile.delete();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        waitForFileIO();
+        mFile.delete();
+    }
+
+    @Test
+    public void keepsRecordFields() {
+        ScanTelemetry telemetry = new ScanTelemetry(mFile, 4);
+        telemetry.add(new ScanTelemetry.Record(1000, 8000, 1200, -1, 3400, 5, 2, 650,
+                ScanTelemetry.StopReason.QUIET, true));
+
+        ScanTelemetry.Record record = telemetry.getRecords().get(0);
+        assertEquals(1000, record.getStartedAt());
+        assertEquals(8000, record.getDuration());
+        assertEquals(1200, record.getBleFirstItem());
+        assertEquals(-1, record.getMdnsFirstItem());
+        assertEquals(3400, record.getGeolocationFirstItem());
+        assertEquals(5, record.getFound());
+        assertEquals(2, record.getBroadcast());
+        assertEquals(650, record.getSearchLatency());
+        assertEquals(ScanTelemetry.StopReason.QUIET, record.getStopReason());
+        assertTrue(record.usedGeolocation());
+    }
+
+    @Test
+    public void overwritesOldestRecords() {
+        ScanTelemetry telemetry = new ScanTelemetry(mFile, 3);
+        for (int i = 0; i < 5; i++) {
+            telemetry.add(record(i));
+        }
+
+        List<ScanTelemetry.Record> records = telemetry.getRecords();
+        assertEquals(3, records.size());
+        assertEquals(2, records.get(0).getStartedAt());
+        assertEquals(4, records.get(2).getStartedAt());
+    }
+
+    @Test
+    public void persistsAcrossProcesses() throws Exception {
+        ScanTelemetry telemetry = new ScanTelemetry(mFile, 3);
+        for (int i = 0; i < 4; i++) {
+            telemetry.add(record(i));
+        }
+        waitForFileIO();
+
+        ScanTelemetry loaded = new ScanTelemetry(mFile, 3);
+        loaded.add(record(4));
+
+        List<ScanTelemetry.Record> records = loaded.getRecords();
+        assertEquals(3, records.size());
+        assertEquals(2, records.get(0).getStartedAt());
+        assertEquals(ScanTelemetry.StopReason.TIMEOUT, records.get(2).getStopReason());
+        assertFalse(records.get(2).usedGeolocation());
+
+        // a buffer of another capacity isn't misread
+        assertEquals(0, new ScanTelemetry(mFile, 4).getRecords().size());
+    }
+
+    @Test
+    public void ignoresCorruptFile() throws Exception {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[12 + 3 * 40]);
+        out.close();
+
+        ScanTelemetry telemetry = new ScanTelemetry(mFile, 3);
+        assertEquals(0, telemetry.getRecords().size());
+        telemetry.add(record(1));
+        waitForFileIO();
+        assertEquals(1, new ScanTelemetry(mFile, 3).getRecords().size());
+    }
+
+    @Test
+    public void writesOnIoThread() throws Exception {
+        // holds the io thread
+        final CountDownLatch writing = new CountDownLatch(1);
+        FileIO.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writing.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        ScanTelemetry telemetry = new ScanTelemetry(mFile, 3);
+        try {
+            telemetry.add(record(1));
+            assertFalse(mFile.exists());
+
+            // already visible to the process
+            assertEquals(1, telemetry.getRecords().size());
+        } finally {
+            writing.countDown();
+        }
+
+        waitForFileIO();
+        assertEquals(1, new ScanTelemetry(mFile, 3).getRecords().size());
+    }
+
+    @Test
+    public void dumpsSummary() {
+        ScanTelemetry telemetry = new ScanTelemetry(mFile, 8);
+        telemetry.add(new ScanTelemetry.Record(0, 4000, 900, -1, -1, 1, 1, 30000,
+                ScanTelemetry.StopReason.TIMEOUT, true));
+        telemetry.add(new ScanTelemetry.Record(0, 2000, -1, -1, 1500, 3, 0, 400,
+                ScanTelemetry.StopReason.QUIET, true));
+
+        StringWriter output = new StringWriter();
+        telemetry.dump(new PrintWriter(output));
+        String[] lines = output.toString().split("\n");
+
+        assertEquals(3, lines.length);
+        assertEquals("Background scans: 2, mean duration: 3000ms, timeouts: 1, geolocation without items: 1/2", lines[0]);
+        assertTrue(lines[1], lines[1].contains("TIMEOUT after 4000ms"));
+    }
+
+    /**
+     * Waits for the file reads and writes queued so far.
+     */
+    private static void waitForFileIO() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        FileIO.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    private static ScanTelemetry.Record record(long startedAt) {
+        return new ScanTelemetry.Record(startedAt, 5000, -1, -1, -1, 0, 0, -1,
+                ScanTelemetry.StopReason.TIMEOUT, false);
+    }
+}
@@ -55,11 +55,17 @@ public class ScannerTest extends TestCase {
             public void onItemLost(MagnetScannerItem obj) {
 
             }
+
+            @Override
+            public void onItemUpdated(MagnetScannerItem obj) {
+
+            }
         };
         magnetScanner.start(cb);
 
-        verify(btleScanner).start(cb);
-        verify(mdnsScanner).start(cb);
+        // scanners report to the merging registry, not to the host directly
+        verify(btleScanner).start(any(MagnetScannerListener.class));
+        verify(mdnsScanner).start(any(MagnetScannerListener.class));
 
         verify(scannersList, calls(2));
     }
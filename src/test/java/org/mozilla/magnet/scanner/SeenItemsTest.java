@@ -0,0 +1,122 @@
+package org.mozilla.magnet.scanner;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+@RunWith(JUnit4.class)
+public class SeenItemsTest extends TestCase {
+    private static final long TTL = 1000;
+    private File mFile;
+
+    @Before
+    public void setup() throws Exception {
+        mFile = File.createTempFile("seen", null);
+        mFile.delete();
+    }
+
+    @After
+    public void teardown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void reportsNewItemsOnce() {
+        SeenItems seen = new SeenItems(TTL, 10);
+
+        assertTrue(seen.markSeen("https://a.com", 0));
+        assertFalse(seen.markSeen("https://a.com", 500));
+        assertTrue(seen.markSeen("https://b.com", 500));
+
+        // still seen within the ttl of the last sighting
+        assertFalse(seen.markSeen("https://a.com", 1400));
+    }
+
+    @Test
+    public void reportsReappearedItems() {
+        SeenItems seen = new SeenItems(TTL, 10);
+
+        seen.markSeen("https://a.com", 0);
+        assertTrue(seen.markSeen("https://a.com", 1001));
+        assertFalse(seen.markSeen("https://a.com", 1002));
+
+        // a clock set back doesn't keep items known forever
+        assertTrue(seen.markSeen("https://a.com", 10));
+    }
+
+    @Test
+    public void dropsLeastRecentlySeen() {
+        SeenItems seen = new SeenItems(TTL, 2);
+
+        seen.markSeen("https://a.com", 0);
+        seen.markSeen("https://b.com", 1);
+        seen.markSeen("https://a.com", 2);
+        seen.markSeen("https://c.com", 3);
+
+        assertEquals(2, seen.size());
+        assertFalse(seen.markSeen("https://a.com", 4));
+        assertTrue(seen.markSeen("https://b.com", 5));
+    }
+
+    @Test
+    public void persistsAcrossWakeups() throws Exception {
+        SeenItems seen = new SeenItems(TTL, 10);
+        seen.markSeen("https://a.com", 0);
+        seen.markSeen("https://b.com", 600);
+        seen.markSeen("https://c.com", 700);
+        seen.markSeen("https://b.com", 800);
+        seen.save(mFile, 1500);
+
+        // a.com expired before the save
+        assertEquals(8 + 2 * 16, mFile.length());
+
+        SeenItems loaded = new SeenItems(TTL, 2);
+        assertTrue(loaded.load(mFile));
+        assertEquals(2, loaded.size());
+        assertFalse(loaded.markSeen("https://b.com", 1600));
+        assertTrue(loaded.markSeen("https://a.com", 1600));
+
+        // sighting order survives, c.com was the least recently seen
+        assertEquals(2, loaded.size());
+        assertTrue(loaded.markSeen("https://c.com", 1600));
+    }
+
+    @Test
+    public void ignoresMissingOrCorruptFile() throws Exception {
+        SeenItems seen = new SeenItems(TTL, 10);
+        seen.markSeen("https://a.com", 0);
+        assertFalse(seen.load(mFile));
+        assertEquals(0, seen.size());
+
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+        out.close();
+
+        assertFalse(seen.load(mFile));
+        assertTrue(seen.markSeen("https://a.com", 0));
+    }
+
+    @Test
+    public void loadsQuickly() throws Exception {
+        SeenItems seen = new SeenItems(SeenItems.DEFAULT_TTL_MS, SeenItems.DEFAULT_CAPACITY);
+        for (int i = 0; i < SeenItems.DEFAULT_CAPACITY; i++) {
+            seen.markSeen("https://example.com/" + i, i);
+        }
+        seen.save(mFile, SeenItems.DEFAULT_CAPACITY);
+
+        SeenItems loaded = new SeenItems();
+        long start = System.nanoTime();
+        assertTrue(loaded.load(mFile));
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(SeenItems.DEFAULT_CAPACITY, loaded.size());
+        assertTrue("load took " + elapsedMs + "ms", elapsedMs < 50);
+    }
+}
@@ -0,0 +1,88 @@
+package org.mozilla.magnet.scanner.ble;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AdvertCacheTest extends TestCase {
+    private static final String DEVICE = "00:11:22:33:44:55";
+    private static final byte[] RECORD = { 0x02, 0x01, 0x06, 0x03, 0x03, (byte) 0xaa, (byte) 0xfe };
+
+    @Test
+    public void findsCachedItem() {
+        AdvertCache cache = new AdvertCache(16);
+        long hash = AdvertCache.hash(RECORD, 0, RECORD.length);
+        BeaconItem item = new BeaconItem("https://www.mozilla.org/", 0);
+        cache.putItem(DEVICE, hash, item, -21);
+
+        int slot = cache.find(DEVICE, hash);
+        assertTrue(slot != AdvertCache.MISS);
+        assertSame(item, cache.getItem(slot));
+        assertEquals(-21, cache.getTxPower(slot));
+    }
+
+    @Test
+    public void missesOtherAdverts() {
+        AdvertCache cache = new AdvertCache(16);
+        long hash = AdvertCache.hash(RECORD, 0, RECORD.length);
+        assertEquals(AdvertCache.MISS, cache.find(DEVICE, hash));
+
+        cache.putItem(DEVICE, hash, new BeaconItem("https://www.mozilla.org/", 0), -21);
+        assertEquals(AdvertCache.MISS, cache.find(DEVICE, hash + 1));
+        assertEquals(AdvertCache.MISS, cache.find("66:77:88:99:AA:BB", hash));
+
+        cache.clear();
+        assertEquals(AdvertCache.MISS, cache.find(DEVICE, hash));
+    }
+
+    @Test
+    public void keepsNegativeEntries() {
+        AdvertCache cache = new AdvertCache(16);
+        long hash = AdvertCache.hash(RECORD, 0, RECORD.length);
+        cache.putNegative(DEVICE, hash);
+
+        // found, but not a beacon
+        int slot = cache.find(DEVICE, hash);
+        assertTrue(slot != AdvertCache.MISS);
+        assertNull(cache.getItem(slot));
+    }
+
+    @Test
+    public void newestAdvertTakesCollidingSlot() {
+        BeaconItem first = new BeaconItem("https://first", 0);
+        BeaconItem second = new BeaconItem("https://second", 1);
+        int collisions = 0;
+
+        // two slots, so many of these adverts share one
+        for (long hash = 1; hash <= 64; hash++) {
+            AdvertCache cache = new AdvertCache(2);
+            cache.putItem(DEVICE, 0, first, -21);
+            cache.putItem(DEVICE, hash, second, -30);
+
+            int slot = cache.find(DEVICE, hash);
+            assertTrue(slot != AdvertCache.MISS);
+            assertSame(second, cache.getItem(slot));
+            assertEquals(-30, cache.getTxPower(slot));
+
+            if (cache.find(DEVICE, 0) == AdvertCache.MISS) {
+                collisions++;
+            } else {
+                assertSame(first, cache.getItem(cache.find(DEVICE, 0)));
+            }
+        }
+
+        assertTrue(collisions > 0);
+    }
+
+    @Test
+    public void hashesRecordRange() {
+        byte[] padded = new byte[RECORD.length + 4];
+        System.arraycopy(RECORD, 0, padded, 2, RECORD.length);
+
+        assertEquals(AdvertCache.hash(RECORD, 0, RECORD.length), AdvertCache.hash(padded, 2, RECORD.length));
+        assertTrue(AdvertCache.hash(RECORD, 0, RECORD.length) != AdvertCache.hash(RECORD, 0, RECORD.length - 1));
+    }
+}
@@ -0,0 +1,177 @@
+package org.mozilla.magnet.scanner.ble;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(JUnit4.class)
+public class AdvertQueueTest extends TestCase {
+
+    @Test
+    public void keepsOrderAcrossWraparound() {
+        AdvertQueue queue = new AdvertQueue(4);
+        Recorder recorder = new Recorder();
+        int next = 0;
+
+        // several laps of the 4 slots, never quite full
+        for (int lap = 0; lap < 5; lap++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(queue.offer("device", next, record(next), next));
+                next++;
+            }
+            assertEquals(3, queue.drain(recorder, Integer.MAX_VALUE));
+        }
+
+        assertTrue(queue.isEmpty());
+        assertEquals(next, recorder.mRssi.size());
+        for (int i = 0; i < next; i++) {
+            assertEquals(i, (int) recorder.mRssi.get(i));
+            assertTrue(Arrays.equals(record(i), recorder.mRecords.get(i)));
+            assertEquals(i, (long) recorder.mTimestamps.get(i));
+        }
+    }
+
+    @Test
+    public void dropsOffersWhenFull() {
+        AdvertQueue queue = new AdvertQueue(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer("device", i, record(i), i));
+        }
+
+        assertFalse(queue.offer("device", 4, record(4), 4));
+
+        // a drained slot takes offers again
+        Recorder recorder = new Recorder();
+        assertEquals(1, queue.drain(recorder, 1));
+        assertTrue(queue.offer("device", 5, record(5), 5));
+        assertEquals(4, queue.drain(recorder, Integer.MAX_VALUE));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 5), recorder.mRssi);
+    }
+
+    @Test
+    public void drainsAtMostMaxBatch() {
+        AdvertQueue queue = new AdvertQueue(8);
+        for (int i = 0; i < 5; i++) {
+            queue.offer("device", i, record(i), i);
+        }
+
+        Recorder recorder = new Recorder();
+        assertEquals(2, queue.drain(recorder, 2));
+        assertEquals(Arrays.asList(0, 1), recorder.mRssi);
+        assertFalse(queue.isEmpty());
+
+        assertEquals(3, queue.drain(recorder, 10));
+        assertEquals(0, queue.drain(recorder, 10));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void copiesRecordsLongerThanSlot() {
+        AdvertQueue queue = new AdvertQueue(2);
+        byte[] extended = new byte[255];
+        for (int i = 0; i < extended.length; i++) {
+            extended[i] = (byte) i;
+        }
+
+        Recorder recorder = new Recorder();
+        queue.offer("device", 0, extended, 0);
+        queue.drain(recorder, 1);
+
+        // the slot keeps its grown buffer, only the length of the record is valid
+        assertTrue(queue.offer("device", 1, record(1), 1));
+        assertTrue(queue.offer("device", 2, record(2), 2));
+        queue.drain(recorder, Integer.MAX_VALUE);
+        assertTrue(queue.offer("device", 3, extended, 3));
+        queue.drain(recorder, Integer.MAX_VALUE);
+
+        assertTrue(Arrays.equals(extended, recorder.mRecords.get(0)));
+        assertTrue(Arrays.equals(record(1), recorder.mRecords.get(1)));
+        assertTrue(Arrays.equals(record(2), recorder.mRecords.get(2)));
+        assertTrue(Arrays.equals(extended, recorder.mRecords.get(3)));
+    }
+
+    @Test
+    public void handsEveryAdvertOfManyProducersToConsumer() throws Exception {
+        final int producers = 4;
+        final int adverts = 20000;
+        final AdvertQueue queue = new AdvertQueue(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < producers; p++) {
+            final String address = "device-" + p;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    // retried when full, as a binder thread would drop it
+                    for (int i = 0; i < adverts; i++) {
+                        while (!queue.offer(address, i, record(i), i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        final int[] next = new int[producers];
+        AdvertQueue.Consumer consumer = new AdvertQueue.Consumer() {
+            @Override
+            public void onAdvert(String address, int rssi, byte[] record, int length, long timestamp) {
+                int producer = Integer.parseInt(address.substring("device-".length()));
+
+                // each producer's adverts in its own order, none lost or repeated
+                assertEquals(next[producer], rssi);
+                assertEquals(4, length);
+                assertTrue(Arrays.equals(record(rssi), Arrays.copyOf(record, length)));
+                next[producer]++;
+            }
+        };
+
+        start.countDown();
+        int drained = 0;
+        while (drained < producers * adverts) {
+            drained += queue.drain(consumer, 16);
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(queue.isEmpty());
+        for (int p = 0; p < producers; p++) {
+            assertEquals(adverts, next[p]);
+        }
+    }
+
+    private static byte[] record(int value) {
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+
+    private static class Recorder implements AdvertQueue.Consumer {
+        final List<Integer> mRssi = new ArrayList<>();
+        final List<byte[]> mRecords = new ArrayList<>();
+        final List<Long> mTimestamps = new ArrayList<>();
+
+        @Override
+        public void onAdvert(String address, int rssi, byte[] record, int length, long timestamp) {
+            mRssi.add(rssi);
+            mRecords.add(Arrays.copyOf(record, length));
+            mTimestamps.add(timestamp);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.mozilla.magnet.scanner.ble;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BeaconTrackerTest extends TestCase {
+    private static final int TX_POWER = -21;
+
+    @Test
+    public void averagesRssiOverWindow() {
+        BeaconTracker tracker = new BeaconTracker(4, 3);
+        int slot = tracker.track("a", TX_POWER, -60, 0);
+        assertEquals(EddyStoneParser.calculateDistance(TX_POWER, -60), tracker.getDistance(slot), 0.001);
+
+        tracker.track("a", TX_POWER, -70, 1);
+        tracker.track("a", TX_POWER, -80, 2);
+        assertEquals(EddyStoneParser.calculateDistance(TX_POWER, -70), tracker.getDistance(slot), 0.001);
+
+        // the first sample drops out of the window
+        assertEquals(slot, tracker.track("a", TX_POWER, -90, 3));
+        assertEquals(EddyStoneParser.calculateDistance(TX_POWER, -80), tracker.getDistance(slot), 0.001);
+    }
+
+    @Test
+    public void keepsBeaconsApart() {
+        BeaconTracker tracker = new BeaconTracker(4, 3);
+        int a = tracker.track("a", TX_POWER, -60, 0);
+        int b = tracker.track("b", TX_POWER, -90, 0);
+
+        assertTrue(a != b);
+        assertEquals(a, tracker.find("a"));
+        assertEquals("b", tracker.getAddress(b));
+        assertEquals(EddyStoneParser.calculateDistance(TX_POWER, -60), tracker.getDistance(a), 0.001);
+        assertEquals(-1, tracker.find("c"));
+    }
+
+    @Test
+    public void replacesLeastRecentlySeenWhenFull() {
+        BeaconTracker tracker = new BeaconTracker(2, 4);
+        int a = tracker.track("a", TX_POWER, -60, 1);
+        int b = tracker.track("b", TX_POWER, -70, 2);
+        tracker.track("a", TX_POWER, -60, 3);
+
+        int c = tracker.track("c", TX_POWER, -80, 4);
+        assertEquals(b, c);
+        assertEquals(-1, tracker.find("b"));
+        assertEquals(a, tracker.find("a"));
+        assertFalse(tracker.isTracking(b, "b", 0));
+        assertTrue(tracker.isTracking(c, "c", 0));
+
+        // the new beacon doesn't inherit the old samples
+        assertEquals(EddyStoneParser.calculateDistance(TX_POWER, -80), tracker.getDistance(c), 0.001);
+    }
+
+    @Test
+    public void stopsTrackingSilentBeacons() {
+        BeaconTracker tracker = new BeaconTracker(4, 3);
+        int slot = tracker.track("a", TX_POWER, -60, 1000);
+
+        assertTrue(tracker.isTracking(slot, "a", 1000));
+        assertFalse(tracker.isTracking(slot, "a", 1001));
+
+        tracker.clear();
+        assertFalse(tracker.isTracking(slot, "a", 0));
+        assertEquals(-1, tracker.find("a"));
+    }
+}
@@ -0,0 +1,95 @@
+package org.mozilla.magnet.scanner.ble;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+
+@RunWith(JUnit4.class)
+public class EddyStoneParserTest extends TestCase {
+
+    // flags, then eddystone-url service data: https://www.mozilla.org/
+    private static final byte[] EDDYSTONE_URL = {
+            0x02, 0x01, 0x06,
+            0x03, 0x03, (byte) 0xaa, (byte) 0xfe,
+            0x0e, 0x16, (byte) 0xaa, (byte) 0xfe, 0x10, (byte) 0xeb, 0x01,
+            'm', 'o', 'z', 'i', 'l', 'l', 'a', 0x01,
+            0x00, 0x00, 0x00
+    };
+
+    // uribeacon service data: http://goo.gl/a
+    private static final byte[] URIBEACON = {
+            0x02, 0x01, 0x06,
+            0x0e, 0x16, (byte) 0xd8, (byte) 0xfe, 0x00, (byte) 0xee, 0x02,
+            'g', 'o', 'o', '.', 'g', 'l', '/', 'a'
+    };
+
+    @Test
+    public void parsesEddystoneUrl() {
+        EddyStoneParser parser = new EddyStoneParser();
+
+        assertTrue(parser.parse(EDDYSTONE_URL, 0, EDDYSTONE_URL.length));
+        assertEquals("https://www.mozilla.org/", parser.getUrl());
+        assertEquals(-21, parser.getTxPower());
+        assertEquals(0xfeaa, parser.getServiceUuid());
+    }
+
+    @Test
+    public void parsesUriBeacon() {
+        EddyStoneParser parser = new EddyStoneParser();
+
+        assertTrue(parser.parse(URIBEACON, 0, URIBEACON.length));
+        assertEquals("http://goo.gl/a", parser.getUrl());
+        assertEquals(-18, parser.getTxPower());
+        assertEquals(0xfed8, parser.getServiceUuid());
+    }
+
+    @Test
+    public void parsesWithinOffsetAndLength() {
+        byte[] padded = new byte[EDDYSTONE_URL.length + 4];
+        System.arraycopy(EDDYSTONE_URL, 0, padded, 2, EDDYSTONE_URL.length);
+        EddyStoneParser parser = new EddyStoneParser();
+
+        assertTrue(parser.parse(padded, 2, EDDYSTONE_URL.length));
+        assertEquals("https://www.mozilla.org/", parser.getUrl());
+    }
+
+    @Test
+    public void rejectsTruncatedRecords() {
+        EddyStoneParser parser = new EddyStoneParser();
+
+        for (int length = 0; length < 14; length++) {
+            assertFalse(parser.parse(EDDYSTONE_URL, 0, length));
+            assertNull(parser.getUrl());
+        }
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        EddyStoneParser parser = new EddyStoneParser();
+
+        // field length overruns the record
+        assertFalse(parser.parse(new byte[] { 0x1f, 0x16, (byte) 0xaa, (byte) 0xfe }, 0, 4));
+        // eddystone uid frame
+        assertFalse(parser.parse(new byte[] { 0x05, 0x16, (byte) 0xaa, (byte) 0xfe, 0x00, 0x00 }, 0, 6));
+        // unknown scheme
+        assertFalse(parser.parse(new byte[] { 0x06, 0x16, (byte) 0xaa, (byte) 0xfe, 0x10, 0x00, 0x09 }, 0, 7));
+        // reserved url byte
+        assertFalse(parser.parse(new byte[] { 0x07, 0x16, (byte) 0xaa, (byte) 0xfe, 0x10, 0x00, 0x00, (byte) 0x80 }, 0, 8));
+        // bad bounds
+        assertFalse(parser.parse(EDDYSTONE_URL, 4, EDDYSTONE_URL.length));
+        assertFalse(parser.parse(EDDYSTONE_URL, -1, 2));
+        assertFalse(parser.parse(null, 0, 0));
+    }
+
+    @Test
+    public void parseBuildsItemWithDistance() {
+        MagnetScannerItem item = EddyStoneParser.parse(EDDYSTONE_URL, -62);
+
+        assertEquals("https://www.mozilla.org/", item.getUrl());
+        assertEquals(EddyStoneParser.calculateDistance(-21, -62), item.getDistance());
+        assertNull(EddyStoneParser.parse(new byte[] { 0x02, 0x01, 0x06 }, -62));
+    }
+}
@@ -0,0 +1,223 @@
+package org.mozilla.magnet.scanner.ble;
+
+import android.os.Looper;
+import android.os.SystemClock;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+import org.mozilla.magnet.scanner.MagnetScannerListener;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class ScannerBleTest extends TestCase {
+
+    // eddystone-url service data: https://www.mozilla.org/
+    private static final byte[] EDDYSTONE_URL = {
+            0x02, 0x01, 0x06,
+            0x03, 0x03, (byte) 0xaa, (byte) 0xfe,
+            0x0e, 0x16, (byte) 0xaa, (byte) 0xfe, 0x10, (byte) 0xeb, 0x01,
+            'm', 'o', 'z', 'i', 'l', 'l', 'a', 0x01
+    };
+
+    // manufacturer specific data only
+    private static final byte[] HEADPHONES = {
+            0x02, 0x01, 0x06,
+            0x05, (byte) 0xff, 0x4c, 0x00, 0x10, 0x05
+    };
+
+    private FakeBackend mBackend;
+    private ScannerBle mScanner;
+    private RecordingListener mListener;
+
+    @Before
+    public void setup() {
+        mBackend = new FakeBackend();
+        mScanner = new ScannerBle(mBackend, Looper.getMainLooper());
+        mListener = new RecordingListener();
+    }
+
+    @Test
+    public void startsAndStopsBackend() {
+        mScanner.start(mListener);
+        assertTrue(mBackend.mStarted);
+
+        mScanner.stop();
+        assertFalse(mBackend.mStarted);
+    }
+
+    @Test
+    public void reportsBeaconOnce() {
+        mScanner.start(mListener);
+
+        mBackend.advertise("00:11:22:33:44:55", -60, EDDYSTONE_URL);
+        mBackend.advertise("00:11:22:33:44:55", -61, EDDYSTONE_URL);
+        mBackend.advertise("66:77:88:99:AA:BB", -70, HEADPHONES);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+
+        mBackend.advertise("00:11:22:33:44:55", -60, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, mListener.mFound.size());
+        MagnetScannerItem item = mListener.mFound.get(0);
+        assertEquals("https://www.mozilla.org/", item.getUrl());
+        assertEquals("ble", item.getType());
+        assertEquals("00:11:22:33:44:55", item.getDevice());
+    }
+
+    @Test
+    public void followsNearestBeacon() {
+        mScanner.setMinUpdateInterval(0);
+        mScanner.start(mListener);
+
+        mBackend.advertise("00:11:22:33:44:55", -80, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+        mBackend.advertise("66:77:88:99:AA:BB", -50, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, mListener.mFound.size());
+        assertEquals(1, mListener.mUpdated.size());
+        MagnetScannerItem item = mListener.mUpdated.get(0);
+        assertEquals("66:77:88:99:AA:BB", item.getDevice());
+        assertEquals(EddyStoneParser.calculateDistance(-21, -50), item.getDistance(), 0.001);
+    }
+
+    @Test
+    public void followsBeaconTakingOverEvictedSlot() {
+        mScanner.start(mListener);
+        mBackend.advertise("00:11:22:33:44:55", -50, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+
+        // farther beacons of the same url, the last one
+        // takes the slot of the silent nearest one
+        String last = null;
+        for (int i = 0; i < 64; i++) {
+            last = String.format("66:77:88:99:AA:%02X", i);
+            mBackend.advertise(last, -90, EDDYSTONE_URL);
+        }
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+
+        assertEquals(last, mListener.mFound.get(0).getDevice());
+    }
+
+    @Test
+    public void updatesOnlyPastThreshold() {
+        mScanner.setMinUpdateInterval(0).setUpdateThreshold(1);
+        mScanner.start(mListener);
+
+        mBackend.advertise("00:11:22:33:44:55", -60, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+
+        // a tenth of a meter further
+        mBackend.advertise("00:11:22:33:44:55", -62, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+        assertEquals(0, mListener.mUpdated.size());
+
+        // a couple of meters further
+        mBackend.advertise("00:11:22:33:44:55", -90, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+        assertEquals(1, mListener.mUpdated.size());
+        assertEquals(EddyStoneParser.calculateDistance(-21, (-60 - 62 - 90) / 3.0),
+                mListener.mUpdated.get(0).getDistance(), 0.001);
+    }
+
+    @Test
+    public void updatesAtMostOncePerInterval() {
+        mScanner.setMinUpdateInterval(1000).setUpdateThreshold(0);
+        mScanner.start(mListener);
+
+        mBackend.advertise("00:11:22:33:44:55", -60, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+        mBackend.advertise("00:11:22:33:44:55", -80, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+        assertEquals(0, mListener.mUpdated.size());
+
+        ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+        mBackend.advertise("00:11:22:33:44:55", -80, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+        assertEquals(1, mListener.mUpdated.size());
+    }
+
+    @Test
+    public void expiresSilentBeacons() {
+        mScanner.start(mListener);
+
+        mBackend.advertise("00:11:22:33:44:55", -60, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+        assertEquals(0, mListener.mLost.size());
+
+        ShadowLooper.idleMainLooper(10000, TimeUnit.MILLISECONDS);
+        assertEquals(1, mListener.mLost.size());
+        assertSame(mListener.mFound.get(0), mListener.mLost.get(0));
+    }
+
+    @Test
+    public void findsExpiredBeaconAgain() {
+        mScanner.start(mListener);
+
+        mBackend.advertise("00:11:22:33:44:55", -60, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(10000, TimeUnit.MILLISECONDS);
+        assertEquals(1, mListener.mLost.size());
+
+        // the same advert, still cached but for the expired item
+        mBackend.advertise("00:11:22:33:44:55", -60, EDDYSTONE_URL);
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, mListener.mFound.size());
+        assertNotSame(mListener.mFound.get(0), mListener.mFound.get(1));
+        assertEquals("https://www.mozilla.org/", mListener.mFound.get(1).getUrl());
+        assertEquals(1, mScanner.getItems().size());
+    }
+
+    private static class FakeBackend implements BleScanBackend {
+        private Callback mCallback;
+        private boolean mStarted;
+
+        @Override
+        public boolean start(Callback callback) {
+            mCallback = callback;
+            mStarted = true;
+            return true;
+        }
+
+        @Override
+        public void stop() {
+            mStarted = false;
+        }
+
+        void advertise(String address, int rssi, byte[] record) {
+            mCallback.onScanResult(address, rssi, record, SystemClock.elapsedRealtime());
+        }
+    }
+
+    private static class RecordingListener implements MagnetScannerListener {
+        final List<MagnetScannerItem> mFound = new ArrayList<>();
+        final List<MagnetScannerItem> mLost = new ArrayList<>();
+        final List<MagnetScannerItem> mUpdated = new ArrayList<>();
+
+        @Override
+        public void onItemFound(MagnetScannerItem item) {
+            mFound.add(item);
+        }
+
+        @Override
+        public void onItemLost(MagnetScannerItem item) {
+            mLost.add(item);
+        }
+
+        @Override
+        public void onItemUpdated(MagnetScannerItem item) {
+            mUpdated.add(item);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import android.location.Location;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays a recorded commute through the policy and checks
+ * which location requests it switches to and when.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class AdaptiveLocationPolicyTest extends TestCase {
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180;
+
+    private AdaptiveLocationPolicy mPolicy;
+    private long mTime;
+    private double mLatitude;
+    private List<LocationPolicy.Settings> mChanges;
+    private List<Long> mChangedAt;
+
+    @Before
+    public void setup() {
+        mPolicy = new AdaptiveLocationPolicy();
+        mTime = 1476784800000L;
+        mLatitude = 51.5033;
+        mChanges = new ArrayList<>();
+        mChangedAt = new ArrayList<>();
+    }
+
+    @Test
+    public void startsWalking() {
+        assertSame(AdaptiveLocationPolicy.WALKING_SETTINGS, mPolicy.getInitialSettings());
+    }
+
+    @Test
+    public void followsCommute() {
+        long start = mTime;
+
+        // waiting at home, then walking to the stop, the bus,
+        // walking to the office and sitting down at the desk
+        replay(5000, 0, 120000, true);
+        replay(3000, 1.4f, 90000, true);
+        replay(1000, 8f, 120000, true);
+        replay(3000, 1.4f, 90000, true);
+        replay(5000, 0, 120000, true);
+
+        assertEquals(Arrays.asList(
+                AdaptiveLocationPolicy.STILL_SETTINGS,
+                AdaptiveLocationPolicy.WALKING_SETTINGS,
+                AdaptiveLocationPolicy.FAST_SETTINGS,
+                AdaptiveLocationPolicy.WALKING_SETTINGS,
+                AdaptiveLocationPolicy.STILL_SETTINGS), mChanges);
+
+        assertEquals(Arrays.asList(65000L, 123000L, 211000L, 342000L, 495000L), since(start));
+    }
+
+    @Test
+    public void derivesSpeedFromDistance() {
+        long start = mTime;
+
+        // fixes without a speed, e.g. from wifi or the cell network
+        replay(5000, 0, 120000, false);
+        replay(1000, 8f, 30000, false);
+
+        assertEquals(Arrays.asList(
+                AdaptiveLocationPolicy.STILL_SETTINGS,
+                AdaptiveLocationPolicy.FAST_SETTINGS), mChanges);
+
+        // the first fix has nothing to measure against, so stillness starts with the second
+        assertEquals(70000L, (long) since(start).get(0));
+    }
+
+    @Test
+    public void ignoresWanderingFixes() {
+        replay(5000, 0, 120000, true);
+        assertEquals(1, mChanges.size());
+
+        // inaccurate fixes jumping around a 100 m circle while standing still
+        for (int i = 0; i < 20; i++) {
+            mTime += 5000;
+            double offset = (i % 2 == 0 ? 60 : -60) / METERS_PER_DEGREE;
+            record(mPolicy.onLocationChanged(location(mLatitude + offset, 0, true, 100)));
+        }
+
+        assertEquals(1, mChanges.size());
+    }
+
+    /**
+     * Feeds a fix every `period` ms, moving north at `speed` m/s.
+     */
+    private void replay(long period, float speed, long duration, boolean hasSpeed) {
+        for (long elapsed = 0; elapsed < duration; elapsed += period) {
+            mTime += period;
+            mLatitude += speed * period / 1000.0 / METERS_PER_DEGREE;
+            record(mPolicy.onLocationChanged(location(mLatitude, speed, hasSpeed, 10)));
+        }
+    }
+
+    private void record(LocationPolicy.Settings settings) {
+        if (settings == null) return;
+        mChanges.add(settings);
+        mChangedAt.add(mTime);
+    }
+
+    private List<Long> since(long start) {
+        List<Long> result = new ArrayList<>();
+        for (long time : mChangedAt) result.add(time - start);
+        return result;
+    }
+
+    private Location location(double latitude, float speed, boolean hasSpeed, float accuracy) {
+        Location location = new Location("fused");
+        location.setLatitude(latitude);
+        location.setLongitude(-0.1196);
+        location.setTime(mTime);
+        location.setAccuracy(accuracy);
+        if (hasSpeed) location.setSpeed(speed);
+        return location;
+    }
+}
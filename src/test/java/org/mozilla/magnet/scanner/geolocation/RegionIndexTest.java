@@ -0,0 +1,144 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class RegionIndexTest extends TestCase {
+    private static final double LATITUDE = 51.5033;
+    private static final double LONGITUDE = -0.1196;
+    private RegionIndex mIndex;
+
+    @Before
+    public void setup() {
+        mIndex = new RegionIndex();
+
+        // a 20 x 20 grid of beacons 25 m apart, centred on the query point
+        List<MagnetScannerItem> items = new ArrayList<>();
+        for (int i = -10; i < 10; i++) {
+            for (int j = -10; j < 10; j++) {
+                items.add(item("https://" + i + "/" + j, LATITUDE + i * 0.000225, LONGITUDE + j * 0.00036));
+            }
+        }
+
+        mIndex.apply(new RegionIndex.Update(1, true, items, Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void answersRadiusQuery() {
+        HashMap<String, MagnetScannerItem> result = mIndex.query(LATITUDE, LONGITUDE, 30);
+
+        // the point itself and its four neighbours, the diagonals are 35 m away
+        assertEquals(5, result.size());
+        assertTrue(result.containsKey("https://0/0"));
+        assertTrue(result.containsKey("https://-1/0"));
+        assertTrue(result.containsKey("https://0/-1"));
+        assertFalse(result.containsKey("https://1/1"));
+
+        for (MagnetScannerItem item : mIndex.query(LATITUDE, LONGITUDE, 100).values()) {
+            assertTrue(SearchTileCache.distance(LATITUDE, LONGITUDE, item.getLatitude(), item.getLongitude()) <= 100);
+        }
+    }
+
+    @Test
+    public void coversRegion() {
+        assertTrue(mIndex.covers(LATITUDE, LONGITUDE, 100));
+        assertTrue(mIndex.covers(LATITUDE + 0.0025, LONGITUDE, 100));
+        assertFalse(mIndex.covers(LATITUDE + 0.01, LONGITUDE, 100));
+        assertFalse(new RegionIndex().covers(LATITUDE, LONGITUDE, 100));
+    }
+
+    @Test
+    public void appliesDelta() {
+        MagnetScannerItem moved = item("https://0/0", LATITUDE + 0.01, LONGITUDE);
+        MagnetScannerItem added = item("https://new", LATITUDE, LONGITUDE);
+        mIndex.apply(new RegionIndex.Update(2, false, Arrays.asList(moved, added), Arrays.asList("https://-1/0")));
+
+        HashMap<String, MagnetScannerItem> result = mIndex.query(LATITUDE, LONGITUDE, 30);
+        assertEquals(4, result.size());
+        assertTrue(result.containsKey("https://new"));
+        assertFalse(result.containsKey("https://0/0"));
+        assertFalse(result.containsKey("https://-1/0"));
+        assertSame(moved, mIndex.query(LATITUDE + 0.01, LONGITUDE, 10).get("https://0/0"));
+        assertEquals(400, mIndex.size());
+        assertEquals(2, mIndex.getVersion());
+    }
+
+    @Test
+    public void replacesOnFullUpdate() {
+        mIndex.apply(new RegionIndex.Update(5, true, Arrays.asList(item("https://only", LATITUDE, LONGITUDE)),
+                Collections.<String>emptyList()));
+
+        assertEquals(1, mIndex.size());
+        assertEquals(1, mIndex.query(LATITUDE, LONGITUDE, 100).size());
+        assertFalse(mIndex.covers(LATITUDE + 0.002, LONGITUDE, 100));
+    }
+
+    @Test
+    public void shrinksRegionAfterRemovals() {
+        assertTrue(mIndex.covers(LATITUDE + 0.002, LONGITUDE, 100));
+
+        // the northern half of the grid is taken down
+        List<String> removed = new ArrayList<>();
+        for (int i = 5; i < 10; i++) {
+            for (int j = -10; j < 10; j++) {
+                removed.add("https://" + i + "/" + j);
+            }
+        }
+        mIndex.apply(new RegionIndex.Update(2, false, Collections.<MagnetScannerItem>emptyList(), removed));
+
+        assertFalse(mIndex.covers(LATITUDE + 0.002, LONGITUDE, 100));
+        assertTrue(mIndex.covers(LATITUDE + 0.001, LONGITUDE, 100));
+        assertTrue(mIndex.covers(LATITUDE - 0.002, LONGITUDE, 100));
+    }
+
+    @Test
+    public void persistsIndex() throws Exception {
+        File file = File.createTempFile("region", null);
+
+        try {
+            mIndex.save(file);
+
+            RegionIndex loaded = new RegionIndex();
+            assertTrue(loaded.load(file));
+            assertEquals(400, loaded.size());
+            assertEquals(1, loaded.getVersion());
+            assertEquals(mIndex.query(LATITUDE, LONGITUDE, 100).keySet(), loaded.query(LATITUDE, LONGITUDE, 100).keySet());
+            assertEquals("channel", loaded.query(LATITUDE, LONGITUDE, 10).get("https://0/0").getChannelId());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void persistsMissingChannel() throws Exception {
+        File file = File.createTempFile("region", null);
+        mIndex.put(SearchResponseParser.createItem("https://0/0", null, LATITUDE, LONGITUDE));
+
+        try {
+            mIndex.save(file);
+
+            RegionIndex loaded = new RegionIndex();
+            assertTrue(loaded.load(file));
+            assertNull(loaded.query(LATITUDE, LONGITUDE, 10).get("https://0/0").getChannelId());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static MagnetScannerItem item(String url, double latitude, double longitude) {
+        return SearchResponseParser.createItem(url, "channel", latitude, longitude);
+    }
+}
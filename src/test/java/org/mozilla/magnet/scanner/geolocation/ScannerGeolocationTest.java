@@ -0,0 +1,325 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import android.location.Location;
+
+import com.android.volley.Request;
+import com.android.volley.TimeoutError;
+import com.google.android.gms.common.api.GoogleApiClient;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+import org.mozilla.magnet.scanner.MagnetScannerListener;
+import org.mozilla.magnet.scanner.io.FileIO;
+import org.mozilla.magnet.scanner.net.HttpTransport;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class ScannerGeolocationTest extends TestCase {
+    private static final double LATITUDE = 51.5033;
+    private static final double LONGITUDE = -0.1196;
+    private static int sApis;
+
+    private FakeTransport mTransport;
+    private RecordingListener mListener;
+    private ScannerGeolocation mScanner;
+    private int mScansCompleted;
+
+    @Before
+    public void setup() {
+        mTransport = new FakeTransport();
+        mListener = new RecordingListener();
+
+        // an api per test, so failures don't carry over through the shared breaker
+        String apiUrl = "https://search" + sApis++ + ".test/";
+        mScanner = new ScannerGeolocation(RuntimeEnvironment.application, apiUrl, Mockito.mock(GoogleApiClient.class))
+                .setTransport(mTransport)
+                .setTileCacheFile(null);
+        mScanner.addListeners(new ScannerGeolocation.Listeners() {
+            @Override
+            public void onGeolocationScanComplete() {
+                mScansCompleted++;
+            }
+        });
+        mScanner.start(mListener);
+    }
+
+    @After
+    public void teardown() {
+        mScanner.stop();
+    }
+
+    @Test
+    public void answersPartlyCachedCircleFromCache() {
+        MagnetScannerItem near = item("https://near", LATITUDE + 0.00045);
+        MagnetScannerItem north = item("https://north", LATITUDE + 0.0013);
+        moveTo(LATITUDE);
+        respond(0, near, north);
+        assertEquals(urls("https://near"), mScanner.getItems().keySet());
+
+        // 220 m north, half the circle is the fresh tiles of the first search
+        MagnetScannerItem ahead = item("https://ahead", LATITUDE + 0.0028);
+        moveTo(LATITUDE + 0.002);
+        assertEquals(2, mTransport.mSent.size());
+        respond(1, ahead);
+
+        assertEquals(urls("https://north", "https://ahead"), mScanner.getItems().keySet());
+        assertEquals(urls("https://near"), mListener.mLost);
+        assertEquals(3, mListener.mFound.size());
+    }
+
+    @Test
+    public void collapsesBurstIntoScanOfLastLocation() {
+        moveTo(LATITUDE);
+        assertEquals(1, mTransport.mSent.size());
+
+        // a km apart each, within one debounce
+        mScanner.onLocationChanged(location(LATITUDE + 0.01));
+        mScanner.onLocationChanged(location(LATITUDE + 0.02));
+        mScanner.onLocationChanged(location(LATITUDE + 0.03));
+        assertEquals(1, mTransport.mSent.size());
+
+        ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+        assertEquals(2, mTransport.mSent.size());
+        respond(1, item("https://last", LATITUDE + 0.03));
+        assertEquals(urls("https://last"), mScanner.getItems().keySet());
+    }
+
+    @Test
+    public void dropsResponseOfSupersededScan() {
+        moveTo(LATITUDE);
+        moveTo(LATITUDE + 0.01);
+        assertEquals(2, mTransport.mSent.size());
+        assertTrue(mTransport.mCancelled.contains(mTransport.mSent.get(0).getTag()));
+
+        respond(1, item("https://newer", LATITUDE + 0.01));
+        respond(0, item("https://older", LATITUDE));
+        assertEquals(urls("https://newer"), mScanner.getItems().keySet());
+        assertEquals(urls("https://newer"), mListener.mFound);
+        assertEquals(1, mScansCompleted);
+    }
+
+    @Test
+    public void cancelsScanRequestsOnStop() {
+        moveTo(LATITUDE);
+        Object tag = mTransport.mSent.get(0).getTag();
+        assertNotNull(tag);
+        mTransport.mCancelled.clear();
+
+        mScanner.stop();
+        assertTrue(mTransport.mCancelled.contains(tag));
+    }
+
+    @Test
+    public void reportsNothingAfterStop() {
+        moveTo(LATITUDE);
+        mScanner.onLocationChanged(location(LATITUDE + 0.01));
+        mScanner.stop();
+
+        // the debounced scan never runs, late answers are dropped
+        ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+        assertEquals(1, mTransport.mSent.size());
+        respond(0, item("https://near", LATITUDE));
+        mTransport.mSent.get(0).deliverError(new TimeoutError());
+        ShadowLooper.idleMainLooper(10000, TimeUnit.MILLISECONDS);
+
+        assertTrue(mListener.mFound.isEmpty());
+        assertEquals(0, mScansCompleted);
+        assertEquals(1, mTransport.mSent.size());
+    }
+
+    @Test
+    public void searchesAgainWhenRevalidatedTilesAreGone() throws Exception {
+        moveTo(LATITUDE);
+        String url = mTransport.mSent.get(0).getUrl();
+
+        // stale tiles of the same search, kept for revalidation
+        SearchTileCache stale = new SearchTileCache();
+        List<MagnetScannerItem> items = new ArrayList<>();
+        items.add(item("https://near", LATITUDE));
+        SearchTileCache.Validators validators = new SearchTileCache.Validators(url, "\"v1\"", null);
+        stale.put(stale.getMissingArea(LATITUDE, LONGITUDE, 100, 0), items, validators, System.currentTimeMillis() - 3600000);
+        File file = File.createTempFile("tiles", null);
+        stale.save(file);
+
+        try {
+            mScanner.stop();
+            mScanner.setTileCacheFile(file).start(mListener);
+            waitForFileIO();
+            moveTo(LATITUDE);
+            assertEquals(2, mTransport.mSent.size());
+            assertTrue(mTransport.mSent.get(1).getHeaders().containsKey("If-None-Match"));
+
+            // evicted while the conditional search is in flight
+            mScanner.release();
+            ((SearchRequest) mTransport.mSent.get(1)).deliverResponse(new SearchRequest.Result(null, validators));
+            assertEquals(3, mTransport.mSent.size());
+            assertFalse(mTransport.mSent.get(2).getHeaders().containsKey("If-None-Match"));
+            assertEquals(0, mScansCompleted);
+
+            respond(2, item("https://near", LATITUDE));
+            assertEquals(urls("https://near"), mScanner.getItems().keySet());
+            assertEquals(1, mScansCompleted);
+        } finally {
+            mScanner.stop();
+            waitForFileIO();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void keepsFileTilesWhenStoppedWhileReadingThem() throws Exception {
+        SearchTileCache saved = new SearchTileCache();
+        List<MagnetScannerItem> items = new ArrayList<>();
+        items.add(item("https://near", LATITUDE));
+        saved.put(saved.getMissingArea(LATITUDE, LONGITUDE, 100, 0), items, null, System.currentTimeMillis());
+        File file = File.createTempFile("tiles", null);
+        saved.save(file);
+
+        // holds the io thread before the file is read
+        final CountDownLatch reading = new CountDownLatch(1);
+        FileIO.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reading.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        try {
+            mScanner.stop();
+            mScanner.setTileCacheFile(file).start(mListener);
+            moveTo(LATITUDE + 0.01);
+            respond(0, item("https://far", LATITUDE + 0.01));
+
+            ShadowLooper.pauseMainLooper();
+            mScanner.stop();
+            mScanner.release();
+            reading.countDown();
+
+            // the read and merge, then the save
+            waitForFileIO();
+            waitForFileIO();
+
+            SearchTileCache reloaded = new SearchTileCache();
+            reloaded.load(file, System.currentTimeMillis());
+            assertEquals(urls("https://near"), reloaded.query(LATITUDE, LONGITUDE, 100, System.currentTimeMillis()).keySet());
+            assertEquals(urls("https://far"), reloaded.query(LATITUDE + 0.01, LONGITUDE, 100, System.currentTimeMillis()).keySet());
+        } finally {
+            reading.countDown();
+            ShadowLooper.unPauseMainLooper();
+            waitForFileIO();
+            file.delete();
+        }
+    }
+
+    private void respond(int index, MagnetScannerItem... items) {
+        HashMap<String, MagnetScannerItem> result = new HashMap<>();
+        for (MagnetScannerItem item : items) {
+            result.put(item.getUrl(), item);
+        }
+
+        SearchRequest request = (SearchRequest) mTransport.mSent.get(index);
+        request.deliverResponse(new SearchRequest.Result(result, null));
+    }
+
+    /**
+     * Reports a location then waits out the scan debounce.
+     */
+    private void moveTo(double latitude) {
+        mScanner.onLocationChanged(location(latitude));
+        ShadowLooper.idleMainLooper(1000, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for the file reads and writes queued so far, then for
+     * what they posted back.
+     */
+    private static void waitForFileIO() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        FileIO.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        done.await();
+        ShadowLooper.runUiThreadTasks();
+    }
+
+    private static Location location(double latitude) {
+        Location location = new Location("test");
+        location.setLatitude(latitude);
+        location.setLongitude(LONGITUDE);
+        location.setAccuracy(10);
+        location.setTime(System.currentTimeMillis());
+        return location;
+    }
+
+    private static MagnetScannerItem item(String url, double latitude) {
+        return SearchResponseParser.createItem(url, null, latitude, LONGITUDE);
+    }
+
+    private static Set<String> urls(String... urls) {
+        return new HashSet<>(Arrays.asList(urls));
+    }
+
+    private static class FakeTransport implements HttpTransport {
+        final List<Request<?>> mSent = new ArrayList<>();
+        final List<Object> mCancelled = new ArrayList<>();
+
+        @Override
+        public <T> Request<T> send(Request<T> request) {
+            mSent.add(request);
+            return request;
+        }
+
+        @Override
+        public void cancelAll(Object tag) {
+            mCancelled.add(tag);
+        }
+    }
+
+    private static class RecordingListener implements MagnetScannerListener {
+        final Set<String> mFound = new HashSet<>();
+        final Set<String> mLost = new HashSet<>();
+        int mUpdated;
+
+        @Override
+        public void onItemFound(MagnetScannerItem item) {
+            mFound.add(item.getUrl());
+        }
+
+        @Override
+        public void onItemLost(MagnetScannerItem item) {
+            mLost.add(item.getUrl());
+        }
+
+        @Override
+        public void onItemUpdated(MagnetScannerItem item) {
+            mUpdated++;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+
+import java.util.ArrayList;
+
+@RunWith(JUnit4.class)
+public class SearchPrefetcherTest extends TestCase {
+    private static final double LATITUDE = 51.5033;
+    private static final double LONGITUDE = -0.1196;
+    private SearchTileCache mTileCache;
+    private SearchPrefetcher mPrefetcher;
+
+    @Before
+    public void setup() {
+        mTileCache = new SearchTileCache(64, 60000);
+        mPrefetcher = new SearchPrefetcher(mTileCache, 100);
+    }
+
+    @Test
+    public void ignoresStationaryUser() {
+        assertNull(mPrefetcher.next(LATITUDE, LONGITUDE, 0, 0.1f, 0));
+        assertFalse(mPrefetcher.isPending());
+    }
+
+    @Test
+    public void prefetchesAreaAhead() {
+        // walking north
+        SearchTileCache.Area area = mPrefetcher.next(LATITUDE, LONGITUDE, 0, 1.5f, 0);
+        assertNotNull(area);
+        assertTrue(area.getLatitude() > LATITUDE);
+        assertEquals(LONGITUDE, area.getLongitude(), SearchTileCache.TILE_DEGREES * 2);
+
+        // walking east
+        mPrefetcher.onComplete(area);
+        area = mPrefetcher.next(LATITUDE, LONGITUDE, 90, 1.5f, 0);
+        assertNotNull(area);
+        assertTrue(area.getLongitude() > LONGITUDE);
+        assertEquals(LATITUDE, area.getLatitude(), SearchTileCache.TILE_DEGREES * 2);
+    }
+
+    @Test
+    public void prefetchesOneAreaAtATime() {
+        SearchTileCache.Area area = mPrefetcher.next(LATITUDE, LONGITUDE, 0, 1.5f, 0);
+        assertNull(mPrefetcher.next(LATITUDE, LONGITUDE, 180, 1.5f, 0));
+
+        mPrefetcher.onComplete(area);
+        assertFalse(mPrefetcher.isPending());
+        assertNotNull(mPrefetcher.next(LATITUDE, LONGITUDE, 180, 1.5f, 0));
+    }
+
+    @Test
+    public void cachesAreaAhead() {
+        SearchTileCache.Area area = mPrefetcher.next(LATITUDE, LONGITUDE, 0, 1.5f, 0);
+        mTileCache.put(area, new ArrayList<MagnetScannerItem>(), null, 0);
+        mPrefetcher.onComplete(area);
+
+        // arriving 100 m north is answered locally
+        assertNotNull(mTileCache.query(LATITUDE + 0.0009, LONGITUDE, 100, 1000));
+
+        // and there is nothing left to prefetch from here
+        assertNull(mPrefetcher.next(LATITUDE, LONGITUDE, 0, 1.5f, 1000));
+    }
+}
@@ -0,0 +1,124 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.HurlStack;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+/**
+ * Runs search requests synchronously against a local server that
+ * answers conditional requests with `304 Not Modified`.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class SearchRequestTest extends TestCase {
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Tue, 18 Oct 2016 10:00:00 GMT";
+    private static final String BODY = "[{\"short_url\":\"https://a\",\"channel_id\":\"one\","
+            + "\"location\":{\"latitude\":51.5,\"longitude\":-0.12}}]";
+
+    private HttpServer mServer;
+    private String mUrl;
+    private int mFullResponses;
+    private int mNotModifiedResponses;
+    private String mIfNoneMatch;
+    private String mIfModifiedSince;
+
+    @Before
+    public void setup() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/search/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mIfNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                mIfModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+
+                if (ETAG.equals(mIfNoneMatch)) {
+                    mNotModifiedResponses++;
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+
+                byte[] body = BODY.getBytes("utf-8");
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+                mFullResponses++;
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/search/51.5,-0.12,300";
+    }
+
+    @After
+    public void teardown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void remembersValidators() throws Exception {
+        SearchRequest.Result result = perform(new SearchRequest(mUrl, null, null));
+
+        assertFalse(result.isNotModified());
+        assertEquals(1, result.getItems().size());
+        assertEquals(mUrl, result.getValidators().mUrl);
+        assertEquals(ETAG, result.getValidators().mETag);
+        assertEquals(LAST_MODIFIED, result.getValidators().mLastModified);
+        assertNull(mIfNoneMatch);
+        assertNull(mIfModifiedSince);
+    }
+
+    @Test
+    public void revalidatesWithoutDownloading() throws Exception {
+        SearchRequest.Result first = perform(new SearchRequest(mUrl, null, null));
+        SearchRequest.Result second = perform(new SearchRequest(mUrl, null, null).setValidators(first.getValidators()));
+
+        assertEquals(ETAG, mIfNoneMatch);
+        assertEquals(LAST_MODIFIED, mIfModifiedSince);
+        assertTrue(second.isNotModified());
+        assertNull(second.getItems());
+        assertSame(first.getValidators(), second.getValidators());
+        assertEquals(1, mFullResponses);
+        assertEquals(1, mNotModifiedResponses);
+    }
+
+    @Test
+    public void downloadsWhenChanged() throws Exception {
+        SearchTileCache.Validators old = new SearchTileCache.Validators(mUrl, "\"v0\"", null);
+        SearchRequest.Result result = perform(new SearchRequest(mUrl, null, null).setValidators(old));
+
+        assertEquals("\"v0\"", mIfNoneMatch);
+        assertFalse(result.isNotModified());
+        assertEquals(1, result.getItems().size());
+        assertEquals(ETAG, result.getValidators().mETag);
+    }
+
+    private static SearchRequest.Result perform(SearchRequest request) throws VolleyError {
+        NetworkResponse networkResponse = new BasicNetwork(new HurlStack()).performRequest(request);
+        Response<SearchRequest.Result> response = request.parseNetworkResponse(networkResponse);
+        assertTrue(response.isSuccess());
+        return response.result;
+    }
+}
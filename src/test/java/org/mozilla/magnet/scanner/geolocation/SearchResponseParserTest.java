@@ -0,0 +1,104 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class SearchResponseParserTest extends TestCase {
+
+    @Test
+    public void parsesItems() throws Exception {
+        HashMap<String, MagnetScannerItem> items = parse("["
+                + "{\"short_url\":\"https://a\",\"channel_id\":\"one\",\"location\":{\"latitude\":51.5,\"longitude\":-0.12}},"
+                + "{\"short_url\":\"https://b\",\"channel_id\":2,\"location\":{\"latitude\":\"51.6\",\"longitude\":-0.13}}"
+                + "]");
+
+        assertEquals(2, items.size());
+        MagnetScannerItem item = items.get("https://a");
+        assertEquals("geolocation", item.getType());
+        assertEquals("one", item.getChannelId());
+        assertEquals(51.5, item.getLatitude());
+        assertEquals(-0.12, item.getLongitude());
+        assertEquals("2", items.get("https://b").getChannelId());
+        assertEquals(51.6, items.get("https://b").getLatitude());
+    }
+
+    @Test
+    public void skipsUnknownFields() throws Exception {
+        HashMap<String, MagnetScannerItem> items = parse("[{"
+                + "\"content\":{\"tags\":[\"a\",{\"b\":[1,2,null]}],\"body\":\"...\"},"
+                + "\"short_url\":\"https://a\","
+                + "\"is_virtual\":false,"
+                + "\"location\":{\"altitude\":null,\"latitude\":51.5,\"longitude\":-0.12},"
+                + "\"channel_id\":\"one\""
+                + "}]");
+
+        assertEquals(1, items.size());
+        assertNotNull(items.get("https://a"));
+    }
+
+    @Test
+    public void skipsIncompleteItems() throws Exception {
+        HashMap<String, MagnetScannerItem> items = parse("["
+                + "{\"short_url\":\"https://a\",\"channel_id\":\"one\"},"
+                + "{\"short_url\":null,\"channel_id\":\"one\",\"location\":{\"latitude\":51.5,\"longitude\":-0.12}},"
+                + "{\"short_url\":\"https://c\",\"channel_id\":\"one\",\"location\":{\"latitude\":\"x\",\"longitude\":-0.12}},"
+                + "\"https://d\","
+                + "{\"short_url\":\"https://e\",\"channel_id\":\"one\",\"location\":{\"latitude\":51.5,\"longitude\":-0.12}}"
+                + "]");
+
+        assertEquals(1, items.size());
+        assertNotNull(items.get("https://e"));
+    }
+
+    @Test
+    public void parsesEmptyResponse() throws Exception {
+        assertTrue(parse("[]").isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsObjectResponse() throws Exception {
+        parse("{\"error\":\"not found\"}");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedResponse() throws Exception {
+        parse("[{\"short_url\":\"https://a\",\"chan");
+    }
+
+    @Test
+    public void parsesRegion() throws Exception {
+        String body = "{\"version\":7,\"bounds\":{\"north\":52},\"items\":["
+                + "{\"short_url\":\"https://a\",\"channel_id\":\"one\",\"location\":{\"latitude\":51.5,\"longitude\":-0.12}},"
+                + "{\"short_url\":\"https://b\"}"
+                + "],\"removed\":[\"https://c\",null]}";
+        RegionIndex.Update update = SearchResponseParser.parseRegion(
+                new ByteArrayInputStream(body.getBytes("utf-8")), "utf-8", false);
+
+        assertEquals(7, update.mVersion);
+        assertFalse(update.mFull);
+        assertEquals(1, update.mItems.size());
+        assertEquals("https://a", update.mItems.get(0).getUrl());
+        assertEquals(1, update.mRemoved.size());
+        assertEquals("https://c", update.mRemoved.get(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsArrayRegion() throws Exception {
+        SearchResponseParser.parseRegion(new ByteArrayInputStream("[]".getBytes("utf-8")), "utf-8", true);
+    }
+
+    private static HashMap<String, MagnetScannerItem> parse(String body) throws IOException {
+        return SearchResponseParser.parse(new ByteArrayInputStream(body.getBytes("utf-8")), "utf-8");
+    }
+}
@@ -0,0 +1,235 @@
+package org.mozilla.magnet.scanner.geolocation;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class SearchTileCacheTest extends TestCase {
+    private static final double LATITUDE = 51.5033;
+    private static final double LONGITUDE = -0.1196;
+    private static final long TTL = 60000;
+
+    // roughly 50 m and 140 m north of the query point
+    private final MagnetScannerItem mNear = item("https://near", LATITUDE + 0.00045, LONGITUDE);
+    private final MagnetScannerItem mFar = item("https://far", LATITUDE + 0.00125, LONGITUDE);
+
+    @Test
+    public void missesEmptyCache() {
+        SearchTileCache cache = new SearchTileCache(64, TTL);
+        assertNull(cache.query(LATITUDE, LONGITUDE, 100, 0));
+        assertNotNull(cache.getMissingArea(LATITUDE, LONGITUDE, 100, 0));
+    }
+
+    @Test
+    public void missingAreaCircumscribesQuery() {
+        SearchTileCache cache = new SearchTileCache(64, TTL);
+        SearchTileCache.Area area = cache.getMissingArea(LATITUDE, LONGITUDE, 100, 0);
+
+        double distance = SearchTileCache.distance(LATITUDE, LONGITUDE, area.getLatitude(), area.getLongitude());
+        assertTrue(distance + 100 <= area.getRadius());
+    }
+
+    @Test
+    public void answersCoveredQueryFilteredToRadius() {
+        SearchTileCache cache = fill(new SearchTileCache(64, TTL), 0);
+
+        HashMap<String, MagnetScannerItem> items = cache.query(LATITUDE, LONGITUDE, 100, 1000);
+        assertNotNull(items);
+        assertEquals(1, items.size());
+        assertSame(mNear, items.get("https://near"));
+        assertNull(cache.getMissingArea(LATITUDE, LONGITUDE, 100, 1000));
+    }
+
+    @Test
+    public void answersNearbyQueryInSameArea() {
+        SearchTileCache cache = fill(new SearchTileCache(64, TTL), 0);
+
+        // moved 50 m north, both items now in range
+        HashMap<String, MagnetScannerItem> items = cache.query(LATITUDE + 0.00045, LONGITUDE, 100, 1000);
+        assertNotNull(items);
+        assertEquals(2, items.size());
+    }
+
+    @Test
+    public void missesStaleTiles() {
+        SearchTileCache cache = fill(new SearchTileCache(64, TTL), 0);
+        assertNull(cache.query(LATITUDE, LONGITUDE, 100, TTL + 1));
+        assertNotNull(cache.getMissingArea(LATITUDE, LONGITUDE, 100, TTL + 1));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedTiles() {
+        SearchTileCache cache = fill(new SearchTileCache(4, TTL), 0);
+        assertTrue(cache.size() <= 4);
+
+        // a search far away evicts the first area
+        SearchTileCache.Area area = cache.getMissingArea(LATITUDE + 1, LONGITUDE, 100, 0);
+        cache.put(area, new ArrayList<MagnetScannerItem>(), null, 0);
+        assertNull(cache.query(LATITUDE, LONGITUDE, 100, 0));
+    }
+
+    @Test
+    public void persistsTiles() throws Exception {
+        File file = File.createTempFile("tiles", null);
+        file.delete();
+
+        try {
+            fill(new SearchTileCache(64, TTL), 0).save(file);
+
+            SearchTileCache cache = new SearchTileCache(64, TTL);
+            cache.load(file, 1000);
+            HashMap<String, MagnetScannerItem> items = cache.query(LATITUDE, LONGITUDE, 100, 1000);
+            assertNotNull(items);
+            assertEquals(1, items.size());
+            assertEquals("channel", items.get("https://near").getChannelId());
+
+            // stale tiles aren't loaded
+            SearchTileCache stale = new SearchTileCache(64, TTL);
+            stale.load(file, TTL + 1);
+            assertEquals(0, stale.size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void persistsMissingChannel() throws Exception {
+        File file = File.createTempFile("tiles", null);
+        file.delete();
+
+        try {
+            SearchTileCache cache = new SearchTileCache(64, TTL);
+            SearchTileCache.Area area = cache.getMissingArea(LATITUDE, LONGITUDE, 100, 0);
+            List<MagnetScannerItem> items = new ArrayList<>();
+            items.add(SearchResponseParser.createItem("https://near", null, LATITUDE, LONGITUDE));
+            cache.put(area, items, null, 0);
+            cache.save(file);
+
+            SearchTileCache loaded = new SearchTileCache(64, TTL);
+            loaded.load(file, 0);
+            assertNull(loaded.query(LATITUDE, LONGITUDE, 100, 0).get("https://near").getChannelId());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void mergesOnlyMissingTiles() {
+        SearchTileCache loaded = fill(new SearchTileCache(64, TTL), 0);
+
+        // fetched again while the file was being read
+        SearchTileCache cache = new SearchTileCache(64, TTL);
+        SearchTileCache.Area area = cache.getMissingArea(LATITUDE, LONGITUDE, 100, 0);
+        cache.put(area, new ArrayList<MagnetScannerItem>(), null, 0);
+
+        // and tiles only the file has
+        SearchTileCache.Area away = loaded.getMissingArea(LATITUDE + 1, LONGITUDE, 100, 0);
+        loaded.put(away, new ArrayList<MagnetScannerItem>(), null, 0);
+
+        int size = cache.size();
+        cache.merge(loaded);
+        assertEquals(size + away.getTileCount(), cache.size());
+        assertTrue(cache.query(LATITUDE, LONGITUDE, 100, 0).isEmpty());
+    }
+
+    @Test
+    public void searchesOnlyUncoveredPartOfCircle() {
+        SearchTileCache cache = fill(new SearchTileCache(64, TTL), 0);
+
+        // a tile north, half the circle is still cached
+        double latitude = LATITUDE + SearchTileCache.TILE_DEGREES;
+        SearchTileCache.Area missing = cache.getMissingArea(latitude, LONGITUDE, 100, 0);
+        SearchTileCache.Area circle = SearchTileCache.Area.around(latitude, LONGITUDE, 100);
+        assertTrue(missing.getTileCount() < circle.getTileCount());
+        assertTrue(missing.getLatitude() > latitude);
+
+        // answered from the cached half and the searched one
+        MagnetScannerItem ahead = item("https://ahead", latitude + 0.0008, LONGITUDE);
+        List<MagnetScannerItem> items = new ArrayList<>();
+        items.add(ahead);
+        cache.put(missing, items, null, 0);
+
+        HashMap<String, MagnetScannerItem> result = cache.query(latitude, LONGITUDE, 100, 0);
+        assertNotNull(result);
+        assertSame(mFar, result.get("https://far"));
+        assertSame(ahead, result.get("https://ahead"));
+    }
+
+    @Test
+    public void revalidatesStaleArea() {
+        SearchTileCache cache = new SearchTileCache(64, TTL);
+        SearchTileCache.Area area = cache.getMissingArea(LATITUDE, LONGITUDE, 100, 0);
+        SearchTileCache.Validators validators = new SearchTileCache.Validators("https://search/1", "\"v1\"", null);
+        List<MagnetScannerItem> items = new ArrayList<>();
+        items.add(mNear);
+        cache.put(area, items, validators, 0);
+
+        // stale, but still holds the validators to revalidate with
+        SearchTileCache.Area stale = cache.getMissingArea(LATITUDE, LONGITUDE, 100, TTL + 1);
+        assertSame(validators, cache.getValidators(stale, "https://search/1"));
+        assertNull(cache.getValidators(stale, "https://search/2"));
+
+        assertTrue(cache.revalidate(stale, validators, TTL + 1));
+        HashMap<String, MagnetScannerItem> result = cache.query(LATITUDE, LONGITUDE, 100, TTL + 1);
+        assertNotNull(result);
+        assertSame(mNear, result.get("https://near"));
+    }
+
+    @Test
+    public void doesntRevalidateReplacedArea() {
+        SearchTileCache cache = new SearchTileCache(64, TTL);
+        SearchTileCache.Area area = cache.getMissingArea(LATITUDE, LONGITUDE, 100, 0);
+        SearchTileCache.Validators validators = new SearchTileCache.Validators("https://search/1", "\"v1\"", null);
+        cache.put(area, new ArrayList<MagnetScannerItem>(), validators, 0);
+
+        // refetched while the conditional search was in flight
+        cache.put(area, new ArrayList<MagnetScannerItem>(), new SearchTileCache.Validators("https://search/1", "\"v2\"", null), 0);
+        assertFalse(cache.revalidate(area, validators, TTL + 1));
+    }
+
+    @Test
+    public void persistsValidators() throws Exception {
+        File file = File.createTempFile("tiles", null);
+        file.delete();
+
+        try {
+            SearchTileCache cache = new SearchTileCache(64, TTL);
+            SearchTileCache.Area area = cache.getMissingArea(LATITUDE, LONGITUDE, 100, 0);
+            cache.put(area, new ArrayList<MagnetScannerItem>(), new SearchTileCache.Validators("https://search/1", null, "yesterday"), 0);
+            cache.save(file);
+
+            // stale tiles with validators are kept for revalidation
+            SearchTileCache loaded = new SearchTileCache(64, TTL);
+            loaded.load(file, TTL + 1);
+            assertNull(loaded.query(LATITUDE, LONGITUDE, 100, TTL + 1));
+            SearchTileCache.Validators validators = loaded.getValidators(area, "https://search/1");
+            assertNotNull(validators);
+            assertNull(validators.mETag);
+            assertEquals("yesterday", validators.mLastModified);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private SearchTileCache fill(SearchTileCache cache, long now) {
+        SearchTileCache.Area area = cache.getMissingArea(LATITUDE, LONGITUDE, 100, now);
+        List<MagnetScannerItem> items = new ArrayList<>();
+        items.add(mNear);
+        items.add(mFar);
+        cache.put(area, items, null, now);
+        return cache;
+    }
+
+    private static MagnetScannerItem item(String url, double latitude, double longitude) {
+        return SearchResponseParser.createItem(url, "channel", latitude, longitude);
+    }
+}
@@ -0,0 +1,141 @@
+package org.mozilla.magnet.scanner.mdns;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.net.nsd.NsdManager;
+import android.net.nsd.NsdServiceInfo;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mozilla.magnet.scanner.MagnetScannerItem;
+import org.mozilla.magnet.scanner.MagnetScannerListener;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class ScannerMdnsTest extends TestCase {
+    private static final String URL = "https://www.mozilla.org/";
+
+    private ScannerMdns mScanner;
+    private RecordingListener mListener;
+
+    @Before
+    public void setup() {
+        NetworkInfo wifi = mock(NetworkInfo.class);
+        when(wifi.getType()).thenReturn(ConnectivityManager.TYPE_WIFI);
+        ConnectivityManager connectivity = mock(ConnectivityManager.class);
+        when(connectivity.getActiveNetworkInfo()).thenReturn(wifi);
+
+        Context context = mock(Context.class);
+        when(context.getSystemService(Context.NSD_SERVICE)).thenReturn(mock(NsdManager.class));
+        when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(connectivity);
+
+        mScanner = new ScannerMdns(context);
+        mListener = new RecordingListener();
+    }
+
+    @Test
+    public void changesItemsOnScannerThread() throws Exception {
+        mScanner.start(mListener);
+        ShadowLooper.pauseMainLooper();
+
+        // as the nsd thread would
+        runOnOtherThread(new Runnable() {
+            @Override
+            public void run() {
+                mScanner.onServiceFound(service(URL));
+            }
+        });
+        assertTrue(mListener.mFound.isEmpty());
+
+        ShadowLooper.unPauseMainLooper();
+        assertEquals(1, mListener.mFound.size());
+        assertEquals(URL, mListener.mFound.get(0).getUrl());
+
+        ShadowLooper.pauseMainLooper();
+        runOnOtherThread(new Runnable() {
+            @Override
+            public void run() {
+                mScanner.onServiceLost(service(URL));
+            }
+        });
+        assertTrue(mListener.mLost.isEmpty());
+
+        ShadowLooper.unPauseMainLooper();
+        assertEquals(1, mListener.mLost.size());
+    }
+
+    @Test
+    public void startsOnThreadWithoutLooper() throws Exception {
+        mScanner.setItemMaxAge(1000);
+
+        // items then live on the main thread
+        runOnOtherThread(new Runnable() {
+            @Override
+            public void run() {
+                mScanner.start(mListener);
+            }
+        });
+        mScanner.onServiceFound(service(URL));
+        ShadowLooper.idleMainLooper(100, TimeUnit.MILLISECONDS);
+        assertEquals(1, mListener.mFound.size());
+
+        ShadowLooper.idleMainLooper(2000, TimeUnit.MILLISECONDS);
+        assertEquals(1, mListener.mLost.size());
+    }
+
+    @Test
+    public void dropsServicesFoundAfterStop() {
+        mScanner.start(mListener);
+        ShadowLooper.pauseMainLooper();
+        mScanner.onServiceFound(service(URL));
+        mScanner.stop();
+
+        ShadowLooper.unPauseMainLooper();
+        assertTrue(mListener.mFound.isEmpty());
+        assertTrue(mScanner.getItems().isEmpty());
+    }
+
+    private static NsdServiceInfo service(String name) {
+        NsdServiceInfo service = new NsdServiceInfo();
+        service.setServiceName(name);
+        return service;
+    }
+
+    private static void runOnOtherThread(Runnable runnable) throws InterruptedException {
+        Thread thread = new Thread(runnable);
+        thread.start();
+        thread.join();
+    }
+
+    private static class RecordingListener implements MagnetScannerListener {
+        final List<MagnetScannerItem> mFound = new ArrayList<>();
+        final List<MagnetScannerItem> mLost = new ArrayList<>();
+
+        @Override
+        public void onItemFound(MagnetScannerItem item) {
+            mFound.add(item);
+        }
+
+        @Override
+        public void onItemLost(MagnetScannerItem item) {
+            mLost.add(item);
+        }
+
+        @Override
+        public void onItemUpdated(MagnetScannerItem item) {
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.mozilla.magnet.scanner.net;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class BackoffTest extends TestCase {
+
+    @Test
+    public void growsExponentiallyWithJitter() {
+        Backoff backoff = new Backoff(1000, 8000, 5, new Random(1));
+        long[] caps = { 1000, 2000, 4000, 8000, 8000 };
+
+        for (int retry = 0; retry < caps.length; retry++) {
+            for (int i = 0; i < 100; i++) {
+                long delay = backoff.getDelay(retry);
+                assertTrue("retry " + retry + ": " + delay, delay >= caps[retry] / 2 && delay <= caps[retry]);
+            }
+        }
+
+        assertEquals(-1, backoff.getDelay(5));
+    }
+
+    @Test
+    public void spreadsRetries() {
+        Backoff backoff = new Backoff(1000, 8000, 3, new Random(1));
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        for (int i = 0; i < 100; i++) {
+            long delay = backoff.getDelay(2);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+
+        assertTrue(max - min > 1000);
+    }
+}
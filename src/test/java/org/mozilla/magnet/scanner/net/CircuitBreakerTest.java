@@ -0,0 +1,82 @@
+package org.mozilla.magnet.scanner.net;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class CircuitBreakerTest extends TestCase {
+    private static final long COOL_DOWN = 60000;
+    private CircuitBreaker mBreaker;
+
+    @Before
+    public void setup() {
+        mBreaker = new CircuitBreaker(3, COOL_DOWN);
+    }
+
+    @Test
+    public void opensAfterFailuresInARow() {
+        mBreaker.onFailure(0);
+        mBreaker.onFailure(0);
+        mBreaker.onSuccess();
+        mBreaker.onFailure(0);
+        mBreaker.onFailure(0);
+        assertTrue(mBreaker.allowRequest(0));
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState(0));
+
+        mBreaker.onFailure(1000);
+        assertTrue(mBreaker.isOpen(1000));
+        assertFalse(mBreaker.allowRequest(1000));
+        assertFalse(mBreaker.allowRequest(COOL_DOWN));
+    }
+
+    @Test
+    public void probesAfterCoolDown() {
+        open(0);
+        long later = COOL_DOWN;
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mBreaker.getState(later));
+        assertFalse(mBreaker.isOpen(later));
+
+        // a single probe at a time
+        assertTrue(mBreaker.allowRequest(later));
+        assertFalse(mBreaker.allowRequest(later + 1000));
+
+        mBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState(later + 1000));
+        assertTrue(mBreaker.allowRequest(later + 1000));
+    }
+
+    @Test
+    public void reopensWhenProbeFails() {
+        open(0);
+        assertTrue(mBreaker.allowRequest(COOL_DOWN));
+
+        mBreaker.onFailure(COOL_DOWN + 500);
+        assertTrue(mBreaker.isOpen(COOL_DOWN + 500));
+        assertFalse(mBreaker.allowRequest(2 * COOL_DOWN));
+        assertTrue(mBreaker.allowRequest(2 * COOL_DOWN + 500));
+    }
+
+    @Test
+    public void replacesLostProbe() {
+        open(0);
+        assertTrue(mBreaker.allowRequest(COOL_DOWN));
+
+        // the probe was cancelled and never reported back
+        assertFalse(mBreaker.allowRequest(COOL_DOWN + 1000));
+        assertTrue(mBreaker.allowRequest(2 * COOL_DOWN));
+    }
+
+    private void open(long now) {
+        for (int i = 0; i < 3; i++) {
+            mBreaker.onFailure(now);
+        }
+        assertTrue(mBreaker.isOpen(now));
+    }
+}
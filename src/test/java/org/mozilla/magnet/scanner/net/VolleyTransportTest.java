@@ -0,0 +1,192 @@
+package org.mozilla.magnet.scanner.net;
+
+import com.android.volley.ExecutorDelivery;
+import com.android.volley.Request;
+import com.android.volley.TimeoutError;
+import com.android.volley.toolbox.RequestFuture;
+import com.android.volley.toolbox.StringRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends requests through the transport to a local server counting
+ * the bytes it writes and the connections requests arrive on.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 21, manifest = Config.NONE)
+public class VolleyTransportTest extends TestCase {
+    private static final String BODY;
+
+    static {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) body.append(',');
+            body.append("{\"short_url\":\"https://goo.gl/").append(i).append("\",\"channel_id\":\"channel\",")
+                    .append("\"location\":{\"latitude\":51.5033,\"longitude\":-0.1196}}");
+        }
+        BODY = body.append(']').toString();
+    }
+
+    private HttpServer mServer;
+    private String mUrl;
+    private VolleyTransport mTransport;
+    private final Set<Integer> mClientPorts = new HashSet<>();
+    private String mAcceptEncoding;
+    private int mBytesSent;
+
+    @Before
+    public void setup() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (VolleyTransportTest.this) {
+                    mClientPorts.add(exchange.getRemoteAddress().getPort());
+                    mAcceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                }
+
+                if (exchange.getRequestURI().getPath().equals("/slow")) {
+                    sleep(1000);
+                }
+
+                byte[] body = BODY.getBytes("utf-8");
+                if (mAcceptEncoding != null && mAcceptEncoding.contains("gzip")) {
+                    body = gzip(body);
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+
+                synchronized (VolleyTransportTest.this) {
+                    mBytesSent += body.length;
+                }
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort();
+
+        // deliver on the network thread, there's no main looper running
+        mTransport = new VolleyTransport(1, new ExecutorDelivery(new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        }));
+    }
+
+    @After
+    public void teardown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void negotiatesGzip() throws Exception {
+        assertEquals(BODY, get(mUrl + "/search", Request.Priority.NORMAL));
+        assertEquals("gzip", mAcceptEncoding);
+
+        // repetitive json compresses well
+        assertTrue("sent " + mBytesSent + " of " + BODY.length() + " bytes", mBytesSent < BODY.length() / 10);
+    }
+
+    @Test
+    public void reusesConnections() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            assertEquals(BODY, get(mUrl + "/search/" + i, Request.Priority.HIGH));
+        }
+
+        assertEquals(1, mClientPorts.size());
+    }
+
+    @Test
+    public void timesOutByPriority() throws Exception {
+        mTransport.setTimeout(Request.Priority.HIGH, 200);
+        long start = System.nanoTime();
+
+        try {
+            get(mUrl + "/slow", Request.Priority.HIGH);
+            fail("expected a timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutError);
+        }
+
+        // not retried, the caller decides what to do next
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + elapsed + " ms", elapsed >= 200 && elapsed < 1000);
+
+        assertEquals(BODY, get(mUrl + "/slow", Request.Priority.LOW));
+    }
+
+    @Test
+    public void cancelsByTag() throws Exception {
+        Object tag = new Object();
+        RequestFuture<String> future = RequestFuture.newFuture();
+        StringRequest request = new StringRequest(mUrl + "/slow", future, future);
+        request.setTag(tag);
+
+        mTransport.send(request);
+        mTransport.cancelAll(tag);
+
+        assertTrue(request.isCanceled());
+        try {
+            future.get(2, TimeUnit.SECONDS);
+            fail("expected no response");
+        } catch (TimeoutException e) {
+            // cancelled requests are never delivered
+        }
+    }
+
+    private String get(String url, final Request.Priority priority) throws Exception {
+        RequestFuture<String> future = RequestFuture.newFuture();
+        StringRequest request = new StringRequest(url, future, future) {
+            @Override
+            public Priority getPriority() {
+                return priority;
+            }
+        };
+
+        mTransport.send(request);
+        return future.get(5, TimeUnit.SECONDS);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}